@@ -566,7 +566,7 @@ class WritableMemoryImpl extends WritableMemory {
   public void putShort(final long offsetBytes, final short value) {
     checkValid();
     assertBounds(offsetBytes, ARRAY_SHORT_INDEX_SCALE, this.capacity);
-    unsafe.putLong(this.unsafeObj, this.cumBaseOffset + offsetBytes, value);
+    unsafe.putShort(this.unsafeObj, this.cumBaseOffset + offsetBytes, value);
   }
 
   @Override
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.experiments;
+
+import java.util.Random;
+
+import com.yahoo.sketches.hashmaps.HashMap;
+import com.yahoo.sketches.hashmaps.HashMapBucketizedCuckoo;
+import com.yahoo.sketches.hashmaps.HashMapCompact;
+import com.yahoo.sketches.hashmaps.HashMapReverseEfficient;
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+/**
+ * Measures the costs the adaptive FrequentItemsAbstractHash weighs when it chooses its table: for
+ * each candidate table, the nanoseconds of an update that hits a key already in the table, of an
+ * update that inserts a new key into a table filling up to its capacity, and of a purge, per
+ * counter of capacity. Prints one line per table and table length, the constants of
+ * AdaptiveHashMapSelector, and the mean probe length of the full table, which the selector scales
+ * the costs of the linear-probing tables by.
+ */
+public class CalibrateAdaptiveHashMapSelector {
+  static final String[] CANDIDATES = {"ReverseEfficient", "BucketizedCuckoo", "Compact"};
+  static final int TRIALS = 7;
+  static final int HITS = 1 << 20;
+  static long sink = 0;
+
+  public static void main(final String[] args) {
+    System.out.format("table\tlength\thitNanos\tinsertNanos\tpurgeNanosPerCounter\t"
+        + "probeLength\n");
+    for (final String candidate: CANDIDATES) {
+      for (int length = 1 << 11; length <= 1 << 17; length <<= 1) {
+        final double[] best = measure(candidate, length / 4 * 3);
+        System.out.format("%s\t%d\t%.1f\t%.1f\t%.1f\t%.2f\n", candidate, length, best[0],
+            best[1], best[2], best[3]);
+      }
+    }
+  }
+
+  private static double[] measure(final String candidate, final int capacity) {
+    final double[] best = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, 0};
+    final Random random = new Random(capacity);
+    for (int t = 0; t < TRIALS; t++) {
+      // inserts: fill an empty table up to its capacity with new keys
+      final HashMap table = newTable(candidate, capacity);
+      final int n = table.getCapacity();
+      final long[] keys = new long[n];
+      for (int i = 0; i < n; i++) {
+        keys[i] = random.nextLong();
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        table.adjust(keys[i], 1 + (i & 15));
+      }
+      best[1] = Math.min(best[1], (double) (System.nanoTime() - start) / n);
+      best[3] = table.getStats(1).getMeanProbeLength();
+
+      // hits: update the keys of the full table in random order
+      final long[] order = new long[HITS];
+      for (int i = 0; i < HITS; i++) {
+        order[i] = keys[random.nextInt(n)];
+      }
+      start = System.nanoTime();
+      for (int i = 0; i < HITS; i++) {
+        table.adjust(order[i], 1);
+      }
+      best[0] = Math.min(best[0], (double) (System.nanoTime() - start) / HITS);
+
+      // purge: the same steps as FrequentItemsAbstractHash.purge
+      start = System.nanoTime();
+      final long median = table.quickSelect(0.5, Math.min(n, 1024));
+      table.adjustAllValuesBy(-1 * median);
+      table.keepOnlyLargerThan(0);
+      best[2] = Math.min(best[2], (double) (System.nanoTime() - start) / n);
+      sink += table.getSize();
+    }
+    return best;
+  }
+
+  private static HashMap newTable(final String candidate, final int capacity) {
+    if (candidate.equals("BucketizedCuckoo")) {
+      return new HashMapBucketizedCuckoo(capacity, HashStrategy.FMIX64);
+    }
+    if (candidate.equals("Compact")) {
+      return new HashMapCompact(capacity, HashStrategy.FMIX64);
+    }
+    return new HashMapReverseEfficient(capacity, HashStrategy.FMIX64);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.experiments;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.yahoo.sketches.frequencies.CountMinFast;
+import com.yahoo.sketches.frequencies.CountMinFastFE;
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+/**
+ * Compares the time per key of update(key) and getEstimate(key) of CountMinFast and CountMinFastFE,
+ * on sketches from about 100 KB to 128 MB of counters. Prints one line per sketch size: eps, delta,
+ * and the best nanoseconds per key of each method over TRIALS runs.
+ */
+public class StressTestCountMin {
+  static final int STREAM_LENGTH = 1 << 22;
+  static final int TRIALS = 5;
+  static long sink = 0;
+
+  public static void main(final String[] args) {
+    stress();
+  }
+
+  private static void stress() {
+    final long[] stream = zipfStream(STREAM_LENGTH, 1 << 26, 1.1, new Random(1));
+    System.out.format("eps\tdelta\tfastUpdate\tfeUpdate\tfastEstimate\tfeEstimate\n");
+    for (final double eps: new double[] {1e-3, 1e-4, 1e-5, 1e-6}) {
+      final double delta = 0.01;
+      final double[] best = new double[4];
+      Arrays.fill(best, Double.MAX_VALUE);
+      for (int t = 0; t < TRIALS; t++) {
+        final CountMinFast fast = new CountMinFast(eps, delta, HashStrategy.FMIX64);
+        final CountMinFastFE fe = new CountMinFastFE(eps, delta, HashStrategy.FMIX64);
+
+        long start = System.nanoTime();
+        for (final long key: stream) {
+          fast.update(key);
+        }
+        best[0] = Math.min(best[0], perKey(start));
+
+        start = System.nanoTime();
+        for (final long key: stream) {
+          fe.update(key);
+        }
+        best[1] = Math.min(best[1], perKey(start));
+
+        long sum = 0;
+        start = System.nanoTime();
+        for (final long key: stream) {
+          sum += fast.getEstimate(key);
+        }
+        best[2] = Math.min(best[2], perKey(start));
+
+        long feSum = 0;
+        start = System.nanoTime();
+        for (final long key: stream) {
+          feSum += fe.getEstimate(key);
+        }
+        best[3] = Math.min(best[3], perKey(start));
+        // keeps the estimate loops from being optimized away
+        sink += sum + feSum;
+      }
+      System.out.format("%g\t%g\t%.1f\t%.1f\t%.1f\t%.1f\n", eps, delta,
+          best[0], best[1], best[2], best[3]);
+    }
+  }
+
+  private static double perKey(final long startTime) {
+    return (double) (System.nanoTime() - startTime) / STREAM_LENGTH;
+  }
+
+  // keys drawn from a Zipf-like distribution over [0, universe), with exponent s, by inverting
+  // the continuous approximation of its distribution function
+  private static long[] zipfStream(final int length, final long universe, final double s,
+      final Random random) {
+    final long[] stream = new long[length];
+    final double max = Math.pow(universe, 1 - s);
+    for (int i = 0; i < length; i++) {
+      final double u = random.nextDouble();
+      stream[i] = (long) Math.pow(1 + u * (max - 1), 1 / (1 - s));
+    }
+    return stream;
+  }
+}
@@ -2,6 +2,10 @@ package com.yahoo.sketches.experiments;
 
 import com.yahoo.sketches.frequencies.FrequencyEstimator;
 import com.yahoo.sketches.frequencies.FrequentItemsAbstractHash;
+import com.yahoo.sketches.frequencies.FrequentItemsBucketizedCuckoo;
+import com.yahoo.sketches.frequencies.FrequentItemsCompact;
+import com.yahoo.sketches.frequencies.FrequentItemsReverseEfficient;
+import com.yahoo.sketches.hashmaps.HashStrategy;
 
 public class StressTestFrequentItems {
 
@@ -15,9 +19,18 @@ public class StressTestFrequentItems {
                                                     "TroveRebuilds",
                                                     "ProbingWithRebuilds",
                                                     "DoubleHashingWithRebuilds",
-                                                    "ImplicitDeletes"
+                                                    "ImplicitDeletes",
+                                                    "BucketizedCuckoo",
+                                                    "Compact",
+                                                    "Adaptive"
                                                     };
 
+  // the types that also have a FrequentItems<type> class bound to a single table class
+  static final String[] specializedHashMapTypes = new String[]{"ReverseEfficient",
+                                                               "BucketizedCuckoo",
+                                                               "Compact"
+                                                               };
+
   static final String[] dataTypes = new String[]{"uniform",
                                                  "exponential",
                                                  "planted",
@@ -41,8 +54,9 @@ public class StressTestFrequentItems {
           for (String hashMapType: hashMapTypes) {
             for (int sampleSizeRatio : sampleSizeRatios) {
               final int sampleSize = k / sampleSizeRatio;
-              final FrequencyEstimator fi =
-                  new FrequentItemsAbstractHash(k, initialCapacity, sampleSize, hashMapType);
+              // keys from StreamHandler are already hashes, so they are not hashed again
+              final FrequencyEstimator fi = new FrequentItemsAbstractHash(k, initialCapacity,
+                  sampleSize, hashMapType, HashStrategy.IDENTITY);
               final long timePerUpdate = timeOneFrequencyEstimator(fi, keys);
               System.out.format("{\"hashMapType\":\"%s\","
                                + "\"dataType\":\"%s\","
@@ -52,11 +66,41 @@ public class StressTestFrequentItems {
                                hashMapType, dataType, k, sampleSize, timePerUpdate);
             }
           }
+          // the same sketches with every call on the table monomorphic
+          for (String hashMapType: specializedHashMapTypes) {
+            for (int sampleSizeRatio : sampleSizeRatios) {
+              final int sampleSize = k / sampleSizeRatio;
+              final FrequencyEstimator fi = newSpecializedFrequentItems(hashMapType, k,
+                  initialCapacity, sampleSize);
+              final long timePerUpdate = timeOneFrequencyEstimator(fi, keys);
+              System.out.format("{\"hashMapType\":\"%s/specialized\","
+                               + "\"dataType\":\"%s\","
+                               + "\"k\":%d,"
+                               + "\"sampleSize\":%d"
+                               + "\"timePerUpdate\":%d}\n",
+                               hashMapType, dataType, k, sampleSize, timePerUpdate);
+            }
+          }
         }
       }
     }
   }
 
+  private static FrequencyEstimator newSpecializedFrequentItems(final String hashMapType,
+      final int k, final int initialCapacity, final int sampleSize) {
+    switch (hashMapType) {
+      case "ReverseEfficient":
+        return new FrequentItemsReverseEfficient(k, initialCapacity, sampleSize,
+            HashStrategy.IDENTITY);
+      case "BucketizedCuckoo":
+        return new FrequentItemsBucketizedCuckoo(k, initialCapacity, sampleSize,
+            HashStrategy.IDENTITY);
+      case "Compact":
+        return new FrequentItemsCompact(k, initialCapacity, sampleSize, HashStrategy.IDENTITY);
+    }
+    return null;
+  }
+
   private static long timeOneFrequencyEstimator(final FrequencyEstimator fi, final long[] keys) {
     final long startTime = System.nanoTime();
       for (long key : keys) { fi.update(key, 1); }
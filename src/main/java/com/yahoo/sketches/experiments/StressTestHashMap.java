@@ -6,6 +6,8 @@
 package com.yahoo.sketches.experiments;
 
 import com.yahoo.sketches.hashmaps.HashMap;
+import com.yahoo.sketches.hashmaps.HashMapBucketizedCuckoo;
+import com.yahoo.sketches.hashmaps.HashMapCompact;
 import com.yahoo.sketches.hashmaps.HashMapDoubleHashingWithRebuilds;
 import com.yahoo.sketches.hashmaps.HashMapLinearProbingWithRebuilds;
 import com.yahoo.sketches.hashmaps.HashMapReverseEfficient;
@@ -15,9 +17,10 @@ import com.yahoo.sketches.hashmaps.HashMapTrove;
 import com.yahoo.sketches.hashmaps.HashMapTroveRebuilds;
 import com.yahoo.sketches.hashmaps.HashMapWithEfficientDeletes;
 import com.yahoo.sketches.hashmaps.HashMapWithImplicitDeletes;
+import com.yahoo.sketches.hashmaps.HashStrategy;
 
 public class StressTestHashMap {
-  final static int NUM_HASHMAP_CLASSES = 9;
+  final static int NUM_HASHMAP_CLASSES = 11;
   final static int NUM_STREAM_TYPES = 5;
 
   public static void main(final String[] args) {
@@ -52,26 +55,33 @@ public class StressTestHashMap {
     return (endTime - startTime) / keys.length;
   }
 
+  // the streams are read through StreamHandler, which already hashes every line, so the maps
+  // are built with HashStrategy.IDENTITY (the Trove maps always hash internally)
   static private HashMap hashMapFactory(final int capacity, final int i) {
+    final HashStrategy hashStrategy = HashStrategy.IDENTITY;
     switch (i) {
       case 0:
         return new HashMapTrove(capacity);
       case 1:
         return new HashMapTroveRebuilds(capacity);
       case 2:
-        return new HashMapLinearProbingWithRebuilds(capacity);
+        return new HashMapLinearProbingWithRebuilds(capacity, hashStrategy);
       case 3:
-        return new HashMapDoubleHashingWithRebuilds(capacity);
+        return new HashMapDoubleHashingWithRebuilds(capacity, hashStrategy);
       case 4:
-        return new HashMapWithImplicitDeletes(capacity);
+        return new HashMapWithImplicitDeletes(capacity, hashStrategy);
       case 5:
-        return new HashMapWithEfficientDeletes(capacity);
+        return new HashMapWithEfficientDeletes(capacity, hashStrategy);
       case 6:
-        return new HashMapRobinHood(capacity);
+        return new HashMapRobinHood(capacity, hashStrategy);
       case 7:
-        return new HashMapReverseEfficient(capacity);
+        return new HashMapReverseEfficient(capacity, hashStrategy);
       case 8:
-        return new HashMapReverseEfficientOneArray(capacity);
+        return new HashMapReverseEfficientOneArray(capacity, hashStrategy);
+      case 9:
+        return new HashMapBucketizedCuckoo(capacity, hashStrategy);
+      case 10:
+        return new HashMapCompact(capacity, hashStrategy);
     }
     return null;
   }
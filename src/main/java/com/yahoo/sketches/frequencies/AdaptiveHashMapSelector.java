@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import com.yahoo.sketches.hashmaps.HashMapStats;
+
+/**
+ * Chooses the hash map implementation of an adaptive FrequentItemsAbstractHash. The sketch counts,
+ * over a prefix of its stream, the updates that hit a key already in its table, the updates that
+ * inserted a new key, and the purges it performed. The selector prices these counts with the
+ * measured cost of a hit, an insertion and a purge in each candidate table, and picks the table
+ * with the lowest total. Nothing is timed while the sketch runs, so the choice costs a single
+ * getStats() and is the same on every run over the same stream.
+ *
+ * <p>The costs were measured by experiments.CalibrateAdaptiveHashMapSelector, which times each
+ * table at the sizes a sketch reaches, and are the medians of three runs on a single-core VM with
+ * JDK 8. They are indexed by the length of the table the sketch grows to, from 2^11 to 2^17 cells,
+ * and the nearest size is used outside that range. On that machine ReverseEfficient has the
+ * cheapest hits and insertions at every size, BucketizedCuckoo the cheapest purges, and Compact,
+ * which stores 13 bytes per cell rather than 18, saves memory but is never the fastest by much, so
+ * streams dominated by purges of small tables go to BucketizedCuckoo and most others stay with
+ * ReverseEfficient. Rerun the calibration to retune the selector for other hardware.</p>
+ *
+ * <p>The costs of the linear-probing tables were measured at a mean probe length of
+ * CALIBRATION_PROBE_LENGTH. When the default table, which is linear probing too, has longer probes
+ * at the end of the prefix, because the hash strategy mixes the keys poorly, the costs of those
+ * tables are scaled up accordingly. The probes of the cuckoo table are bounded by its two buckets,
+ * and its costs are not scaled.</p>
+ */
+final class AdaptiveHashMapSelector {
+
+  /**
+   * The tables considered. The sketch holds maxK + 1 counters for a moment before each purge, so
+   * only the tables that accept one key beyond their capacity qualify.
+   */
+  static final String[] CANDIDATES = {"ReverseEfficient", "BucketizedCuckoo", "Compact"};
+
+  /**
+   * log_2 of the table length of the first column of the costs
+   */
+  static final int MIN_LOG_LENGTH = 11;
+
+  /**
+   * The nanoseconds of an update that hits a key already in the table, by candidate and by log_2
+   * of the table length minus MIN_LOG_LENGTH
+   */
+  static final double[][] HIT_NANOS = {
+      {13.0, 17.3, 15.7, 15.9, 16.6, 16.7, 18.0},
+      {33.8, 24.2, 26.1, 28.0, 29.3, 28.4, 34.6},
+      {16.1, 16.3, 19.7, 18.9, 18.0, 19.2, 20.5}};
+
+  /**
+   * The nanoseconds of an update that inserts a new key, indexed as HIT_NANOS
+   */
+  static final double[][] INSERT_NANOS = {
+      {14.9, 20.8, 18.7, 22.9, 16.8, 17.3, 19.8},
+      {49.5, 43.0, 44.8, 45.7, 46.3, 47.5, 50.2},
+      {16.0, 15.1, 17.3, 16.2, 16.2, 17.4, 20.5}};
+
+  /**
+   * The nanoseconds of a purge per counter of the sketch, indexed as HIT_NANOS
+   */
+  static final double[][] PURGE_NANOS_PER_COUNTER = {
+      {147.5, 115.6, 47.4, 27.4, 22.5, 21.0, 19.5},
+      {55.1, 45.1, 12.7, 9.7, 8.5, 7.8, 8.0},
+      {180.1, 115.5, 54.5, 31.8, 26.7, 25.5, 25.2}};
+
+  /**
+   * The mean probe length of a full linear-probing table, at which its costs were measured
+   */
+  static final double CALIBRATION_PROBE_LENGTH = 2.5;
+
+  private static final int CUCKOO = 1;
+
+  private AdaptiveHashMapSelector() {}
+
+  /**
+   * @param updates the number of updates counted
+   * @param hits the number of those updates whose key was already in the table
+   * @param purges the number of purges performed during those updates
+   * @param maxK the maximal number of counters of the sketch
+   * @param stats the stats of the default table at the end of the updates
+   * @return the name of the candidate with the lowest estimated cost
+   */
+  static String select(final long updates, final long hits, final long purges, final int maxK,
+      final HashMapStats stats) {
+    final int size = Math.max(0, Math.min(HIT_NANOS[0].length - 1,
+        32 - Integer.numberOfLeadingZeros(maxK) - MIN_LOG_LENGTH));
+    final double linearScale =
+        Math.max(1.0, stats.getMeanProbeLength() / CALIBRATION_PROBE_LENGTH);
+    String best = CANDIDATES[0];
+    double bestNanos = Double.MAX_VALUE;
+    for (int c = 0; c < CANDIDATES.length; c++) {
+      final double scale = (c == CUCKOO) ? 1.0 : linearScale;
+      final double nanos = scale * (hits * HIT_NANOS[c][size]
+          + (updates - hits) * INSERT_NANOS[c][size])
+          + (double) purges * maxK * PURGE_NANOS_PER_COUNTER[c][size];
+      if (nanos < bestNanos) {
+        bestNanos = nanos;
+        best = CANDIDATES[c];
+      }
+    }
+    return best;
+  }
+
+}
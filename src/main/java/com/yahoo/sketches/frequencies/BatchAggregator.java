@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+/**
+ * Sums the increments of the duplicate keys of a batch in a small table before they reach the
+ * counters of a FrequencyEstimator, so that a key repeated in the batch costs one update of the
+ * estimator instead of one per occurrence. The table holds LENGTH keys and their sums, 8 KB in
+ * all, so it stays in the L1 cache while a batch goes through it. It is flushed into the estimator
+ * whenever it is half full, and at the end of every batch.
+ */
+final class BatchAggregator {
+
+  static final int LG_LENGTH = 9;
+  static final int LENGTH = 1 << LG_LENGTH;
+  private static final int MASK = LENGTH - 1;
+  private static final int MAX_KEYS = LENGTH / 2;
+
+  private final long[] keys = new long[LENGTH];
+  private final long[] sums = new long[LENGTH];
+  private final boolean[] occupied = new boolean[LENGTH];
+  // the occupied cells, in the order their keys arrived
+  private final int[] cells = new int[MAX_KEYS];
+  private int numKeys = 0;
+
+  /**
+   * Updates the estimator with the keys of a batch, each key once with the sum of its increments.
+   * If an update of the estimator throws, the keys of the batch not applied yet are dropped, and
+   * the aggregator is left empty for the next batch.
+   *
+   * @param estimator the estimator updated
+   * @param batchKeys the keys of the batch
+   * @param weights the increments of the keys, or null for increments of 1
+   * @param off the index of the first key of the batch
+   * @param len the number of keys of the batch
+   */
+  void aggregate(final FrequencyEstimator estimator, final long[] batchKeys,
+      final long[] weights, final int off, final int len) {
+    if (off < 0 || len < 0 || off + len > batchKeys.length
+        || (weights != null && off + len > weights.length)) {
+      throw new IllegalArgumentException("Batch out of bounds, off: " + off + ", len: " + len);
+    }
+    for (int i = off; i < off + len; i++) {
+      final long key = batchKeys[i];
+      final long weight = (weights == null) ? 1 : weights[i];
+      // multiply-shift: the high bits of the product depend on all the bits of the key
+      int cell = (int) ((key * 0x9e3779b97f4a7c15L) >>> (64 - LG_LENGTH));
+      while (occupied[cell] && keys[cell] != key) {
+        cell = (cell + 1) & MASK;
+      }
+      if (occupied[cell]) {
+        sums[cell] += weight;
+        continue;
+      }
+      occupied[cell] = true;
+      keys[cell] = key;
+      sums[cell] = weight;
+      cells[numKeys++] = cell;
+      if (numKeys == MAX_KEYS) {
+        flush(estimator);
+      }
+    }
+    flush(estimator);
+  }
+
+  // if an update throws, the table is still emptied, so that the sums of this batch are not
+  // applied again by the next one
+  private void flush(final FrequencyEstimator estimator) {
+    try {
+      for (int i = 0; i < numKeys; i++) {
+        final int cell = cells[i];
+        occupied[cell] = false;
+        estimator.update(keys[cell], sums[cell]);
+      }
+    } finally {
+      for (int i = 0; i < numKeys; i++) {
+        occupied[cells[i]] = false;
+      }
+      numKeys = 0;
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the longs and varints written by a ChannelWriter through a buffer of
+ * ChannelWriter.BUFFER_BYTES. The reader never reads more from the channel than the bytes announced
+ * by expect, so the channel is left right after the sketch, at whatever the writer wrote next.
+ *
+ * <p>The length of a varint is only known once it is read, so a run of varints is announced by
+ * expecting one byte per varint, and each byte read with the continuation bit set announces one
+ * more.</p>
+ */
+final class ChannelReader {
+
+  private final ReadableByteChannel channel;
+  private final ByteBuffer buf =
+      ByteBuffer.allocate(ChannelWriter.BUFFER_BYTES).order(ByteOrder.nativeOrder());
+  // the bytes announced by expect that have not been read from the channel yet
+  private long unread = 0;
+
+  /**
+   * @param channel the source. Must be in blocking mode.
+   */
+  ChannelReader(final ReadableByteChannel channel) {
+    this.channel = channel;
+    buf.limit(0);
+  }
+
+  /**
+   * @param bytes the number of bytes of the sketch that follow the ones already expected
+   */
+  void expect(final long bytes) {
+    unread += bytes;
+  }
+
+  /**
+   * @return the next long of the expected bytes
+   * @throws IOException if the channel fails, or ends before the expected bytes
+   */
+  long getLong() throws IOException {
+    if (buf.remaining() < 8) {
+      fill(8);
+    }
+    return buf.getLong();
+  }
+
+  /**
+   * @return the next varint of VarInt, as an unsigned long
+   * @throws IOException if the channel fails, or ends before the expected bytes
+   * @throws IllegalArgumentException if the varint is longer than VarInt.MAX_BYTES
+   */
+  long getUnsigned() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (!buf.hasRemaining()) {
+        fill(1);
+      }
+      final byte b = buf.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+      unread++;
+    }
+    throw new IllegalArgumentException(
+        "Corrupt varint: more than " + VarInt.MAX_BYTES + " bytes.");
+  }
+
+  private void fill(final int needed) throws IOException {
+    buf.compact();
+    final int bytes = (int) Math.min(buf.remaining(), unread);
+    buf.limit(buf.position() + bytes);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf) < 0) {
+        throw new EOFException("Channel ended " + (buf.remaining() + unread - bytes)
+            + " bytes before the end of the sketch.");
+      }
+    }
+    unread -= bytes;
+    buf.flip();
+    assert (buf.remaining() >= needed);
+  }
+
+}
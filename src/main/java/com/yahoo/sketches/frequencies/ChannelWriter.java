@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes longs and varints to a channel through a buffer of BUFFER_BYTES, so that a sketch of any
+ * size is serialized with the same, small allocation. The longs are in native byte order, as in the images
+ * written through NativeMemory, so a sketch written here reads back from the channel or from its
+ * bytes in a Memory alike.
+ *
+ * <p>putLong and putUnsigned do not throw, so that it can be called from a forEach over a hash map. The first
+ * I/O error stops the writes, and is thrown by flush.</p>
+ */
+final class ChannelWriter {
+
+  static final int BUFFER_BYTES = 8192;
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.nativeOrder());
+  private IOException failure = null;
+
+  /**
+   * @param channel the destination. Must be in blocking mode.
+   */
+  ChannelWriter(final WritableByteChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * @param value the long appended to the buffer, which is written out when full
+   */
+  void putLong(final long value) {
+    if (buf.remaining() < 8) {
+      drain();
+    }
+    buf.putLong(value);
+  }
+
+  /**
+   * @param value the long appended to the buffer as an unsigned varint of VarInt, which is written
+   *        out when full
+   */
+  void putUnsigned(final long value) {
+    if (buf.remaining() < VarInt.MAX_BYTES) {
+      drain();
+    }
+    VarInt.putUnsigned(buf, value);
+  }
+
+  /**
+   * Writes out what remains in the buffer
+   *
+   * @throws IOException the first error of the channel since this writer was created
+   */
+  void flush() throws IOException {
+    drain();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void drain() {
+    buf.flip();
+    try {
+      while (failure == null && buf.hasRemaining()) {
+        channel.write(buf);
+      }
+    } catch (final IOException e) {
+      failure = e;
+    }
+    buf.clear();
+  }
+
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.yahoo.memory4.WritableMemory;
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+/**
+ * The Count-Min sketch of CountMinFast with its counters in a WritableMemory, updated with atomic
+ * instructions so that any number of threads can update and query it without locks. Since the
+ * WritableMemory may be a memory-mapped file, from WritableMemory.map, all the processes of a host
+ * can also share a single sketch: one of them creates it in the file with the constructor, and the
+ * others attach to it with wrap.
+ *
+ * <p>An update adds the increment to each of its counters with an atomic fetch-add, so concurrent
+ * updates are never lost. A conservative update raises each of its counters to the new minimum with
+ * a compare-and-swap loop, which never lowers a counter that another update raised further in the
+ * meantime. Conservative updates of different keys are therefore as exact as sequential ones, but
+ * two conservative updates of the same key that race may read the same minimum and count as one,
+ * so a key that several threads update conservatively at once can be underestimated by the raced
+ * increments. The sum of the increments lives in the Memory as well and is updated atomically.</p>
+ *
+ * <p>The cells a key maps to are those of CountMinFast with the same parameters, so the counters
+ * and the estimates of a sketch updated by a single thread are those of CountMinFast.</p>
+ */
+public class ConcurrentCountMin {
+
+  /**
+   * The version of the layout of the Memory
+   */
+  static final int SER_VER = 1;
+
+  /**
+   * The number of bytes before the counters: the parameters, eps, and the sum of the increments
+   */
+  static final int PREAMBLE_BYTES = 24;
+
+  private static final int EPS_OFFSET = 8;
+  private static final int UPDATE_SUM_OFFSET = 16;
+  private static final int PRE_LONGS = PREAMBLE_BYTES >>> 3;
+
+  private final WritableMemory mem;
+  private final int hashes;
+  private final int length;
+  private final int logLength;
+  private final int arrayMask;
+  private final HashStrategy hashStrategy;
+  private final double eps;
+
+  /**
+   * Creates a sketch on the Java heap that hashes keys with MurmurHash3. A sketch of more than
+   * Integer.MAX_VALUE bytes does not fit in a heap WritableMemory, and must be given one from
+   * WritableMemory.allocateDirect or WritableMemory.map.
+   *
+   * @param eps Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies
+   * @param delta Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies
+   */
+  public ConcurrentCountMin(final double eps, final double delta) {
+    this(eps, delta, HashStrategy.MURMUR3, allocateHeap(getMemoryBytes(eps, delta)));
+  }
+
+  /**
+   * Creates a sketch in the given Memory, overwriting its first getMemoryBytes(eps, delta) bytes.
+   * Other processes may attach to the sketch with wrap once the constructor returns.
+   *
+   * @param eps Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies
+   * @param delta Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies
+   * @param hashStrategy the hash function applied to keys. Must be one of the shared strategies of
+   *        HashStrategy, since its id is stored in the Memory.
+   * @param dstMem the WritableMemory the counters live in
+   */
+  public ConcurrentCountMin(final double eps, final double delta, final HashStrategy hashStrategy,
+      final WritableMemory dstMem) {
+    if (eps <= 0 || delta <= 0) {
+      throw new IllegalArgumentException("Received negative or zero value for eps or delta.");
+    }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    final int strategyId = HashStrategy.toId(hashStrategy);
+    this.hashes = getHashes(delta);
+    if (this.hashes > 0xff) {
+      // the number of rows is stored in a byte
+      throw new IllegalArgumentException("delta too small: " + delta);
+    }
+    this.length = getLength(eps, this.hashes);
+    final long memoryBytes = PREAMBLE_BYTES + ((long) length << 3);
+    if (dstMem.getCapacity() < memoryBytes) {
+      throw new IllegalArgumentException(
+          "Destination Memory not large enough: " + dstMem.getCapacity() + " < " + memoryBytes);
+    }
+    this.mem = dstMem;
+    this.logLength = Integer.numberOfTrailingZeros(length);
+    this.arrayMask = length - 1;
+    this.hashStrategy = hashStrategy;
+    this.eps = eps;
+
+    // invalidate any previous sketch first, so that no process attaches to a half-built one
+    mem.putLong(0, 0L);
+    mem.putLong(EPS_OFFSET, Double.doubleToLongBits(eps));
+    mem.putLong(UPDATE_SUM_OFFSET, 0L);
+    mem.clear(PREAMBLE_BYTES, (long) length << 3);
+    // an atomic exchange, which orders the writes above before it
+    mem.getAndSetLong(0, getPreamble(strategyId, hashes, logLength));
+  }
+
+  private ConcurrentCountMin(final WritableMemory mem, final int hashes, final int logLength,
+      final HashStrategy hashStrategy, final double eps) {
+    this.mem = mem;
+    this.hashes = hashes;
+    this.logLength = logLength;
+    this.length = 1 << logLength;
+    this.arrayMask = length - 1;
+    this.hashStrategy = hashStrategy;
+    this.eps = eps;
+  }
+
+  /**
+   * Attaches to a sketch created in the given Memory, for example by another process in a shared
+   * memory-mapped file. The counters are not copied.
+   *
+   * @param srcMem the WritableMemory a ConcurrentCountMin was created in
+   * @return a sketch updating and querying the counters in srcMem
+   */
+  public static ConcurrentCountMin wrap(final WritableMemory srcMem) {
+    if (srcMem.getCapacity() < PREAMBLE_BYTES) {
+      throw new IllegalArgumentException("Memory too small: " + srcMem.getCapacity());
+    }
+    // an atomic read, which orders the reads of the counters after it
+    final long pre0 = srcMem.getAndAddLong(0, 0L);
+    checkPreamble(pre0);
+    final int strategyId = (int) (pre0 >>> 16) & 0xff;
+    final int hashes = (int) (pre0 >>> 24) & 0xff;
+    final int logLength = (int) (pre0 >>> 32) & 0xff;
+    final long memoryBytes = PREAMBLE_BYTES + (8L << logLength);
+    if (srcMem.getCapacity() < memoryBytes) {
+      throw new IllegalArgumentException(
+          "Memory too small for sketch: " + srcMem.getCapacity() + " < " + memoryBytes);
+    }
+    final double eps = Double.longBitsToDouble(srcMem.getLong(EPS_OFFSET));
+    return new ConcurrentCountMin(srcMem, hashes, logLength, HashStrategy.fromId(strategyId), eps);
+  }
+
+  /**
+   * Reads a sketch written by writeTo or by CountMinFast.writeTo from the channel into a new
+   * sketch on the Java heap, consuming exactly its bytes.
+   *
+   * @param channel the source, in blocking mode. It is not closed.
+   * @return the sketch read
+   * @throws IOException if the channel fails or ends within the sketch
+   */
+  public static ConcurrentCountMin readFrom(final ReadableByteChannel channel)
+      throws IOException {
+    return readFrom(channel, null);
+  }
+
+  /**
+   * Reads a sketch written by writeTo or by CountMinFast.writeTo from the channel into the given
+   * Memory, consuming exactly its bytes. The counters are copied through a buffer of fixed size.
+   * Other processes may attach to the sketch with wrap once this method returns.
+   *
+   * @param channel the source, in blocking mode. It is not closed.
+   * @param dstMem the WritableMemory the counters are read into, or null for a new one on the
+   *        Java heap
+   * @return a sketch updating and querying the counters in dstMem
+   * @throws IOException if the channel fails or ends within the sketch
+   */
+  public static ConcurrentCountMin readFrom(final ReadableByteChannel channel,
+      final WritableMemory dstMem) throws IOException {
+    final ChannelReader in = new ChannelReader(channel);
+    in.expect(PREAMBLE_BYTES);
+    final long pre0 = in.getLong();
+    checkPreamble(pre0);
+    final int hashes = (int) (pre0 >>> 24) & 0xff;
+    final int logLength = (int) (pre0 >>> 32) & 0xff;
+    final long memoryBytes = PREAMBLE_BYTES + (8L << logLength);
+    final WritableMemory mem = (dstMem == null) ? allocateHeap(memoryBytes) : dstMem;
+    if (mem.getCapacity() < memoryBytes) {
+      throw new IllegalArgumentException(
+          "Destination Memory not large enough: " + mem.getCapacity() + " < " + memoryBytes);
+    }
+    // invalidate any previous sketch first, as the constructor does
+    mem.putLong(0, 0L);
+    final double eps = Double.longBitsToDouble(in.getLong());
+    mem.putLong(EPS_OFFSET, Double.doubleToLongBits(eps));
+    mem.putLong(UPDATE_SUM_OFFSET, in.getLong());
+    in.expect(8L << logLength);
+    for (int i = 0; i < 1 << logLength; i++) {
+      mem.putLong(counterOffset(i), in.getLong());
+    }
+    mem.getAndSetLong(0, pre0);
+    return new ConcurrentCountMin(mem, hashes, logLength,
+        HashStrategy.fromId((int) (pre0 >>> 16) & 0xff), eps);
+  }
+
+  /**
+   * @param strategyId the id of the hash strategy
+   * @param hashes the number of rows
+   * @param logLength log_2 of the number of counters
+   * @return the first long of the Memory of a sketch
+   */
+  static long getPreamble(final int strategyId, final int hashes, final int logLength) {
+    return PRE_LONGS | ((long) SER_VER << 8) | ((long) strategyId << 16)
+        | ((long) hashes << 24) | ((long) logLength << 32);
+  }
+
+  /**
+   * @param pre0 the first long of the Memory of a sketch
+   * @throws IllegalArgumentException if pre0 is not one getPreamble could have returned
+   */
+  static void checkPreamble(final long pre0) {
+    final int preLongs = (int) pre0 & 0xff;
+    final int serVer = (int) (pre0 >>> 8) & 0xff;
+    final int hashes = (int) (pre0 >>> 24) & 0xff;
+    final int logLength = (int) (pre0 >>> 32) & 0xff;
+    if (preLongs != PRE_LONGS || serVer != SER_VER) {
+      throw new IllegalArgumentException("Not a ConcurrentCountMin, serVer: " + serVer);
+    }
+    if (hashes == 0 || logLength > 30) {
+      throw new IllegalArgumentException(
+          "Corrupt sketch, hashes: " + hashes + ", logLength: " + logLength);
+    }
+  }
+
+  /**
+   * @param eps the eps of the sketch
+   * @param delta the delta of the sketch
+   * @return the number of bytes of Memory a sketch with these parameters needs
+   */
+  public static long getMemoryBytes(final double eps, final double delta) {
+    if (eps <= 0 || delta <= 0) {
+      throw new IllegalArgumentException("Received negative or zero value for eps or delta.");
+    }
+    return PREAMBLE_BYTES + ((long) getLength(eps, getHashes(delta)) << 3);
+  }
+
+  private static WritableMemory allocateHeap(final long memoryBytes) {
+    if (memoryBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Sketch of " + memoryBytes
+          + " bytes too large for the Java heap, use WritableMemory.allocateDirect or map.");
+    }
+    return WritableMemory.allocate((int) memoryBytes);
+  }
+
+  // the same number of rows as CountMinFast: the integer larger than log_2(1/delta)
+  private static int getHashes(final double delta) {
+    return (int) (Math.ceil(Math.log(1 / delta) / Math.log(2.0)));
+  }
+
+  // the same number of cells as CountMinFast: the smallest power of two larger than 2/eps rows
+  private static int getLength(final double eps, final int hashes) {
+    final int columns = (int) (2 * Math.ceil(1 / eps));
+    return Integer.highestOneBit(2 * (columns * hashes - 1));
+  }
+
+  /**
+   * @param key Process a key (specified as a long) update and treat the increment as 1, using the
+   *        update function specified by Cormode and Muthukrishnan
+   */
+  public void update(final long key) {
+    update(key, 1);
+  }
+
+  /**
+   * @param key Process a key (specified as a long) update and treat the increment as 1, using the
+   *        conservative_update function that increments each counter to the smallest value still
+   *        guaranteed to not underestimate any item's frequency.
+   */
+  public void conservative_update(final long key) {
+    conservative_update(key, 1);
+  }
+
+  /**
+   * @param key the key to update
+   * @param increment Process a key (specified as a long) and an increment (also specified as a
+   *        long). Increment can be negative
+   */
+  public void update(final long key, final long increment) {
+    mem.getAndAddLong(UPDATE_SUM_OFFSET, increment);
+    final long hash = hash(key);
+    int probe = (int) (hash & arrayMask);
+    final int stride = ((int) ((hash >> logLength) & CountMinFast.STRIDE_MASK) << 1) + 1;
+    for (int i = this.hashes; i-- > 0;) {
+      mem.getAndAddLong(counterOffset(probe), increment);
+      probe = (probe + stride) & arrayMask;
+    }
+  }
+
+  /**
+   * @param key the key to be updated
+   * @param increment Process a key (specified as a long) and a non-negative increment (also
+   *        specified as a long).
+   */
+  public void conservative_update(final long key, final long increment) {
+    mem.getAndAddLong(UPDATE_SUM_OFFSET, increment);
+    final long hash = hash(key);
+    int probe = (int) (hash & arrayMask);
+    final int stride = ((int) ((hash >> logLength) & CountMinFast.STRIDE_MASK) << 1) + 1;
+
+    long min_count = Long.MAX_VALUE;
+    for (int i = this.hashes; i-- > 0;) {
+      final long count = mem.getLong(counterOffset(probe));
+      if (count < min_count) {
+        min_count = count;
+      }
+      probe = (probe + stride) & arrayMask;
+    }
+
+    // raise every counter to at least min_count + increment. A counter another update raised
+    // further since it was read keeps its larger value, and the CAS only fails in that case
+    final long target = min_count + increment;
+    probe = (int) (hash & arrayMask);
+    for (int i = this.hashes; i-- > 0;) {
+      final long offset = counterOffset(probe);
+      long count = mem.getLong(offset);
+      while (count < target && !mem.compareAndSwapLong(offset, count, target)) {
+        count = mem.getLong(offset);
+      }
+      probe = (probe + stride) & arrayMask;
+    }
+  }
+
+  /**
+   * @param key to be hashed
+   * @return an index into the hash table
+   */
+  protected long hash(final long key) {
+    return hashStrategy.hash(key);
+  }
+
+  private static long counterOffset(final int probe) {
+    return PREAMBLE_BYTES + ((long) probe << 3);
+  }
+
+  /**
+   * @param key whose count estimate is returned.
+   * @return the approximate count for the key. It is guaranteed that with probability at least
+   *         1-delta 1) get(key) &gt;= real count 2) get(key) &lt;= real count + getMaxError()
+   */
+  public long getEstimate(final long key) {
+    long min_count = Long.MAX_VALUE;
+    final long hash = hash(key);
+    int probe = (int) (hash & arrayMask);
+    final int stride = ((int) ((hash >> logLength) & CountMinFast.STRIDE_MASK) << 1) + 1;
+    for (int i = 0; i < this.hashes; i++) {
+      final long count = mem.getLong(counterOffset(probe));
+      if (count < min_count) {
+        min_count = count;
+      }
+      probe = ((probe + stride) & arrayMask);
+    }
+    return min_count;
+  }
+
+  /**
+   * @param key whose count estimate is returned.
+   * @return an upper bound on the count for the key. It holds deterministically for keys only
+   *         processed by update, and by conservative updates that did not race with conservative
+   *         updates of the same key, since those may count as one.
+   */
+  public long getEstimateUpperBound(final long key) {
+    return getEstimate(key);
+  }
+
+  /**
+   * @param key whose count estimate is returned.
+   * @return a lower bound on the count for the key (lower bound holds with probability at least
+   *         1-delta)
+   */
+  public long getEstimateLowerBound(final long key) {
+    return getEstimate(key) - getMaxError();
+  }
+
+  /**
+   * @return a bound on the error of the estimate one gets from get(key), as in CountMinFast
+   */
+  public long getMaxError() {
+    return (long) (Math.ceil(this.eps * getStreamLength()));
+  }
+
+  /**
+   * @return the sum of all the increments processed by the sketch, from all threads and processes
+   */
+  public long getStreamLength() {
+    return mem.getLong(UPDATE_SUM_OFFSET);
+  }
+
+  /**
+   * Adds the counters of another sketch to this one, atomically counter by counter. The other
+   * sketch may be updated concurrently, in which case the updates it receives during the merge may
+   * or may not be added.
+   *
+   * @param other Another ConcurrentCountMin sketch. Must have been created using the same hash
+   *        functions and have the same parameter values eps, delta.
+   * @return this sketch
+   */
+  public ConcurrentCountMin merge(final ConcurrentCountMin other) {
+    if (this.hashes != other.hashes || this.length != other.length) {
+      throw new IllegalArgumentException(
+          "Trying to merge two CountMin data structures of different sizes.");
+    }
+    if (this.hashStrategy != other.hashStrategy) {
+      throw new IllegalArgumentException(
+          "Trying to merge two CountMin data structures with different hash strategies.");
+    }
+    if (other.mem == this.mem) {
+      throw new IllegalArgumentException("Trying to merge a CountMin with its own counters.");
+    }
+    mem.getAndAddLong(UPDATE_SUM_OFFSET, other.getStreamLength());
+    for (int i = 0; i < this.length; i++) {
+      mem.getAndAddLong(counterOffset(i), other.mem.getLong(counterOffset(i)));
+    }
+    return this;
+  }
+
+  /**
+   * Writes the sketch to the channel through a buffer of fixed size, in the layout of its Memory.
+   * The counters are read one at a time while other threads may be updating them, so the image is
+   * only a consistent snapshot if the sketch is not updated during the call.
+   *
+   * @param channel the destination, in blocking mode. It is not closed.
+   * @throws IOException if the channel fails
+   */
+  public void writeTo(final WritableByteChannel channel) throws IOException {
+    final ChannelWriter out = new ChannelWriter(channel);
+    for (long offset = 0; offset < PREAMBLE_BYTES + ((long) length << 3); offset += 8) {
+      out.putLong(mem.getLong(offset));
+    }
+    out.flush();
+  }
+
+  /**
+   * @return the WritableMemory holding the counters
+   */
+  public WritableMemory getMemory() {
+    return mem;
+  }
+
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.yahoo.memory.NativeMemory;
+
+/**
+ * A frequent items sketch that many threads can update at once. Every updating thread writes to a
+ * FrequentItems shard of its own, and the shards are periodically folded into a global sketch
+ * through merge, either by a background thread or by an explicit call to flush(). The only lock an
+ * update takes is the one of its own shard, which no other thread touches except for the moment a
+ * fold swaps the shard out, so writers never contend with each other.
+ *
+ * <p>Queries read the snapshot of the global sketch published by the last fold, without locking
+ * it. The weight updated since then is not in the snapshot, so it is added to the upper bounds and
+ * to the maximal error: the bounds hold for the whole stream at all times, and tighten back to
+ * those of a single FrequentItems over the stream once flush() returns. Estimates and frequent keys
+ * only reflect the folded updates.</p>
+ *
+ * <p>The stream length, which the bounds depend on, is read from per-shard volatile counters, so
+ * queries never take the lock of a shard. The shard of a thread that has terminated is folded one
+ * last time and dropped by the next fold.</p>
+ *
+ * <p>The background thread, if any, is a daemon thread and stops on close().</p>
+ */
+public class ConcurrentFrequentItems extends FrequencyEstimator {
+
+  /**
+   * The default period of the background fold, in milliseconds
+   */
+  static final long DEFAULT_MERGE_INTERVAL_MILLIS = 100;
+
+  private final int k;
+
+  /**
+   * The shards of the threads that updated this sketch and were alive at the last fold
+   */
+  private final CopyOnWriteArrayList<Shard> shards = new CopyOnWriteArrayList<Shard>();
+
+  private final ThreadLocal<Shard> localShard = new ThreadLocal<Shard>() {
+    @Override
+    protected Shard initialValue() {
+      final Shard shard = new Shard(new FrequentItems(k), Thread.currentThread());
+      shards.add(shard);
+      return shard;
+    }
+  };
+
+  /**
+   * Guards global and the weights folded or merged into it, and serializes the folds
+   */
+  private final Object mergeLock = new Object();
+
+  /**
+   * The folded shards and merged sketches
+   */
+  private final FrequentItems global;
+
+  /**
+   * The weight of all the shards folded into global so far
+   */
+  private long foldedWeight = 0;
+
+  /**
+   * The weight ever updated through the shards dropped since their thread terminated. Volatile so
+   * that getStreamLength() reads it without locking.
+   */
+  private volatile long retiredWeight = 0;
+
+  /**
+   * The stream length of the sketches merged in through merge(). Volatile so that
+   * getStreamLength() reads it without waiting for a fold.
+   */
+  private volatile long externalWeight = 0;
+
+  private volatile Snapshot snapshot;
+
+  private final ScheduledExecutorService merger;
+
+  /**
+   * Creates a sketch folded every DEFAULT_MERGE_INTERVAL_MILLIS by a background thread
+   *
+   * @param k Determines the accuracy of the estimates returned by the sketch, as in FrequentItems.
+   */
+  public ConcurrentFrequentItems(final int k) {
+    this(k, DEFAULT_MERGE_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param k Determines the accuracy of the estimates returned by the sketch, as in FrequentItems.
+   * @param mergeIntervalMillis the period of the background fold, or 0 for no background thread,
+   *        in which case the shards are only folded by flush().
+   */
+  public ConcurrentFrequentItems(final int k, final long mergeIntervalMillis) {
+    if (k <= 0) {
+      throw new IllegalArgumentException("Received negative or zero value for k.");
+    }
+    if (mergeIntervalMillis < 0) {
+      throw new IllegalArgumentException("Received negative value for mergeIntervalMillis.");
+    }
+    this.k = k;
+    this.global = new FrequentItems(k);
+    this.snapshot = new Snapshot(new FrequentItems(k), 0);
+    if (mergeIntervalMillis == 0) {
+      merger = null;
+      return;
+    }
+    merger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(runnable, "ConcurrentFrequentItems-merger");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    merger.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, mergeIntervalMillis, mergeIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void update(final long key) {
+    update(key, 1);
+  }
+
+  @Override
+  public void update(final long key, final long increment) {
+    final Shard shard = localShard.get();
+    synchronized (shard) {
+      shard.sketch.update(key, increment);
+      shard.unmergedWeight += increment;
+      shard.ingestedWeight += increment;
+    }
+  }
+
+  /**
+   * Updates the shard of the calling thread with the whole batch under a single acquisition of its
+   * lock
+   */
+  @Override
+  public void update(final long[] keys, final long[] weights, final int off, final int len) {
+    final Shard shard = localShard.get();
+    synchronized (shard) {
+      final long before = shard.sketch.getStreamLength();
+      shard.sketch.update(keys, weights, off, len);
+      final long weight = shard.sketch.getStreamLength() - before;
+      shard.unmergedWeight += weight;
+      shard.ingestedWeight += weight;
+    }
+  }
+
+  /**
+   * Folds the shards of all threads into the global sketch and publishes a new snapshot of it.
+   * Updates that completed before the call are reflected in the estimates once it returns. The
+   * shards of the threads that have terminated are dropped once folded.
+   */
+  public void flush() {
+    synchronized (mergeLock) {
+      boolean folded = false;
+      for (final Shard shard: shards) {
+        final boolean retired = shard.isRetired();
+        final FrequentItems taken;
+        final long weight;
+        synchronized (shard) {
+          taken = shard.sketch;
+          weight = shard.unmergedWeight;
+          if (weight != 0) {
+            shard.sketch = new FrequentItems(k);
+            shard.unmergedWeight = 0;
+          }
+        }
+        if (weight != 0) {
+          global.merge(taken);
+          foldedWeight += weight;
+          folded = true;
+        }
+        if (retired) {
+          // counted as retired before it leaves the list, so that getStreamLength() may count the
+          // shard twice while it is dropped, but never miss it
+          retiredWeight += shard.ingestedWeight;
+          shards.remove(shard);
+        }
+      }
+      if (folded) {
+        publish();
+      }
+    }
+  }
+
+  /**
+   * Replaces the snapshot by a copy of global. Must hold mergeLock.
+   */
+  private void publish() {
+    final FrequentItems copy = FrequentItems.getInstance(new NativeMemory(global.toByteArray()));
+    // queries on the snapshot must not modify it
+    copy.completeMigration();
+    snapshot = new Snapshot(copy, foldedWeight + externalWeight);
+  }
+
+  /**
+   * @return the weight updated into the shards, or merged in, that the current snapshot does not
+   *         hold yet. Must be called after reading the snapshot it applies to.
+   */
+  private long getUnmergedWeight(final Snapshot current) {
+    // a reset racing with the query can leave the snapshot ahead of the shards
+    return Math.max(getStreamLength() - current.mergedWeight, 0);
+  }
+
+  @Override
+  public long getEstimate(final long key) {
+    return snapshot.sketch.getEstimate(key);
+  }
+
+  @Override
+  public long getEstimateUpperBound(final long key) {
+    final Snapshot current = snapshot;
+    return current.sketch.getEstimateUpperBound(key) + getUnmergedWeight(current);
+  }
+
+  @Override
+  public long getEstimateLowerBound(final long key) {
+    return snapshot.sketch.getEstimateLowerBound(key);
+  }
+
+  @Override
+  public long getMaxError() {
+    final Snapshot current = snapshot;
+    return current.sketch.getMaxError() + getUnmergedWeight(current);
+  }
+
+  @Override
+  public long[] getFrequentKeys(final long threshold) {
+    final Snapshot current = snapshot;
+    return current.sketch.getFrequentKeys(threshold - getUnmergedWeight(current));
+  }
+
+  /**
+   * Merges a FrequentItems or another ConcurrentFrequentItems into the global sketch of this one.
+   * The other sketch is flushed first if it is concurrent.
+   *
+   * @param other the sketch to merge into this one
+   * @return this sketch
+   */
+  @Override
+  public FrequencyEstimator merge(final FrequencyEstimator other) {
+    final FrequentItems otherSketch;
+    final long otherWeight;
+    if (other instanceof ConcurrentFrequentItems) {
+      final ConcurrentFrequentItems otherCasted = (ConcurrentFrequentItems) other;
+      // flushed outside of mergeLock, so that two sketches merging each other cannot deadlock
+      otherCasted.flush();
+      final Snapshot otherSnapshot = otherCasted.snapshot;
+      otherSketch = otherSnapshot.sketch;
+      otherWeight = otherSnapshot.mergedWeight;
+    } else if (other instanceof FrequentItems) {
+      otherSketch = (FrequentItems) other;
+      otherWeight = other.getStreamLength();
+    } else {
+      throw new IllegalArgumentException(
+          "ConcurrentFrequentItems can only merge with FrequentItems or ConcurrentFrequentItems");
+    }
+    synchronized (mergeLock) {
+      global.merge(otherSketch);
+      externalWeight += otherWeight;
+      publish();
+    }
+    return this;
+  }
+
+  @Override
+  public int getK() {
+    return snapshot.sketch.getK();
+  }
+
+  @Override
+  public int getMaxK() {
+    return global.getMaxK();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return getStreamLength() == 0;
+  }
+
+  /**
+   * @return the total weight updated into this sketch or merged into it, folded or not
+   */
+  @Override
+  public long getStreamLength() {
+    long weight = 0;
+    for (final Shard shard: shards) {
+      weight += shard.ingestedWeight;
+    }
+    // read after the shards, see flush()
+    return weight + retiredWeight + externalWeight;
+  }
+
+  /**
+   * @return the number of shards not dropped yet
+   */
+  int getShardCount() {
+    return shards.size();
+  }
+
+  /**
+   * Empties the sketch. Updates concurrent with the reset may or may not be kept.
+   */
+  @Override
+  public void reset() {
+    synchronized (mergeLock) {
+      for (final Shard shard: shards) {
+        synchronized (shard) {
+          shard.sketch = new FrequentItems(k);
+          shard.unmergedWeight = 0;
+          shard.ingestedWeight = 0;
+        }
+      }
+      global.reset();
+      retiredWeight = 0;
+      externalWeight = 0;
+      foldedWeight = 0;
+      snapshot = new Snapshot(new FrequentItems(k), 0);
+    }
+  }
+
+  /**
+   * Stops the background fold, if any. The sketch remains usable, and flush() still folds the
+   * shards.
+   */
+  public void close() {
+    if (merger != null) {
+      merger.shutdownNow();
+    }
+  }
+
+  /**
+   * The sketch of one updating thread. Guarded by its own monitor, except that ingestedWeight may
+   * be read without it.
+   */
+  private static final class Shard {
+    FrequentItems sketch;
+    // the weight updated into sketch since it was last folded
+    long unmergedWeight = 0;
+    // the weight ever updated through this shard. Only written under the monitor.
+    volatile long ingestedWeight = 0;
+    // weak, so that the shard does not keep a terminated thread reachable
+    private final WeakReference<Thread> owner;
+
+    Shard(final FrequentItems sketch, final Thread owner) {
+      this.sketch = sketch;
+      this.owner = new WeakReference<Thread>(owner);
+    }
+
+    /**
+     * @return true if the thread of the shard has terminated, so that it will not update it again
+     */
+    boolean isRetired() {
+      final Thread thread = owner.get();
+      return (thread == null) || !thread.isAlive();
+    }
+  }
+
+  /**
+   * A published copy of the global sketch, never modified
+   */
+  private static final class Snapshot {
+    final FrequentItems sketch;
+    // the stream length the sketch accounts for
+    final long mergedWeight;
+
+    Snapshot(final FrequentItems sketch, final long mergedWeight) {
+      this.sketch = sketch;
+      this.mergedWeight = mergedWeight;
+    }
+  }
+
+}
@@ -5,7 +5,11 @@
 
 package com.yahoo.sketches.frequencies;
 
-import com.yahoo.sketches.hash.MurmurHash3;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.yahoo.sketches.hashmaps.HashStrategy;
 
 /**
  * The Count-Min sketch of Cormode and Muthukrishnan is useful for approximately answering point
@@ -25,11 +29,18 @@ import com.yahoo.sketches.hash.MurmurHash3;
  * @author Justin8712
  */
 public class CountMin {
+
+  // the serialized form written by writeTo: a first long holding the number of preamble longs,
+  // SER_VER, the hash strategy id and the number of rows in its low bytes and the number of
+  // columns in its high int, then eps and update_sum, then the counts row by row
+  private static final int SER_VER = 1;
+  private static final int PRE_LONGS = 3;
+
   private int rows;
   private int columns;
   private long update_sum;
   private long[] counts;
-  private long[] keyArr = new long[1];
+  private HashStrategy hashStrategy;
   double eps;
 
   /**
@@ -43,9 +54,29 @@ public class CountMin {
    *        where n is sum of item frequencies
    */
   public CountMin(final double eps, final double delta) {
+    this(eps, delta, HashStrategy.MURMUR3);
+  }
+
+  /**
+   * Constructs and initializes a CountMin sketch that hashes keys with the given strategy. Each key
+   * is hashed once per operation, and the cell in every row is derived from that hash by double
+   * hashing.
+   *
+   * @param eps Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies
+   * @param delta Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies
+   * @param hashStrategy the hash function applied to keys. HashStrategy.IDENTITY may be used if
+   *        the keys are already hashes.
+   */
+  public CountMin(final double eps, final double delta, final HashStrategy hashStrategy) {
     if (eps <= 0 || delta <= 0) {
       throw new IllegalArgumentException("Received negative or zero value for eps or delta.");
     }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
     this.eps = eps;
     this.rows = (int) (Math.ceil(Math.log(1 / delta) / Math.log(2.0)));
     this.columns = (int) (2 * Math.ceil(1 / eps));
@@ -56,6 +87,15 @@ public class CountMin {
     this.update_sum = 0;
   }
 
+  private CountMin(final int rows, final int columns, final HashStrategy hashStrategy,
+      final double eps) {
+    this.rows = rows;
+    this.columns = columns;
+    this.hashStrategy = hashStrategy;
+    this.eps = eps;
+    this.counts = new long[rows * columns];
+  }
+
   /**
    * Process a key (specified as a long) update and treat the increment as 1
    *
@@ -83,8 +123,9 @@ public class CountMin {
    */
   public void update(final long key, final long increment) {
     this.update_sum += increment;
+    final long hash = hashStrategy.hash(key);
     for (int i = 0; i < this.rows; i++) {
-      final int index = indexForKey(key, i);
+      final int index = indexForHash(hash, i);
       counts[index] += increment;
     }
   }
@@ -97,15 +138,16 @@ public class CountMin {
    */
   public void conservative_update(final long key, final long increment) {
     this.update_sum += increment;
+    final long hash = hashStrategy.hash(key);
     long min_count = Long.MAX_VALUE;
     for (int i = 0; i < this.rows; i++) {
-      final int index = indexForKey(key, i);
+      final int index = indexForHash(hash, i);
       if (counts[index] < min_count) {
         min_count = counts[index];
       }
     }
     for (int i = 0; i < this.rows; i++) {
-      final int index = indexForKey(key, i);
+      final int index = indexForHash(hash, i);
       if (counts[index] < min_count + increment) {
         counts[index] = min_count + increment;
       }
@@ -113,11 +155,13 @@ public class CountMin {
   }
 
   /**
-   * Returns the index of the i'th cell in the sketch that key maps to
+   * Returns the index of the i'th cell in the sketch that a key with the given hash maps to. The
+   * column in row i is h1 + i*h2, where h1 and h2 are the two halves of the hash.
    */
-  private int indexForKey(final long key, final int i) {
-    keyArr[0] = key;
-    return columns * i + (((int) (MurmurHash3.hash(keyArr, i)[0])) >>> 1) % columns;
+  private int indexForHash(final long hash, final int i) {
+    final int h1 = (int) hash;
+    final int h2 = ((int) (hash >>> 32)) | 1;
+    return columns * i + ((h1 + i * h2) >>> 1) % columns;
   }
 
   /**
@@ -129,10 +173,10 @@ public class CountMin {
    * @return the approximate count for the key.
    */
   public long getEstimate(final long key) {
-    keyArr[0] = key;
+    final long hash = hashStrategy.hash(key);
     long min_count = Long.MAX_VALUE;
     for (int i = 0; i < this.rows; i++) {
-      final int index = indexForKey(key, i);
+      final int index = indexForHash(hash, i);
       if (counts[index] < min_count) {
         min_count = counts[index];
       }
@@ -181,8 +225,8 @@ public class CountMin {
   /**
    * Merges two CountMin sketches, returning pointer to the resulting sketch.
    *
-   * @param other Another CountMin sketch. Must have been created using the same hash functions
-   *        (i.e., same seed to MurmurHash) and have the same parameter values eps, delta.
+   * @param other Another CountMin sketch. Must have been created using the same hash strategy
+   *        and have the same parameter values eps, delta.
    * @return pointer to the sketch resulting in adding the approximate counts of another sketch.
    *         This method does not create a new sketch. The sketch whose function is executed is
    *         changed.
@@ -192,10 +236,68 @@ public class CountMin {
       throw new IllegalArgumentException(
           "Trying to merge two CountMin data structures of different sizes.");
     }
+    if (this.hashStrategy != other.hashStrategy) {
+      throw new IllegalArgumentException(
+          "Trying to merge two CountMin data structures with different hash strategies.");
+    }
     for (int i = 0; i < rows * columns; i++) {
       this.counts[i] += other.counts[i];
     }
     this.update_sum += other.update_sum;
     return this;
   }
+
+  /**
+   * Writes the sketch to the channel through a buffer of fixed size, so that no array of the size
+   * of the sketch is allocated.
+   *
+   * @param channel the destination, in blocking mode. It is not closed.
+   * @throws IOException if the channel fails
+   */
+  public void writeTo(final WritableByteChannel channel) throws IOException {
+    if (rows > 0xff) {
+      // the number of rows is stored in a byte
+      throw new IllegalArgumentException("Too many rows to serialize: " + rows);
+    }
+    final ChannelWriter out = new ChannelWriter(channel);
+    out.putLong(PRE_LONGS | (SER_VER << 8) | (HashStrategy.toId(hashStrategy) << 16)
+        | ((long) rows << 24) | ((long) columns << 32));
+    out.putLong(Double.doubleToLongBits(eps));
+    out.putLong(update_sum);
+    for (int i = 0; i < rows * columns; i++) {
+      out.putLong(counts[i]);
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads a sketch written by writeTo from the channel, consuming exactly its bytes.
+   *
+   * @param channel the source, in blocking mode. It is not closed.
+   * @return the sketch read
+   * @throws IOException if the channel fails or ends within the sketch
+   */
+  public static CountMin readFrom(final ReadableByteChannel channel) throws IOException {
+    final ChannelReader in = new ChannelReader(channel);
+    in.expect(PRE_LONGS << 3);
+    final long pre0 = in.getLong();
+    final int preLongs = (int) pre0 & 0xff;
+    final int serVer = (int) (pre0 >>> 8) & 0xff;
+    final int rows = (int) (pre0 >>> 24) & 0xff;
+    final int columns = (int) (pre0 >>> 32);
+    if (preLongs != PRE_LONGS || serVer != SER_VER) {
+      throw new IllegalArgumentException("Not a CountMin, serVer: " + serVer);
+    }
+    if (rows == 0 || columns <= 0 || (long) rows * columns > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Corrupt sketch, rows: " + rows + ", columns: " + columns);
+    }
+    final CountMin sketch = new CountMin(rows, columns,
+        HashStrategy.fromId((int) (pre0 >>> 16) & 0xff), Double.longBitsToDouble(in.getLong()));
+    sketch.update_sum = in.getLong();
+    in.expect((long) rows * columns << 3);
+    for (int i = 0; i < rows * columns; i++) {
+      sketch.counts[i] = in.getLong();
+    }
+    return sketch;
+  }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+/**
+ * A Count-Min sketch whose counters are grouped in blocks of BLOCK_LONGS counters, 64 bytes. A key
+ * is hashed once: the low bits of the hash select its block, and the high bits its hashes cells
+ * within the block, by double hashing with an odd stride, so that the cells of a key are always
+ * distinct. CountMin and CountMinFast spread the cells of a key over the whole array, so once the
+ * sketch outgrows the caches every update and query costs one cache miss per hash. Here it costs
+ * the miss of one block, which is 64 contiguous bytes and spans at most two adjacent cache lines.
+ *
+ * <p>The price is accuracy. All the cells of a key share its block, so the cells of two keys that
+ * fall in the same block overlap much more often than the independent rows of CountMinFast do,
+ * and the errors of the cells of a key are no longer independent. The sketch has as many counters
+ * as CountMinFast with the same eps and delta, but an estimate is only guaranteed to be within
+ * getMaxError() except with probability getFailureProbability(), rather than delta.</p>
+ *
+ * <p>Like CountMinFast, the sketch processes deletions as well as insertions, and supports the
+ * conservative update rule.</p>
+ */
+public class CountMinBlocked {
+
+  /**
+   * The number of counters in a block, which fill 64 bytes and bound the number of hashes
+   */
+  static final int BLOCK_LONGS = 8;
+  private static final int LOG_BLOCK_LONGS = 3;
+  private static final int SLOT_MASK = BLOCK_LONGS - 1;
+
+  // hashes denotes the number of cells of its block each key is hashed to
+  private final int hashes;
+  // blockMask selects the block of a key from the low bits of its hash
+  private final int blockMask;
+  private final long[] counts;
+  private final HashStrategy hashStrategy;
+  private final double eps;
+  // update_sum denotes the sum of all the increments the sketch has processed.
+  private long update_sum = 0;
+
+  /**
+   * Constructs and initializes a sketch that hashes keys with MurmurHash3.
+   *
+   * @param eps the error, as a fraction of the sum of the increments, the sketch is sized for
+   * @param delta determines the number of hashes, as for CountMinFast
+   */
+  public CountMinBlocked(final double eps, final double delta) {
+    this(eps, delta, HashStrategy.MURMUR3);
+  }
+
+  /**
+   * Constructs and initializes a sketch with as many counters as a CountMinFast with the same
+   * parameters. The number of hashes is that of CountMinFast, at most BLOCK_LONGS.
+   *
+   * @param eps the error, as a fraction of the sum of the increments, the sketch is sized for
+   * @param delta determines the number of hashes, as for CountMinFast
+   * @param hashStrategy the hash function applied to keys. HashStrategy.IDENTITY may be used if
+   *        the keys are already hashes.
+   */
+  public CountMinBlocked(final double eps, final double delta, final HashStrategy hashStrategy) {
+    if (eps <= 0 || delta <= 0) {
+      throw new IllegalArgumentException("Received negative or zero value for eps or delta.");
+    }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
+    this.eps = eps;
+    final int rows = (int) (Math.ceil(Math.log(1 / delta) / Math.log(2.0)));
+    this.hashes = Math.max(1, Math.min(rows, BLOCK_LONGS));
+    final int columns = (int) (2 * Math.ceil(1 / eps));
+    final int length = Math.max(BLOCK_LONGS, Integer.highestOneBit(2 * (columns * rows - 1)));
+    this.blockMask = (length >>> LOG_BLOCK_LONGS) - 1;
+    this.counts = new long[length];
+  }
+
+  /**
+   * @param key Process a key (specified as a long) update and treat the increment as 1
+   */
+  public void update(final long key) {
+    update(key, 1);
+  }
+
+  /**
+   * @param key Process a key (specified as a long) update and treat the increment as 1, using the
+   *        conservative update rule
+   */
+  public void conservative_update(final long key) {
+    conservative_update(key, 1);
+  }
+
+  /**
+   * @param key the key to update
+   * @param increment Process a key (specified as a long) and an increment (also specified as a
+   *        long). Increment can be negative
+   */
+  public void update(final long key, final long increment) {
+    this.update_sum += increment;
+    final long hash = hashStrategy.hash(key);
+    final int block = blockStart(hash);
+    int slot = firstSlot(hash);
+    final int stride = stride(hash);
+    for (int i = this.hashes; i-- > 0;) {
+      counts[block + slot] += increment;
+      slot = (slot + stride) & SLOT_MASK;
+    }
+  }
+
+  /**
+   * @param key the key to be updated
+   * @param increment Process a key (specified as a long) and an increment (also specified as a
+   *        long), raising each of its cells only as much as needed not to underestimate the key.
+   */
+  public void conservative_update(final long key, final long increment) {
+    this.update_sum += increment;
+    final long hash = hashStrategy.hash(key);
+    final int block = blockStart(hash);
+    final int first = firstSlot(hash);
+    final int stride = stride(hash);
+    final long target = minCount(block, first, stride) + increment;
+    int slot = first;
+    for (int i = this.hashes; i-- > 0;) {
+      if (counts[block + slot] < target) {
+        counts[block + slot] = target;
+      }
+      slot = (slot + stride) & SLOT_MASK;
+    }
+  }
+
+  /**
+   * @param key whose count estimate is returned.
+   * @return the approximate count for the key, the smallest of its cells
+   */
+  public long getEstimate(final long key) {
+    final long hash = hashStrategy.hash(key);
+    return minCount(blockStart(hash), firstSlot(hash), stride(hash));
+  }
+
+  /**
+   * @param key whose count estimate is returned.
+   * @return an upper bound on the count for the key (upper bound holds deterministically for
+   *         insertion-only streams)
+   */
+  public long getEstimateUpperBound(final long key) {
+    return getEstimate(key);
+  }
+
+  /**
+   * @param key whose count estimate is returned.
+   * @return a lower bound on the count for the key, which holds with probability at least
+   *         1 - getFailureProbability()
+   */
+  public long getEstimateLowerBound(final long key) {
+    return getEstimate(key) - getMaxError();
+  }
+
+  /**
+   * @return eps times the sum of the increments, the error the sketch was sized for
+   */
+  public long getMaxError() {
+    return (long) (Math.ceil(this.eps * this.update_sum));
+  }
+
+  /**
+   * Returns the expected overestimate of a single cell: each other key falls in the block of a key
+   * with probability 1/blocks, and then covers any given cell of the block with probability
+   * hashes/BLOCK_LONGS, since its cells are distinct. The estimate of a key, the smallest of its
+   * cells, exceeds its count by no more than this on average.
+   *
+   * @return the expected error of a cell, for the sum of the increments processed so far
+   */
+  public double getExpectedCellError() {
+    return (double) this.update_sum * this.hashes / ((long) BLOCK_LONGS * getBlocks());
+  }
+
+  /**
+   * Returns a bound on the probability that the estimate of a key exceeds its count by more than
+   * the given error, for insertion-only streams. Since the cells of a key are not independent, the
+   * bound is that of Markov's inequality on a single cell, getExpectedCellError() / error, and
+   * does not improve with the number of hashes as the delta of CountMinFast does.
+   *
+   * @param error an error, in counts
+   * @return the bound on the probability that an estimate exceeds its count by more than error
+   */
+  public double getFailureProbability(final long error) {
+    if (error <= 0) {
+      return 1.0;
+    }
+    return Math.min(1.0, getExpectedCellError() / error);
+  }
+
+  /**
+   * @return the bound of getFailureProbability(error) for error = getMaxError()
+   */
+  public double getFailureProbability() {
+    return getFailureProbability(getMaxError());
+  }
+
+  /**
+   * @return the number of cells of its block each key is hashed to
+   */
+  public int getHashes() {
+    return hashes;
+  }
+
+  /**
+   * @return the number of blocks of BLOCK_LONGS counters
+   */
+  public int getBlocks() {
+    return blockMask + 1;
+  }
+
+  /**
+   * @return the sum of all the increments processed by the sketch
+   */
+  public long getStreamLength() {
+    return update_sum;
+  }
+
+  /**
+   * @param other Another CountMinBlocked sketch. Must have been created using the same hash
+   *        strategy and have the same parameter values eps, delta.
+   * @return pointer to the sketch resulting in adding the approximate counts of another sketch.
+   *         This method does not create a new sketch. The sketch whose function is executed is
+   *         changed.
+   */
+  public CountMinBlocked merge(final CountMinBlocked other) {
+    if (this.hashes != other.hashes || this.counts.length != other.counts.length) {
+      throw new IllegalArgumentException(
+          "Trying to merge two CountMin data structures of different sizes.");
+    }
+    if (this.hashStrategy != other.hashStrategy) {
+      throw new IllegalArgumentException(
+          "Trying to merge two CountMin data structures with different hash strategies.");
+    }
+    for (int i = 0; i < this.counts.length; i++) {
+      this.counts[i] += other.counts[i];
+    }
+    this.update_sum += other.update_sum;
+    return this;
+  }
+
+  private long minCount(final int block, final int first, final int stride) {
+    long min_count = Long.MAX_VALUE;
+    int slot = first;
+    for (int i = this.hashes; i-- > 0;) {
+      final long count = counts[block + slot];
+      if (count < min_count) {
+        min_count = count;
+      }
+      slot = (slot + stride) & SLOT_MASK;
+    }
+    return min_count;
+  }
+
+  // the low bits of the hash select the block, and the top five bits the cells within it, so the
+  // two never overlap: there are at most 2^27 blocks
+  private int blockStart(final long hash) {
+    return ((int) hash & blockMask) << LOG_BLOCK_LONGS;
+  }
+
+  private static int firstSlot(final long hash) {
+    return (int) (hash >>> 61);
+  }
+
+  // odd, hence coprime with BLOCK_LONGS, so the hashes cells of a key are distinct
+  private static int stride(final long hash) {
+    return ((int) (hash >>> 59) & 3) << 1 | 1;
+  }
+
+}
@@ -5,7 +5,11 @@
 
 package com.yahoo.sketches.frequencies;
 
-import com.yahoo.sketches.hash.MurmurHash3;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.yahoo.sketches.hashmaps.HashStrategy;
 
 //TODO reexamine CU
 /**
@@ -45,8 +49,8 @@ public class CountMinFast {
   private long update_sum;
   // counts is the array containing the actual Count-Min data structure
   private long[] counts;
-  // keyArr is used for evaluating MurmurHash
-  private long[] keyArr = new long[1];
+  // hashStrategy is applied to keys before they are mapped to cells
+  private HashStrategy hashStrategy;
   // eps is a parameter controlling the error guarantees and
   // "frequent threshold" of the answers returned by Count-Min
   private double eps;
@@ -56,6 +60,18 @@ public class CountMinFast {
   private static final int STRIDE_HASH_BITS = 30;
   static final int STRIDE_MASK = (1 << STRIDE_HASH_BITS) - 1;
 
+  /**
+   * Constructs and initializes a sketch that hashes keys with MurmurHash3.
+   *
+   * @param eps Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies
+   * @param delta Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies
+   */
+  public CountMinFast(final double eps, final double delta) {
+    this(eps, delta, HashStrategy.MURMUR3);
+  }
+
   /**
    * Constructs and initializes a CountMin sketch, with various optimizations for speed. The
    * guarantee of the sketch is that the answer returned to any individual point query will, with
@@ -66,11 +82,18 @@ public class CountMinFast {
    *        where n is sum of item frequencies
    * @param delta Estimates are guaranteed to have error eps*n with probability at least 1-delta,
    *        where n is sum of item frequencies
+   * @param hashStrategy the hash function applied to keys. HashStrategy.IDENTITY may be used if
+   *        the keys are already hashes.
    */
-  public CountMinFast(final double eps, final double delta) {
+  public CountMinFast(final double eps, final double delta,
+      final HashStrategy hashStrategy) {
     if (eps <= 0 || delta <= 0) {
       throw new IllegalArgumentException("Received negative or zero value for eps or delta.");
     }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
     this.eps = eps;
 
     // set this.hashes to be the integer larger than log_2(1/delta)
@@ -101,6 +124,17 @@ public class CountMinFast {
     this.update_sum = 0;
   }
 
+  private CountMinFast(final int hashes, final int logLength, final HashStrategy hashStrategy,
+      final double eps) {
+    this.hashes = hashes;
+    this.logLength = logLength;
+    this.length = 1 << logLength;
+    this.arrayMask = length - 1;
+    this.hashStrategy = hashStrategy;
+    this.eps = eps;
+    this.counts = new long[length];
+  }
+
   /**
    * @param key Process a key (specified as a long) update and treat the increment as 1, using the
    *        update function specified by Cormode and Muthukrishnan
@@ -186,8 +220,7 @@ public class CountMinFast {
    * @return an index into the hash table
    */
   protected long hash(final long key) {
-    keyArr[0] = key;
-    return MurmurHash3.hash(keyArr, 0)[0];
+    return hashStrategy.hash(key);
   }
 
   /**
@@ -196,7 +229,6 @@ public class CountMinFast {
    *         1-delta 1) get(key) &gt;= real count 2) get(key) &lt;= real count + getMaxError()
    */
   public long getEstimate(final long key) {
-    keyArr[0] = key;
     long min_count = Long.MAX_VALUE;
 
     final long hash = hash(key);
@@ -256,10 +288,62 @@ public class CountMinFast {
       throw new IllegalArgumentException(
           "Trying to merge two CountMin data structures of different sizes.");
     }
+    if (this.hashStrategy != other.hashStrategy) {
+      throw new IllegalArgumentException(
+          "Trying to merge two CountMin data structures with different hash strategies.");
+    }
     for (int i = 0; i < this.length; i++) {
       this.counts[i] += other.counts[i];
     }
     this.update_sum += other.update_sum;
     return this;
   }
+
+  /**
+   * Writes the sketch to the channel through a buffer of fixed size, so that no array of the size
+   * of the sketch is allocated. The bytes written are the Memory layout of ConcurrentCountMin, so
+   * they may also be read by ConcurrentCountMin.readFrom, or mapped and wrapped by it.
+   *
+   * @param channel the destination, in blocking mode. It is not closed.
+   * @throws IOException if the channel fails
+   */
+  public void writeTo(final WritableByteChannel channel) throws IOException {
+    if (hashes > 0xff) {
+      // the number of rows is stored in a byte
+      throw new IllegalArgumentException("Too many hashes to serialize: " + hashes);
+    }
+    final ChannelWriter out = new ChannelWriter(channel);
+    out.putLong(ConcurrentCountMin.getPreamble(HashStrategy.toId(hashStrategy), hashes,
+        logLength));
+    out.putLong(Double.doubleToLongBits(eps));
+    out.putLong(update_sum);
+    for (int i = 0; i < length; i++) {
+      out.putLong(counts[i]);
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads a sketch written by writeTo or by ConcurrentCountMin.writeTo from the channel, consuming
+   * exactly its bytes.
+   *
+   * @param channel the source, in blocking mode. It is not closed.
+   * @return the sketch read
+   * @throws IOException if the channel fails or ends within the sketch
+   */
+  public static CountMinFast readFrom(final ReadableByteChannel channel) throws IOException {
+    final ChannelReader in = new ChannelReader(channel);
+    in.expect(ConcurrentCountMin.PREAMBLE_BYTES);
+    final long pre0 = in.getLong();
+    ConcurrentCountMin.checkPreamble(pre0);
+    final CountMinFast sketch = new CountMinFast((int) (pre0 >>> 24) & 0xff,
+        (int) (pre0 >>> 32) & 0xff, HashStrategy.fromId((int) (pre0 >>> 16) & 0xff),
+        Double.longBitsToDouble(in.getLong()));
+    sketch.update_sum = in.getLong();
+    in.expect((long) sketch.length << 3);
+    for (int i = 0; i < sketch.length; i++) {
+      sketch.counts[i] = in.getLong();
+    }
+    return sketch;
+  }
 }
@@ -5,7 +5,7 @@
 
 package com.yahoo.sketches.frequencies;
 
-import com.yahoo.sketches.hash.MurmurHash3;
+import com.yahoo.sketches.hashmaps.HashStrategy;
 
 import gnu.trove.iterator.TLongIterator;
 import gnu.trove.set.hash.TLongHashSet;
@@ -51,8 +51,8 @@ public class CountMinFastFECU {
   private long update_sum;
   // counts is the array containing the actual Count-Min data structure
   private long[] counts;
-  // keyArr is used for evaluating MurmurHash
-  private long[] keyArr = new long[1];
+  // hashStrategy is applied to keys before they are mapped to cells
+  private HashStrategy hashStrategy;
   // eps is a parameter controlling the error guarantees and
   // "frequent threshold" of the answers returned by Count-Min
   private double eps;
@@ -68,6 +68,18 @@ public class CountMinFastFECU {
   static final int STRIDE_MASK = (1 << STRIDE_HASH_BITS) - 1;
 
 
+  /**
+   * Constructs and initializes a sketch that hashes keys with MurmurHash3.
+   *
+   * @param eps Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies
+   * @param delta Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies
+   */
+  public CountMinFastFECU(final double eps, final double delta) {
+    this(eps, delta, HashStrategy.MURMUR3);
+  }
+
   /**
    * Constructs and initializes a CountMin sketch, with various optimizations for speed. The
    * guarantee of the sketch is that the answer returned to any individual point query will, with
@@ -78,11 +90,18 @@ public class CountMinFastFECU {
    *        where n is sum of item frequencies
    * @param delta Estimates are guaranteed to have error eps*n with probability at least 1-delta,
    *        where n is sum of item frequencies
+   * @param hashStrategy the hash function applied to keys. HashStrategy.IDENTITY may be used if
+   *        the keys are already hashes.
    */
-  public CountMinFastFECU(final double eps, final double delta) {
+  public CountMinFastFECU(final double eps, final double delta,
+      final HashStrategy hashStrategy) {
     if (eps <= 0 || delta <= 0) {
       throw new IllegalArgumentException("Received negative or zero value for eps or delta.");
     }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
     this.eps = eps;
 
     // set this.hashes to be the integer larger than log_2(1/delta)
@@ -193,8 +212,7 @@ public class CountMinFastFECU {
    * @return an index into the hash table
    */
   protected long hash(final long key) {
-    keyArr[0] = key;
-    return MurmurHash3.hash(keyArr, 0)[0];
+    return hashStrategy.hash(key);
   }
 
 
@@ -223,7 +241,6 @@ public class CountMinFastFECU {
    */
 
   public long getEstimate(final long key) {
-    keyArr[0] = key;
     long min_count = Long.MAX_VALUE;
 
     final long hash = hash(key);
@@ -296,6 +313,10 @@ public class CountMinFastFECU {
       throw new IllegalArgumentException(
           "Trying to merge two CountMin data structures of different sizes.");
     }
+    if (this.hashStrategy != other.hashStrategy) {
+      throw new IllegalArgumentException(
+          "Trying to merge two CountMin data structures with different hash strategies.");
+    }
 
     // add the counters from the two sketches
     for (int i = 0; i < this.length; i++) {
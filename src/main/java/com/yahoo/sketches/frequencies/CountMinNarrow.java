@@ -0,0 +1,427 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+import gnu.trove.map.hash.TIntLongHashMap;
+import gnu.trove.procedure.TIntLongProcedure;
+
+/**
+ * The Count-Min sketch of CountMinFast with counters of 8, 16 or 32 bits packed in longs, so that
+ * the same memory holds 8, 4 or 2 times as many counters. Most cells of a Count-Min sketch hold
+ * small values, and two modes deal with the few that do not fit:
+ *
+ * <ul>
+ * <li>SATURATING: a counter stops at its largest value, and the rest of the count of the cell is
+ * kept in an overflow table. Estimates are exactly those of a CountMinFast with the same number
+ * of cells and hash strategy, and the table holds one entry per saturated cell.</li>
+ * <li>MORRIS: a counter holds the exponent c of a Morris approximate counter, which stands for the
+ * count ((1 + a)^c - 1) / a. Adding w to a cell moves it to the exponent whose count is just
+ * below its count plus w, and to the next one with the probability that makes the expected count
+ * exactly the count plus w, so the count of each cell is unbiased. The base 1 + a is set by the
+ * width so that the largest counter stands for about 2^62, and the relative standard error of a
+ * cell is about getRelativeStandardError(): 0.3 at 8 bits, 0.02 at 16 bits and 0.00007 at 32.</li>
+ * </ul>
+ *
+ * <p>The cells a key maps to are those of CountMinFast with the same number of cells, so a sketch
+ * built for eps / 8 with 8-bit counters takes the memory of a CountMinFast for eps. Increments
+ * must not be negative.</p>
+ */
+public class CountMinNarrow {
+
+  /**
+   * How a CountMinNarrow counts beyond the range of its counters. The ordinal is serialized, so
+   * new modes must be added last.
+   */
+  public enum CounterMode {
+    /** Saturating counters, with the excess of saturated cells in an overflow table */
+    SATURATING,
+    /** Morris approximate counters */
+    MORRIS
+  }
+
+  // the serialized form written by writeTo: a first long holding the number of preamble longs,
+  // SER_VER, the hash strategy id, the number of hashes, logLength, the counter bits and the
+  // counter mode in its low bytes, then eps and update_sum, then the packed counters, then the
+  // number of entries of the overflow table followed by the (cell, excess) pairs
+  private static final int SER_VER = 1;
+  private static final int PRE_LONGS = 3;
+  // the count the largest Morris counter stands for, whatever the width
+  private static final double MORRIS_LOG2_RANGE = 62;
+
+  private final int hashes;
+  private final int length;
+  private final int logLength;
+  private final int arrayMask;
+  private final int bits;
+  // counters per long is 1 << logPerWord
+  private final int logPerWord;
+  private final long counterMask;
+  private final CounterMode mode;
+  private final HashStrategy hashStrategy;
+  private final double eps;
+  private final long[] words;
+  // the excess over counterMask of saturated cells, in SATURATING mode
+  private final TIntLongHashMap overflow = new TIntLongHashMap();
+  // a of the Morris counters, and log(1 + a)
+  private final double morrisA;
+  private final double logMorrisBase;
+  private final Random random = new Random();
+  private long update_sum = 0;
+
+  /**
+   * Constructs and initializes a sketch that hashes keys with MurmurHash3.
+   *
+   * @param eps Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies, on top of the error of Morris counters
+   * @param delta Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies, on top of the error of Morris counters
+   * @param bits the width of the counters: 8, 16 or 32
+   * @param mode how the counters count beyond their range
+   */
+  public CountMinNarrow(final double eps, final double delta, final int bits,
+      final CounterMode mode) {
+    this(eps, delta, bits, mode, HashStrategy.MURMUR3);
+  }
+
+  /**
+   * Constructs and initializes a sketch with as many cells as a CountMinFast with the same eps and
+   * delta, in getStorageBytes() bytes.
+   *
+   * @param eps Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies, on top of the error of Morris counters
+   * @param delta Estimates are guaranteed to have error eps*n with probability at least 1-delta,
+   *        where n is sum of item frequencies, on top of the error of Morris counters
+   * @param bits the width of the counters: 8, 16 or 32
+   * @param mode how the counters count beyond their range
+   * @param hashStrategy the hash function applied to keys. HashStrategy.IDENTITY may be used if
+   *        the keys are already hashes.
+   */
+  public CountMinNarrow(final double eps, final double delta, final int bits,
+      final CounterMode mode, final HashStrategy hashStrategy) {
+    this(getHashes(eps, delta), getLogLength(eps, delta), bits, mode, hashStrategy, eps);
+  }
+
+  private CountMinNarrow(final int hashes, final int logLength, final int bits,
+      final CounterMode mode, final HashStrategy hashStrategy, final double eps) {
+    if (bits != 8 && bits != 16 && bits != 32) {
+      throw new IllegalArgumentException("Counters must have 8, 16 or 32 bits: " + bits);
+    }
+    if (mode == null || hashStrategy == null) {
+      throw new IllegalArgumentException("mode and hashStrategy must not be null.");
+    }
+    this.hashes = hashes;
+    this.logLength = logLength;
+    this.length = 1 << logLength;
+    this.arrayMask = length - 1;
+    this.bits = bits;
+    this.logPerWord = 6 - Integer.numberOfTrailingZeros(bits);
+    this.counterMask = (1L << bits) - 1;
+    this.mode = mode;
+    this.hashStrategy = hashStrategy;
+    this.eps = eps;
+    this.words = new long[Math.max(1, length >>> logPerWord)];
+    this.morrisA = Math.expm1(MORRIS_LOG2_RANGE * Math.log(2) / counterMask);
+    this.logMorrisBase = Math.log1p(morrisA);
+  }
+
+  private static int getHashes(final double eps, final double delta) {
+    if (eps <= 0 || delta <= 0) {
+      throw new IllegalArgumentException("Received negative or zero value for eps or delta.");
+    }
+    return (int) (Math.ceil(Math.log(1 / delta) / Math.log(2.0)));
+  }
+
+  // the same number of cells as CountMinFast
+  private static int getLogLength(final double eps, final double delta) {
+    final int columns = (int) (2 * Math.ceil(1 / eps));
+    final int length = Integer.highestOneBit(2 * (columns * getHashes(eps, delta) - 1));
+    return Integer.numberOfTrailingZeros(length);
+  }
+
+  /**
+   * @param key Process a key (specified as a long) update and treat the increment as 1
+   */
+  public void update(final long key) {
+    update(key, 1);
+  }
+
+  /**
+   * @param key the key to update
+   * @param increment Process a key (specified as a long) and a non-negative increment (also
+   *        specified as a long)
+   */
+  public void update(final long key, final long increment) {
+    if (increment < 0) {
+      throw new IllegalArgumentException("Received negative increment: " + increment);
+    }
+    this.update_sum += increment;
+    final long hash = hashStrategy.hash(key);
+    int probe = (int) (hash & arrayMask);
+    final int stride = ((int) ((hash >> logLength) & CountMinFast.STRIDE_MASK) << 1) + 1;
+    for (int i = this.hashes; i-- > 0;) {
+      add(probe, increment);
+      probe = (probe + stride) & arrayMask;
+    }
+  }
+
+  /**
+   * @param key whose count estimate is returned.
+   * @return the approximate count for the key, the smallest count of its cells
+   */
+  public long getEstimate(final long key) {
+    final long hash = hashStrategy.hash(key);
+    int probe = (int) (hash & arrayMask);
+    final int stride = ((int) ((hash >> logLength) & CountMinFast.STRIDE_MASK) << 1) + 1;
+    long min_count = Long.MAX_VALUE;
+    for (int i = this.hashes; i-- > 0;) {
+      final long count = getCount(probe);
+      if (count < min_count) {
+        min_count = count;
+      }
+      probe = (probe + stride) & arrayMask;
+    }
+    return min_count;
+  }
+
+  /**
+   * @param key whose count estimate is returned.
+   * @return an upper bound on the count for the key, which holds deterministically in SATURATING
+   *         mode
+   */
+  public long getEstimateUpperBound(final long key) {
+    return getEstimate(key);
+  }
+
+  /**
+   * @param key whose count estimate is returned.
+   * @return a lower bound on the count for the key (lower bound holds with probability at least
+   *         1-delta in SATURATING mode)
+   */
+  public long getEstimateLowerBound(final long key) {
+    return getEstimate(key) - getMaxError();
+  }
+
+  /**
+   * @return a bound on the error of the estimate one gets from getEstimate(key), as in
+   *         CountMinFast. In MORRIS mode the estimates have the relative error of their counters on
+   *         top of it.
+   */
+  public long getMaxError() {
+    return (long) (Math.ceil(this.eps * this.update_sum));
+  }
+
+  /**
+   * @return the relative standard error of the count of a cell: 0 in SATURATING mode, and about
+   *         sqrt(a / 2) in MORRIS mode
+   */
+  public double getRelativeStandardError() {
+    return (mode == CounterMode.MORRIS) ? Math.sqrt(morrisA / 2) : 0;
+  }
+
+  /**
+   * @return the sum of all the increments processed by the sketch
+   */
+  public long getStreamLength() {
+    return update_sum;
+  }
+
+  /**
+   * @return the bytes of the packed counters, plus 16 bytes per entry of the overflow table
+   */
+  public long getStorageBytes() {
+    return ((long) words.length << 3) + 16L * overflow.size();
+  }
+
+  /**
+   * @return the number of saturated cells, whose excess is in the overflow table
+   */
+  public int getOverflowSize() {
+    return overflow.size();
+  }
+
+  /**
+   * Adds the counts of another sketch to this one. In MORRIS mode the count of each cell of the
+   * other sketch is added as a single increment, so the merged counts remain unbiased.
+   *
+   * @param other Another CountMinNarrow sketch. Must have been created using the same hash
+   *        strategy, counter width and mode, and have the same parameter values eps, delta.
+   * @return this sketch
+   */
+  public CountMinNarrow merge(final CountMinNarrow other) {
+    if (this.hashes != other.hashes || this.length != other.length || this.bits != other.bits) {
+      throw new IllegalArgumentException(
+          "Trying to merge two CountMin data structures of different sizes.");
+    }
+    if (this.hashStrategy != other.hashStrategy || this.mode != other.mode) {
+      throw new IllegalArgumentException(
+          "Trying to merge two CountMin data structures with different hash strategies or modes.");
+    }
+    for (int i = 0; i < this.length; i++) {
+      if (mode == CounterMode.MORRIS) {
+        final long counter = other.getCounter(i);
+        if (counter != 0) {
+          addMorris(i, other.morrisCount(counter));
+        }
+      } else {
+        add(i, other.getCount(i));
+      }
+    }
+    this.update_sum += other.update_sum;
+    return this;
+  }
+
+  /**
+   * Sets the seed of the random numbers of the MORRIS mode, for reproducible tests
+   */
+  void setSeed(final long seed) {
+    random.setSeed(seed);
+  }
+
+  private long getCounter(final int cell) {
+    final int shift = (cell & ((1 << logPerWord) - 1)) * bits;
+    return (words[cell >>> logPerWord] >>> shift) & counterMask;
+  }
+
+  private void setCounter(final int cell, final long counter) {
+    final int shift = (cell & ((1 << logPerWord) - 1)) * bits;
+    final int word = cell >>> logPerWord;
+    words[word] = (words[word] & ~(counterMask << shift)) | (counter << shift);
+  }
+
+  private long getCount(final int cell) {
+    final long counter = getCounter(cell);
+    if (mode == CounterMode.MORRIS) {
+      return Math.round(morrisCount(counter));
+    }
+    return (counter == counterMask) ? counter + overflow.get(cell) : counter;
+  }
+
+  private void add(final int cell, final long increment) {
+    if (mode == CounterMode.MORRIS) {
+      addMorris(cell, increment);
+      return;
+    }
+    final long counter = getCounter(cell);
+    if (counter == counterMask) {
+      overflow.adjustOrPutValue(cell, increment, increment);
+    } else if (increment > counterMask - counter) {
+      setCounter(cell, counterMask);
+      final long excess = increment - (counterMask - counter);
+      overflow.put(cell, excess);
+    } else {
+      setCounter(cell, counter + increment);
+    }
+  }
+
+  private double morrisCount(final long counter) {
+    return Math.expm1(counter * logMorrisBase) / morrisA;
+  }
+
+  // moves the counter to the exponent whose count is just below the target count, and to the next
+  // one with the probability that makes the expected count exactly the target
+  private void addMorris(final int cell, final double increment) {
+    final double target = morrisCount(getCounter(cell)) + increment;
+    long counter = Math.min(counterMask, (long) (Math.log1p(target * morrisA) / logMorrisBase));
+    // correct the rounding of the logarithm
+    while (counter > 0 && morrisCount(counter) > target) {
+      counter--;
+    }
+    while (counter < counterMask && morrisCount(counter + 1) <= target) {
+      counter++;
+    }
+    if (counter < counterMask) {
+      final double low = morrisCount(counter);
+      final double gap = morrisCount(counter + 1) - low;
+      if (random.nextDouble() * gap < target - low) {
+        counter++;
+      }
+    }
+    setCounter(cell, counter);
+  }
+
+  /**
+   * Writes the sketch to the channel through a buffer of fixed size, so that no array of the size
+   * of the sketch is allocated.
+   *
+   * @param channel the destination, in blocking mode. It is not closed.
+   * @throws IOException if the channel fails
+   */
+  public void writeTo(final WritableByteChannel channel) throws IOException {
+    if (hashes > 0xff) {
+      // the number of hashes is stored in a byte
+      throw new IllegalArgumentException("Too many hashes to serialize: " + hashes);
+    }
+    final ChannelWriter out = new ChannelWriter(channel);
+    out.putLong(PRE_LONGS | (SER_VER << 8) | (HashStrategy.toId(hashStrategy) << 16)
+        | ((long) hashes << 24) | ((long) logLength << 32) | ((long) bits << 40)
+        | ((long) mode.ordinal() << 48));
+    out.putLong(Double.doubleToLongBits(eps));
+    out.putLong(update_sum);
+    for (int i = 0; i < words.length; i++) {
+      out.putLong(words[i]);
+    }
+    out.putLong(overflow.size());
+    overflow.forEachEntry(new TIntLongProcedure() {
+      @Override
+      public boolean execute(final int cell, final long excess) {
+        out.putLong(cell);
+        out.putLong(excess);
+        return true;
+      }
+    });
+    out.flush();
+  }
+
+  /**
+   * Reads a sketch written by writeTo from the channel, consuming exactly its bytes.
+   *
+   * @param channel the source, in blocking mode. It is not closed.
+   * @return the sketch read
+   * @throws IOException if the channel fails or ends within the sketch
+   */
+  public static CountMinNarrow readFrom(final ReadableByteChannel channel) throws IOException {
+    final ChannelReader in = new ChannelReader(channel);
+    in.expect(PRE_LONGS << 3);
+    final long pre0 = in.getLong();
+    final int preLongs = (int) pre0 & 0xff;
+    final int serVer = (int) (pre0 >>> 8) & 0xff;
+    final int hashes = (int) (pre0 >>> 24) & 0xff;
+    final int logLength = (int) (pre0 >>> 32) & 0xff;
+    final int modeId = (int) (pre0 >>> 48) & 0xff;
+    if (preLongs != PRE_LONGS || serVer != SER_VER) {
+      throw new IllegalArgumentException("Not a CountMinNarrow, serVer: " + serVer);
+    }
+    if (hashes == 0 || logLength > 30 || modeId >= CounterMode.values().length) {
+      throw new IllegalArgumentException("Corrupt sketch, hashes: " + hashes + ", logLength: "
+          + logLength + ", mode: " + modeId);
+    }
+    final CountMinNarrow sketch = new CountMinNarrow(hashes, logLength, (int) (pre0 >>> 40) & 0xff,
+        CounterMode.values()[modeId], HashStrategy.fromId((int) (pre0 >>> 16) & 0xff),
+        Double.longBitsToDouble(in.getLong()));
+    sketch.update_sum = in.getLong();
+    in.expect(((long) sketch.words.length << 3) + 8);
+    for (int i = 0; i < sketch.words.length; i++) {
+      sketch.words[i] = in.getLong();
+    }
+    final long overflowSize = in.getLong();
+    if (overflowSize < 0 || overflowSize > sketch.length) {
+      throw new IllegalArgumentException("Corrupt overflow table size: " + overflowSize);
+    }
+    in.expect(overflowSize << 4);
+    for (long i = 0; i < overflowSize; i++) {
+      sketch.overflow.put((int) in.getLong(), in.getLong());
+    }
+    return sketch;
+  }
+
+}
@@ -5,7 +5,7 @@
 
 package com.yahoo.sketches.frequencies;
 
-import com.yahoo.sketches.hash.MurmurHash3;
+import com.yahoo.sketches.hashmaps.HashStrategy;
 
 //TODO Reexamine.  Where does this belong? Is it real?
 /**
@@ -20,16 +20,29 @@ public class CuckooHashWithImplicitDeletions {
   private long[] keys;
   private long[] values;
   int[] keyLocationInArray;
-  long[] keyArr = new long[1];
+  private HashStrategy hashStrategy;
 
   /**
    * blah
    * @param maxSize blah
    */
   public CuckooHashWithImplicitDeletions(final int maxSize) {
+    this(maxSize, HashStrategy.MURMUR3);
+  }
+
+  /**
+   * @param maxSize the maximum number of keys the table is expected to hold
+   * @param hashStrategy the hash function applied to keys. All the locations of a key are derived
+   *        from a single hash by double hashing.
+   */
+  public CuckooHashWithImplicitDeletions(final int maxSize, final HashStrategy hashStrategy) {
     if (maxSize <= 0) {
       throw new IllegalArgumentException("Received negative or zero value for maxSize.");
     }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
     keyValueArrayLength = (int) (maxSize / LOAD_FACTOR);
     keys = new long[keyValueArrayLength];
     values = new long[keyValueArrayLength];
@@ -42,8 +55,9 @@ public class CuckooHashWithImplicitDeletions {
    * @return blah
    */
   public long get(final long key) {
+    final long hash = hashStrategy.hash(key);
     for (int i = LOCATIONS_PER_KEY; i-- > 0;) {
-      final int index = indexForKey(key, i);
+      final int index = indexForHash(hash, i);
       if (keys[index] == key) {
         final long value = values[index];
         return (value > offset) ? value - offset : 0;
@@ -52,9 +66,10 @@ public class CuckooHashWithImplicitDeletions {
     return 0;
   }
 
-  private int indexForKey(final long key, final int i) {
-    keyArr[0] = key;
-    return (((int) (MurmurHash3.hash(keyArr, i)[0])) >>> 1) % keyValueArrayLength;
+  private int indexForHash(final long hash, final int i) {
+    final int h1 = (int) hash;
+    final int h2 = ((int) (hash >>> 32)) | 1;
+    return ((h1 + i * h2) >>> 1) % keyValueArrayLength;
   }
 
   /**
@@ -65,8 +80,9 @@ public class CuckooHashWithImplicitDeletions {
   public boolean increment(final long key) {
     // In case the key is in the map already
     int availableIndex = -1;
+    final long hash = hashStrategy.hash(key);
     for (int i = LOCATIONS_PER_KEY; i-- > 0;) {
-      final int index = indexForKey(key, i);
+      final int index = indexForHash(hash, i);
       if (keys[index] == key) {
         final long value = values[index];
         values[index] = (value > offset) ? value + 1 : offset + 1;
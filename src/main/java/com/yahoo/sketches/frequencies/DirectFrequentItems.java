@@ -0,0 +1,561 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import static com.yahoo.sketches.frequencies.PreambleUtil.BUFFERLENGTH_START;
+import static com.yahoo.sketches.frequencies.PreambleUtil.DIRECT_FLAG;
+import static com.yahoo.sketches.frequencies.PreambleUtil.FAMILY_ID;
+import static com.yahoo.sketches.frequencies.PreambleUtil.MERGE_ERROR_START;
+import static com.yahoo.sketches.frequencies.PreambleUtil.OFFSET_START;
+import static com.yahoo.sketches.frequencies.PreambleUtil.SER_VER;
+import static com.yahoo.sketches.frequencies.PreambleUtil.STREAMLENGTH_START;
+import static com.yahoo.sketches.frequencies.PreambleUtil.UPPER_K_START;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractEmptyFlag;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractFamilyID;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractInitialSize;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractLowerK;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractPreLongs;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractSerVer;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractUpperK;
+import static com.yahoo.sketches.frequencies.PreambleUtil.insertEmptyFlag;
+import static com.yahoo.sketches.frequencies.PreambleUtil.insertFamilyID;
+import static com.yahoo.sketches.frequencies.PreambleUtil.insertInitialSize;
+import static com.yahoo.sketches.frequencies.PreambleUtil.insertLowerK;
+import static com.yahoo.sketches.frequencies.PreambleUtil.insertPreLongs;
+import static com.yahoo.sketches.frequencies.PreambleUtil.insertSerVer;
+import static com.yahoo.sketches.frequencies.PreambleUtil.insertUpperK;
+import static com.yahoo.sketches.hashmaps.HashMapReverseEfficient.IMAGE_PREAMBLE_BYTES;
+import static com.yahoo.sketches.hashmaps.HashMapReverseEfficient.IMAGE_SER_VER;
+
+import java.util.Arrays;
+
+import com.yahoo.memory.NativeMemory;
+import com.yahoo.memory4.MemoryRequest;
+import com.yahoo.memory4.WritableMemory;
+import com.yahoo.sketches.hashmaps.HashMapReverseEfficient;
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+/**
+ * A FrequentItems sketch whose entire state lives in a WritableMemory supplied by the caller, so
+ * that it can be kept off-heap or in a memory-mapped file and checkpointed without serializing it.
+ * The first 48 bytes hold the FrequentItems preamble of PreambleUtil, with DIRECT_FLAG in the flag
+ * byte; the counters follow as the binary image of a HashMapReverseEfficient, updated in place.
+ * The estimates and bounds are those of FrequentItems.
+ *
+ * <p>When the counters outgrow the memory, a larger one is obtained from the MemoryRequest of the
+ * memory, the preamble is copied into it and the old memory is handed back to the MemoryRequest.
+ * Callers must therefore use getMemory() rather than keep the memory they passed in. Unlike
+ * FrequentItems, the table grows all at once rather than a few counters per update.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+public final class DirectFrequentItems extends FrequencyEstimator {
+
+  /**
+   * The offset of the counters table, right after the FrequentItems preamble
+   */
+  static final int TABLE_START = 48;
+
+  private static final int PREAMBLE_LONGS = 6;
+  private static final double LOAD_FACTOR = 0.75;
+  private static final int MIN_TABLE_LENGTH = 4;
+
+  private WritableMemory mem;
+  private final int k;
+  private final int maxK;
+  private final int sampleSize;
+  private final HashStrategy hashStrategy;
+
+  // Derived from the current table, and rewritten when it grows
+  private int K;
+  private int arrayMask;
+  private long valuesOffset;
+  private long statesOffset;
+
+  /**
+   * @param k Determines the accuracy of the estimates returned by the sketch, as in FrequentItems.
+   * @param dstMem the memory the sketch lives in, of at least getMemoryBytes(initial size) bytes.
+   *        Its previous contents are overwritten.
+   */
+  public DirectFrequentItems(final int k, final WritableMemory dstMem) {
+    this(k, FrequentItems.MIN_FREQUENT_ITEMS_SIZE, HashStrategy.FMIX64, dstMem);
+  }
+
+  /**
+   * @param k Determines the accuracy of the estimates returned by the sketch, as in FrequentItems.
+   * @param initialCapacity the number of counters the table supports before it first grows
+   * @param hashStrategy the hash function applied to keys by the counters table
+   * @param dstMem the memory the sketch lives in, of at least getMemoryBytes(initialCapacity)
+   *        bytes. Its previous contents are overwritten.
+   */
+  public DirectFrequentItems(final int k, final int initialCapacity,
+      final HashStrategy hashStrategy, final WritableMemory dstMem) {
+    this(dstMem, k, hashStrategy);
+    if (initialCapacity < 1) {
+      throw new IllegalArgumentException("initialCapacity must be positive: " + initialCapacity);
+    }
+    final int capacity = Math.min(initialCapacity, maxK);
+    final long bytes = getMemoryBytes(capacity);
+    if (dstMem.getCapacity() < bytes) {
+      throw new IllegalArgumentException(
+          "Destination Memory not large enough: " + dstMem.getCapacity() + " < " + bytes);
+    }
+    long pre0 = 0L;
+    pre0 = insertPreLongs(PREAMBLE_LONGS, pre0);
+    pre0 = insertSerVer(SER_VER, pre0);
+    pre0 = insertFamilyID(FAMILY_ID, pre0);
+    pre0 = insertEmptyFlag(DIRECT_FLAG, pre0);
+    pre0 = insertLowerK(k, pre0);
+    mem.putLong(0, pre0);
+    mem.putLong(MERGE_ERROR_START, 0);
+    mem.putLong(OFFSET_START, 0);
+    mem.putLong(STREAMLENGTH_START, 0);
+    mem.putLong(UPPER_K_START, insertInitialSize(capacity, 0L));
+    mem.putLong(BUFFERLENGTH_START, 0);
+    initTable(capacity);
+  }
+
+  private DirectFrequentItems(final WritableMemory mem, final int k,
+      final HashStrategy hashStrategy) {
+    if (k <= 0) {
+      throw new IllegalArgumentException("Received negative or zero value for k.");
+    }
+    if (hashStrategy == null || mem == null) {
+      throw new IllegalArgumentException("hashStrategy and memory must not be null.");
+    }
+    this.mem = mem;
+    this.k = k;
+    this.hashStrategy = hashStrategy;
+    this.maxK = (int) (Integer.highestOneBit(4 * k - 1) * LOAD_FACTOR);
+    this.sampleSize = Math.min(maxK, FrequentItems.SAMPLE_SIZE);
+  }
+
+  /**
+   * Attaches to a sketch previously created in the given memory, for instance by another process
+   * or before a restart. Updates go on modifying the memory in place.
+   *
+   * @param srcMem the memory of a DirectFrequentItems, as returned by its getMemory()
+   * @return a sketch operating on srcMem
+   */
+  public static DirectFrequentItems wrap(final WritableMemory srcMem) {
+    if (srcMem.getCapacity() < TABLE_START + IMAGE_PREAMBLE_BYTES) {
+      throw new IllegalArgumentException("Memory too small: " + srcMem.getCapacity());
+    }
+    final long pre0 = srcMem.getLong(0);
+    if (extractPreLongs(pre0) != PREAMBLE_LONGS || extractSerVer(pre0) != SER_VER
+        || extractFamilyID(pre0) != FAMILY_ID || extractEmptyFlag(pre0) != DIRECT_FLAG) {
+      throw new IllegalArgumentException("Not a DirectFrequentItems image.");
+    }
+    final long tablePre0 = srcMem.getLong(TABLE_START);
+    final int serVer = (int) (tablePre0 >>> 8) & 0xff;
+    final int lgLength = (int) (tablePre0 >>> 24) & 0xff;
+    if (serVer != IMAGE_SER_VER || lgLength > 30) {
+      throw new IllegalArgumentException("Corrupt counters table, lgLength: " + lgLength);
+    }
+    final long bytes = TABLE_START + HashMapReverseEfficient.getImageBytes(1 << lgLength);
+    if (srcMem.getCapacity() < bytes) {
+      throw new IllegalArgumentException(
+          "Memory too small for image: " + srcMem.getCapacity() + " < " + bytes);
+    }
+    final DirectFrequentItems sketch = new DirectFrequentItems(srcMem, extractLowerK(pre0),
+        HashStrategy.fromId((int) (tablePre0 >>> 16) & 0xff));
+    sketch.setTable(extractUpperK(srcMem.getLong(UPPER_K_START)), 1 << lgLength);
+    return sketch;
+  }
+
+  /**
+   * @param capacity the number of counters the table must support
+   * @return the number of bytes of the memory of a sketch whose table supports capacity counters
+   */
+  public static long getMemoryBytes(final int capacity) {
+    return TABLE_START + HashMapReverseEfficient.getImageBytes(tableLength(capacity));
+  }
+
+  /**
+   * @param k the k of a sketch
+   * @return the number of bytes of the memory of a sketch of this k once it has reached full size,
+   *         beyond which it never grows
+   */
+  public static long getMaxMemoryBytes(final int k) {
+    return getMemoryBytes((int) (Integer.highestOneBit(4 * k - 1) * LOAD_FACTOR));
+  }
+
+  /**
+   * @return the memory the sketch currently lives in, which changes when the sketch grows beyond
+   *         the memory it was given
+   */
+  public WritableMemory getMemory() {
+    return mem;
+  }
+
+  private static int tableLength(final int capacity) {
+    // the table of HashMap(capacity), which can also hold the extra counter that triggers a purge
+    return Math.max(Integer.highestOneBit(2 * (int) (capacity / LOAD_FACTOR) - 1),
+        MIN_TABLE_LENGTH);
+  }
+
+  /**
+   * Lays out an empty table for the given number of counters after the preamble
+   */
+  private void initTable(final int capacity) {
+    final int length = tableLength(capacity);
+    mem.clear(TABLE_START, HashMapReverseEfficient.getImageBytes(length));
+    final long tablePre0 = (IMAGE_PREAMBLE_BYTES >>> 3)
+        | (IMAGE_SER_VER << 8)
+        | (HashStrategy.toId(hashStrategy) << 16)
+        | (Integer.numberOfTrailingZeros(length) << 24);
+    mem.putLong(TABLE_START, tablePre0);
+    mem.putLong(TABLE_START + 8, (long) (length * LOAD_FACTOR));
+    mem.putLong(UPPER_K_START, insertUpperK(capacity, mem.getLong(UPPER_K_START)));
+    setTable(capacity, length);
+  }
+
+  private void setTable(final int capacity, final int length) {
+    K = capacity;
+    arrayMask = length - 1;
+    valuesOffset = TABLE_START + IMAGE_PREAMBLE_BYTES + ((long) length << 3);
+    statesOffset = TABLE_START + IMAGE_PREAMBLE_BYTES + ((long) length << 4);
+  }
+
+  /**
+   * @return the number of positive counters in the sketch.
+   */
+  public int nnz() {
+    return (int) (mem.getLong(TABLE_START) >>> 32);
+  }
+
+  private void setSize(final int size) {
+    mem.putLong(TABLE_START, (mem.getLong(TABLE_START) & 0xFFFFFFFFL) | ((long) size << 32));
+  }
+
+  private long keyAt(final int probe) {
+    return mem.getLong(TABLE_START + IMAGE_PREAMBLE_BYTES + ((long) probe << 3));
+  }
+
+  private long valueAt(final int probe) {
+    return mem.getLong(valuesOffset + ((long) probe << 3));
+  }
+
+  private short stateAt(final int probe) {
+    return mem.getShort(statesOffset + ((long) probe << 1));
+  }
+
+  private void putEntry(final int probe, final long key, final long value, final int state) {
+    mem.putLong(TABLE_START + IMAGE_PREAMBLE_BYTES + ((long) probe << 3), key);
+    mem.putLong(valuesOffset + ((long) probe << 3), value);
+    mem.putShort(statesOffset + ((long) probe << 1), (short) state);
+  }
+
+  private long getCount(final long key) {
+    int probe = (int) hashStrategy.hash(key) & arrayMask;
+    while (stateAt(probe) > 0) {
+      if (keyAt(probe) == key) {
+        return valueAt(probe);
+      }
+      probe = (probe + 1) & arrayMask;
+    }
+    return 0;
+  }
+
+  @Override
+  public long getEstimate(final long key) {
+    final long count = getCount(key);
+    if (count > 0) {
+      return count + mem.getLong(OFFSET_START);
+    }
+    return 0;
+  }
+
+  @Override
+  public long getEstimateUpperBound(final long key) {
+    final long estimate = getEstimate(key);
+    final long mergeError = mem.getLong(MERGE_ERROR_START);
+    if (estimate > 0) {
+      return estimate + mergeError;
+    }
+    return mergeError + mem.getLong(OFFSET_START);
+  }
+
+  @Override
+  public long getEstimateLowerBound(final long key) {
+    final long returnVal = getEstimate(key) - getMaxError();
+    return (returnVal > 0) ? returnVal : 0;
+  }
+
+  @Override
+  public long getMaxError() {
+    return mem.getLong(OFFSET_START) + mem.getLong(MERGE_ERROR_START);
+  }
+
+  @Override
+  public void update(final long key) {
+    update(key, 1);
+  }
+
+  @Override
+  public void update(final long key, final long increment) {
+    mem.putLong(STREAMLENGTH_START, mem.getLong(STREAMLENGTH_START) + increment);
+    adjust(key, increment);
+    final int size = nnz();
+    if ((size >= K) && (K < maxK)) {
+      grow();
+    }
+    if (size > maxK) {
+      purge();
+      assert (nnz() <= maxK);
+    }
+  }
+
+  private void adjust(final long key, final long increment) {
+    int probe = (int) hashStrategy.hash(key) & arrayMask;
+    int drift = 1;
+    while (stateAt(probe) != 0 && keyAt(probe) != key) {
+      probe = (probe + 1) & arrayMask;
+      drift++;
+      assert (drift < 512);
+    }
+    if (stateAt(probe) == 0) {
+      putEntry(probe, key, increment, drift);
+      setSize(nnz() + 1);
+    } else {
+      final long valueOffset = valuesOffset + ((long) probe << 3);
+      mem.putLong(valueOffset, mem.getLong(valueOffset) + increment);
+    }
+  }
+
+  /**
+   * Rebuilds the table for DEFAULT_GROWTH_FACTOR times as many counters, in a larger memory
+   * obtained from the MemoryRequest if this one is too small
+   */
+  private void grow() {
+    final int size = nnz();
+    final long[] keys = new long[size];
+    final long[] values = new long[size];
+    for (int probe = 0, i = 0; i < size; probe++) {
+      if (stateAt(probe) > 0) {
+        keys[i] = keyAt(probe);
+        values[i] = valueAt(probe);
+        i++;
+      }
+    }
+    final int capacity = Math.min(maxK, FrequentItems.DEFAULT_GROWTH_FACTOR * K);
+    final long bytes = getMemoryBytes(capacity);
+    if (mem.getCapacity() < bytes) {
+      mem = requestMemory(mem, bytes);
+    }
+    initTable(capacity);
+    for (int i = 0; i < size; i++) {
+      adjust(keys[i], values[i]);
+    }
+  }
+
+  /**
+   * @return a memory of at least the given size holding a copy of the preamble of origMem, which
+   *         is handed back to its MemoryRequest
+   */
+  private static WritableMemory requestMemory(final WritableMemory origMem, final long bytes) {
+    final MemoryRequest memReq = origMem.getMemoryRequest();
+    if (memReq == null) {
+      throw new IllegalArgumentException(
+          "Memory too small to grow: " + origMem.getCapacity() + " < " + bytes
+          + ", and it has no MemoryRequest.");
+    }
+    final WritableMemory newMem = memReq.request(origMem, TABLE_START, bytes);
+    if (newMem == null || newMem.getCapacity() < bytes) {
+      if (newMem != null) {
+        memReq.closeRequest(newMem);
+      }
+      throw new IllegalArgumentException("MemoryRequest did not provide " + bytes + " bytes.");
+    }
+    memReq.closeRequest(origMem, newMem);
+    return newMem;
+  }
+
+  /**
+   * Decrements all the counters by an estimate of their median and removes those no longer
+   * positive, as FrequentItems does
+   */
+  private void purge() {
+    final int limit = Math.min(sampleSize, nnz());
+    final long[] samples = new long[limit];
+    for (int probe = 0, i = 0; i < limit; probe++) {
+      if (stateAt(probe) > 0) {
+        samples[i] = valueAt(probe);
+        i++;
+      }
+    }
+    Arrays.sort(samples);
+    final long val = samples[limit / 2];
+    final int length = arrayMask + 1;
+    for (int probe = 0; probe < length; probe++) {
+      if (stateAt(probe) > 0) {
+        final long valueOffset = valuesOffset + ((long) probe << 3);
+        mem.putLong(valueOffset, mem.getLong(valueOffset) - val);
+      }
+    }
+    keepOnlyPositive();
+    mem.putLong(OFFSET_START, mem.getLong(OFFSET_START) + val);
+  }
+
+  /**
+   * Removes the counters that are no longer positive, sweeping from the back of the table as
+   * HashMapReverseEfficient does
+   */
+  private void keepOnlyPositive() {
+    final int length = arrayMask + 1;
+    int firstProbe = length - 1;
+    while (stateAt(firstProbe) > 0) {
+      firstProbe--;
+    }
+    int size = nnz();
+    for (int probe = firstProbe; probe-- > 0;) {
+      if (stateAt(probe) > 0 && valueAt(probe) <= 0) {
+        delete(probe);
+        size--;
+      }
+    }
+    for (int probe = length; probe-- > firstProbe;) {
+      if (stateAt(probe) > 0 && valueAt(probe) <= 0) {
+        delete(probe);
+        size--;
+      }
+    }
+    setSize(size);
+  }
+
+  /**
+   * Empties the given cell, moving back the entries that follow it in its cluster
+   */
+  private void delete(int deleteProbe) {
+    putEntry(deleteProbe, 0, 0, 0);
+    int drift = 1;
+    int probe = (deleteProbe + drift) & arrayMask;
+    while (stateAt(probe) != 0) {
+      final int state = stateAt(probe);
+      if (state > drift) {
+        putEntry(deleteProbe, keyAt(probe), valueAt(probe), state - drift);
+        putEntry(probe, 0, 0, 0);
+        drift = 0;
+        deleteProbe = probe;
+      }
+      probe = (probe + 1) & arrayMask;
+      drift++;
+      assert (drift < 512);
+    }
+  }
+
+  @Override
+  public long[] getFrequentKeys(final long threshold) {
+    final int length = arrayMask + 1;
+    int count = 0;
+    for (int probe = 0; probe < length; probe++) {
+      if (stateAt(probe) > 0 && getEstimateUpperBound(keyAt(probe)) >= threshold) {
+        count++;
+      }
+    }
+    final long[] freqKeys = new long[count];
+    count = 0;
+    for (int probe = 0; probe < length; probe++) {
+      if (stateAt(probe) > 0 && getEstimateUpperBound(keyAt(probe)) >= threshold) {
+        freqKeys[count] = keyAt(probe);
+        count++;
+      }
+    }
+    return freqKeys;
+  }
+
+  @Override
+  public FrequencyEstimator merge(final FrequencyEstimator other) {
+    if (!(other instanceof DirectFrequentItems)) {
+      throw new IllegalArgumentException(
+          "DirectFrequentItems can only merge with other DirectFrequentItems");
+    }
+    final DirectFrequentItems otherCasted = (DirectFrequentItems) other;
+    final long streamLength = getStreamLength() + otherCasted.getStreamLength();
+    final long mergeError = mem.getLong(MERGE_ERROR_START) + otherCasted.getMaxError();
+    // copied first, since updates would move the counters of other if it is this sketch
+    final int size = otherCasted.nnz();
+    final long[] keys = new long[size];
+    final long[] values = new long[size];
+    for (int probe = 0, i = 0; i < size; probe++) {
+      if (otherCasted.stateAt(probe) > 0) {
+        keys[i] = otherCasted.keyAt(probe);
+        values[i] = otherCasted.valueAt(probe);
+        i++;
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      update(keys[i], values[i]);
+    }
+    mem.putLong(STREAMLENGTH_START, streamLength);
+    mem.putLong(MERGE_ERROR_START, mergeError);
+    return this;
+  }
+
+  @Override
+  public int getK() {
+    return K;
+  }
+
+  @Override
+  public int getMaxK() {
+    return maxK;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return nnz() == 0;
+  }
+
+  @Override
+  public long getStreamLength() {
+    return mem.getLong(STREAMLENGTH_START);
+  }
+
+  @Override
+  public void reset() {
+    mem.putLong(MERGE_ERROR_START, 0);
+    mem.putLong(OFFSET_START, 0);
+    mem.putLong(STREAMLENGTH_START, 0);
+    initTable(extractInitialSize(mem.getLong(UPPER_K_START)));
+  }
+
+  /**
+   * @return the sketch in the serialized form of FrequentItems.toByteArray, which
+   *         FrequentItems.getInstance heapifies
+   */
+  public byte[] toByteArray() {
+    final int size = nnz();
+    if (size == 0) {
+      long pre0 = 0L;
+      pre0 = insertPreLongs(1, pre0);
+      pre0 = insertSerVer(SER_VER, pre0);
+      pre0 = insertFamilyID(FAMILY_ID, pre0);
+      pre0 = insertEmptyFlag(1, pre0);
+      pre0 = insertLowerK(k, pre0);
+      final byte[] outArr = new byte[8];
+      new NativeMemory(outArr).putLong(0, pre0);
+      return outArr;
+    }
+    final byte[] outArr = new byte[TABLE_START + (size << 4)];
+    final NativeMemory outMem = new NativeMemory(outArr);
+    outMem.putLong(0, insertEmptyFlag(0, mem.getLong(0)));
+    outMem.putLong(MERGE_ERROR_START, mem.getLong(MERGE_ERROR_START));
+    outMem.putLong(OFFSET_START, mem.getLong(OFFSET_START));
+    outMem.putLong(STREAMLENGTH_START, mem.getLong(STREAMLENGTH_START));
+    outMem.putLong(UPPER_K_START, mem.getLong(UPPER_K_START));
+    outMem.putLong(BUFFERLENGTH_START, size);
+    for (int probe = 0, i = 0; i < size; probe++) {
+      if (stateAt(probe) > 0) {
+        outMem.putLong(TABLE_START + (i << 3), keyAt(probe));
+        outMem.putLong(TABLE_START + ((size + i) << 3), valueAt(probe));
+        i++;
+      }
+    }
+    return outArr;
+  }
+
+}
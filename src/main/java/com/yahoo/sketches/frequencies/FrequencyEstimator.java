@@ -25,6 +25,11 @@ package com.yahoo.sketches.frequencies;
  */
 public abstract class FrequencyEstimator {
 
+  /**
+   * Sums the increments of the duplicate keys of a batch, allocated on the first batch update
+   */
+  private BatchAggregator batchAggregator;
+
   /**
    * @param key for which the frequency should be increased. The frequency of a key is equal to the
    *        number of times the function increment(key) was called.
@@ -38,6 +43,36 @@ public abstract class FrequencyEstimator {
    */
   abstract public void update(long key, long value);
 
+  /**
+   * Increases the frequency of each key of a batch by 1. The duplicate keys of the batch are
+   * counted together first, so a key repeated in the batch costs a single update(key, value).
+   *
+   * @param keys holds the keys of the batch
+   * @param off the index in keys of the first key of the batch
+   * @param len the number of keys in the batch
+   */
+  public void update(final long[] keys, final int off, final int len) {
+    update(keys, null, off, len);
+  }
+
+  /**
+   * Increases the frequency of each key of a batch by the matching weight. The duplicate keys of
+   * the batch are counted together first, so a key repeated in the batch costs a single
+   * update(key, value).
+   *
+   * @param keys holds the keys of the batch
+   * @param weights holds the non-negative increments of the keys, at the same indices as the keys,
+   *        or null for increments of 1
+   * @param off the index in keys of the first key of the batch
+   * @param len the number of keys in the batch
+   */
+  public void update(final long[] keys, final long[] weights, final int off, final int len) {
+    if (batchAggregator == null) {
+      batchAggregator = new BatchAggregator();
+    }
+    batchAggregator.aggregate(this, keys, weights, off, len);
+  }
+
   /**
    * @param key for which an estimate of the frequency is required. The exact frequency of a key is
    *        the number of times the function increment(key) was executed.
@@ -5,7 +5,12 @@
 
 package com.yahoo.sketches.frequencies;
 
+import static com.yahoo.sketches.QuickSelect.select;
+import static com.yahoo.sketches.frequencies.PreambleUtil.DIRECT_FLAG;
+import static com.yahoo.sketches.frequencies.PreambleUtil.FAMILY_ID;
 import static com.yahoo.sketches.frequencies.PreambleUtil.SER_VER;
+import static com.yahoo.sketches.frequencies.PreambleUtil.SER_VER_COMPACT;
+import static com.yahoo.sketches.frequencies.PreambleUtil.SORTED_FLAG;
 import static com.yahoo.sketches.frequencies.PreambleUtil.extractBufferLength;
 import static com.yahoo.sketches.frequencies.PreambleUtil.extractEmptyFlag;
 import static com.yahoo.sketches.frequencies.PreambleUtil.extractFamilyID;
@@ -23,11 +28,19 @@ import static com.yahoo.sketches.frequencies.PreambleUtil.insertPreLongs;
 import static com.yahoo.sketches.frequencies.PreambleUtil.insertSerVer;
 import static com.yahoo.sketches.frequencies.PreambleUtil.insertUpperK;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
 
 import com.yahoo.memory.Memory;
 import com.yahoo.memory.NativeMemory;
 import com.yahoo.sketches.hashmaps.HashMapReverseEfficient;
+import com.yahoo.sketches.hashmaps.HashStrategy;
+import com.yahoo.sketches.hashmaps.LongLongConsumer;
 
 /**
  * Implements frequent items sketch on the Java heap.
@@ -82,6 +95,25 @@ public class FrequentItems extends FrequencyEstimator {
    */
   static final int SAMPLE_SIZE = 256;
 
+  /**
+   * The default factor by which the number of supported counters is multiplied when the sketch
+   * grows
+   */
+  static final int DEFAULT_GROWTH_FACTOR = 2;
+
+  /**
+   * The number of counters moved from the old table to the new one on every update while a growth
+   * is in progress. Since a growth multiplies K by at least 2, moving at least 2 counters per update
+   * guarantees that the old table is empty before the new one can fill up.
+   */
+  static final int MIGRATION_STEP = 4;
+
+  /**
+   * mergeAll aggregates the counters of the merged sketches in a table of up to this many times
+   * maxK counters, and only purges it when it fills up
+   */
+  static final int MERGE_ALL_BUFFER_FACTOR = 16;
+
   /**
    * The current number of counters that the data structure can support
    */
@@ -103,6 +135,27 @@ public class FrequentItems extends FrequencyEstimator {
    */
   private HashMapReverseEfficient counters;
 
+  /**
+   * The table that counters replaced during the most recent growth, while its entries are being
+   * moved into counters a few at a time. Null when no growth is in progress.
+   */
+  private HashMapReverseEfficient draining;
+
+  /**
+   * The factor by which K is multiplied when the sketch grows
+   */
+  private int growthFactor;
+
+  /**
+   * The hash function used by the counters tables
+   */
+  private HashStrategy hashStrategy;
+
+  /**
+   * The pool that purges large counters tables in parallel, or null
+   */
+  private ForkJoinPool purgePool = null;
+
   /**
    * The number of counters to be supported when sketch is full size
    */
@@ -131,11 +184,23 @@ public class FrequentItems extends FrequencyEstimator {
    */
   private int sampleSize;
 
+  /**
+   * Feeds the counters of another sketch into update() during a merge
+   */
+  private final LongLongConsumer updater = new LongLongConsumer() {
+    @Override
+    public void accept(final long key, final long value) {
+      update(key, value);
+    }
+  };
+
 
   // **CONSTRUCTOR**********************************************************
   /**
    * @param k Determines the accuracy of the estimates returned by the sketch.
-   * @param initialCapacity determines the initial size of the sketch.
+   * @param initialCapacity determines the initial size of the sketch. If the number of distinct
+   *        keys in the stream is known in advance, passing it here (up to the value of getMaxK())
+   *        avoids growing the sketch altogether.
    *
    *        The guarantee of the sketch is that with high probability, any returned estimate will
    *        have error at most (4/3)*(n/k), where n is the true sum of frequencies in the stream. In
@@ -147,16 +212,48 @@ public class FrequentItems extends FrequencyEstimator {
    *        should oscillate between roughly .75*k and 1.5 * k.
    */
   public FrequentItems(final int k, final int initialCapacity) {
+    this(k, initialCapacity, DEFAULT_GROWTH_FACTOR);
+  }
+
+  /**
+   * @param k Determines the accuracy of the estimates returned by the sketch.
+   * @param initialCapacity determines the initial size of the sketch.
+   * @param growthFactor the factor by which the number of supported counters is multiplied each
+   *        time the sketch grows. Must be at least 2. Growth is incremental: the old table is moved
+   *        into the new one a few counters per update rather than all at once.
+   */
+  public FrequentItems(final int k, final int initialCapacity, final int growthFactor) {
+    this(k, initialCapacity, growthFactor, HashStrategy.FMIX64);
+  }
+
+  /**
+   * @param k Determines the accuracy of the estimates returned by the sketch.
+   * @param initialCapacity determines the initial size of the sketch.
+   * @param growthFactor the factor by which the number of supported counters is multiplied each
+   *        time the sketch grows. Must be at least 2.
+   * @param hashStrategy the hash function applied to keys by the counters table.
+   *        HashStrategy.IDENTITY avoids hashing keys that are already hashes.
+   */
+  public FrequentItems(final int k, final int initialCapacity, final int growthFactor,
+      final HashStrategy hashStrategy) {
 
     if (k <= 0) {
       throw new IllegalArgumentException("Received negative or zero value for k.");
     }
+    if (growthFactor < 2) {
+      throw new IllegalArgumentException("Growth factor must be at least 2: " + growthFactor);
+    }
+    this.growthFactor = growthFactor;
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
 
     //set initial size of counters data structure so it can exactly store a stream with
     //initialCapacity distinct elements
 
     this.K = initialCapacity;
-    counters = new HashMapReverseEfficient(this.K);
+    counters = newCounters(this.K);
 
     this.k = k;
     this.initialSize = initialCapacity;
@@ -186,6 +283,9 @@ public class FrequentItems extends FrequencyEstimator {
    * @return the number of positive counters in the sketch.
    */
   public int nnz() {
+    if (draining != null) {
+      return counters.getSize() + draining.getSize();
+    }
     return counters.getSize();
   }
 
@@ -194,14 +294,23 @@ public class FrequentItems extends FrequencyEstimator {
     // the logic below returns the count of associated counter if key is tracked.
     // If the key is not tracked and fewer than maxK counters are in use, 0 is returned.
     // Otherwise, the minimum counter value is returned.
-    if (counters.get(key) > 0) {
-      return counters.get(key) + offset;
+    final long count = getCount(key);
+    if (count > 0) {
+      return count + offset;
     }
     else {
       return 0;
     }
   }
 
+  private long getCount(final long key) {
+    final long count = counters.get(key);
+    if (count == 0 && draining != null) {
+      return draining.get(key);
+    }
+    return count;
+  }
+
   @Override
   public long getEstimateUpperBound(final long key) {
     final long estimate = getEstimate(key);
@@ -234,23 +343,22 @@ public class FrequentItems extends FrequencyEstimator {
   @Override
   public void update(final long key, final long increment) {
     this.streamLength += increment;
-    counters.adjust(key, increment);
+    if (draining == null) {
+      counters.adjust(key, increment);
+    } else {
+      // a key that has not been moved yet must be updated where it is
+      if (draining.get(key) > 0) {
+        draining.adjust(key, increment);
+      } else {
+        counters.adjust(key, increment);
+      }
+      migrate(MIGRATION_STEP);
+    }
     final int size = this.nnz();
 
     // if the data structure needs to be grown
     if ((size >= this.K) && (this.K < this.maxK)) {
-      // grow the size of the data structure
-      final int newSize = Math.max(Math.min(this.maxK, 2 * this.K), 1);
-      this.K = newSize;
-      final HashMapReverseEfficient newTable = new HashMapReverseEfficient(newSize);
-      final long[] keys = this.counters.getKeys();
-      final long[] values = this.counters.getValues();
-
-      assert keys.length == size;
-      for (int i = 0; i < size; i++) {
-        newTable.adjust(keys[i], values[i]);
-      }
-      this.counters = newTable;
+      grow();
     }
 
     if (size > this.maxK) {
@@ -259,6 +367,52 @@ public class FrequentItems extends FrequencyEstimator {
     }
   }
 
+  /**
+   * Lets purges of large counters tables run in parallel on the given pool. Estimates do not
+   * depend on whether a pool is used.
+   *
+   * @param purgePool the pool to purge on, or null to purge on the updating thread
+   */
+  public void setPurgePool(final ForkJoinPool purgePool) {
+    this.purgePool = purgePool;
+    counters.setPurgePool(purgePool);
+  }
+
+  private HashMapReverseEfficient newCounters(final int capacity) {
+    final HashMapReverseEfficient table = new HashMapReverseEfficient(capacity, hashStrategy);
+    table.setPurgePool(purgePool);
+    return table;
+  }
+
+  /**
+   * Replaces counters with a table supporting growthFactor times as many counters. The entries of
+   * the old table are not copied here; they are moved over by subsequent updates.
+   */
+  private void grow() {
+    // only possible if the growth was capped by maxK
+    completeMigration();
+    this.K = Math.max(Math.min(this.maxK, growthFactor * this.K), 1);
+    draining = counters;
+    counters = newCounters(this.K);
+    migrate(MIGRATION_STEP);
+  }
+
+  private void migrate(final int maxEntries) {
+    if (draining.drainTo(counters, maxEntries) == 0) {
+      draining = null;
+    }
+  }
+
+  /**
+   * Moves any counters left in the old table after a growth into the current table. Operations
+   * that scan the table call this first.
+   */
+  void completeMigration() {
+    if (draining != null) {
+      migrate(Integer.MAX_VALUE);
+    }
+  }
+
   /**
    * This function is called when a key is processed that is not currently assigned a counter, and
    * all the counters are in use. This function estimates the median of the counters in the sketch
@@ -266,6 +420,7 @@ public class FrequentItems extends FrequencyEstimator {
    * longer positive, and increments offset accordingly.
    */
   private void purge() {
+    completeMigration();
     final int limit = Math.min(this.sampleSize, nnz());
 
     final long[] values = counters.ProtectedGetValues();
@@ -294,27 +449,109 @@ public class FrequentItems extends FrequencyEstimator {
       throw new IllegalArgumentException("FrequentItems can only merge with other FrequentItems");
     }
     final FrequentItems otherCasted = (FrequentItems) other;
+    otherCasted.completeMigration();
 
     this.streamLength += otherCasted.streamLength;
     this.mergeError += otherCasted.getMaxError();
 
-    final long[] otherKeys = otherCasted.counters.getKeys();
-    final long[] otherValues = otherCasted.counters.getValues();
+    if (otherCasted == this) {
+      // updates would modify the table being iterated, so take a copy first
+      final long[] keys = counters.getKeys();
+      final long[] values = counters.getValues();
+      for (int i = (keys == null) ? 0 : keys.length; i-- > 0;) {
+        this.update(keys[i], values[i]);
+      }
+      return this;
+    }
+    otherCasted.counters.forEach(updater);
+    return this;
+  }
+
+  /**
+   * Merges many sketches into this one at once. The counters of all the sketches are summed in a
+   * single oversized table, which is then cut down to maxK counters by one exact purge: all the
+   * counters are decremented by the (maxK+1)-th largest of them. Unlike a sequence of merge calls,
+   * no counter is purged or moved by a growth before every sketch has contributed, and the error
+   * added is that of merge: the maximal errors of the merged sketches, plus the purge decrement.
+   * If the counters do not fit in MERGE_ALL_BUFFER_FACTOR times maxK, the table is purged the same
+   * way each time it fills up.
+   *
+   * @param others the sketches to merge into this one. They are not modified, and may include
+   *        this sketch.
+   * @return this sketch
+   */
+  public FrequentItems mergeAll(final Collection<FrequentItems> others) {
+    completeMigration();
+    long totalEntries = nnz();
+    long addedError = 0;
+    long addedLength = 0;
+    // read before this sketch changes, in case it is among others
+    for (final FrequentItems other: others) {
+      other.completeMigration();
+      totalEntries += other.nnz();
+      addedError += other.getMaxError();
+      addedLength += other.streamLength;
+    }
+    final int capacity =
+        (int) Math.max(Math.min(totalEntries, (long) MERGE_ALL_BUFFER_FACTOR * maxK), maxK);
+    final HashMapReverseEfficient aggregate = newCounters(capacity);
+    final LongLongConsumer adder = new LongLongConsumer() {
+      @Override
+      public void accept(final long key, final long value) {
+        if (aggregate.getSize() == aggregate.getCapacity() && aggregate.get(key) == 0) {
+          offset += purgeToSize(aggregate, maxK);
+        }
+        aggregate.adjust(key, value);
+      }
+    };
+    counters.forEach(adder);
+    for (final FrequentItems other: others) {
+      other.counters.forEach(adder);
+    }
+    if (aggregate.getSize() > maxK) {
+      offset += purgeToSize(aggregate, maxK);
+    }
+    this.mergeError += addedError;
+    this.streamLength += addedLength;
 
-    for (int i = otherKeys.length; i-- > 0;) {
-      this.update(otherKeys[i], otherValues[i]);
+    // move the counters to a table of the size update() would have grown to
+    final int size = aggregate.getSize();
+    while (size >= this.K && this.K < this.maxK) {
+      this.K = Math.max(Math.min(this.maxK, growthFactor * this.K), 1);
     }
+    counters = newCounters(this.K);
+    aggregate.forEach(new LongLongConsumer() {
+      @Override
+      public void accept(final long key, final long value) {
+        counters.adjust(key, value);
+      }
+    });
     return this;
   }
 
+  /**
+   * Decrements all the counters of the table by its (size+1)-th largest value, and removes those no
+   * longer positive, which leaves at most size counters
+   *
+   * @return the decrement
+   */
+  private static long purgeToSize(final HashMapReverseEfficient table, final int size) {
+    final long[] values = table.getValues();
+    final long threshold = select(values, 0, values.length - 1, values.length - size - 1);
+    table.adjustAllValuesBy(-1 * threshold);
+    table.keepOnlyLargerThan(0);
+    return threshold;
+  }
+
   @Override
   public long[] getFrequentKeys(final long threshold) {
+    completeMigration();
     int count = 0;
     final long[] keys = counters.ProtectedGetKey();
 
     // first, count the number of candidate frequent keys
     for (int i = counters.getLength(); i-- > 0;) {
-      if (counters.isActive(i) && (getEstimate(keys[i]) >= threshold)) {
+      if (counters.isActive(i) && (getEstimateUpperBound(keys[i]) >= threshold)) {
         count++;
       }
     }
@@ -355,7 +592,8 @@ public class FrequentItems extends FrequencyEstimator {
   @Override
   public void reset() {
     this.K = this.initialSize;
-    counters = new HashMapReverseEfficient(this.K);
+    counters = newCounters(this.K);
+    draining = null;
     this.offset = 0;
     this.mergeError = 0;
     this.streamLength = 0;
@@ -380,6 +618,7 @@ public class FrequentItems extends FrequencyEstimator {
    */
   @Override
   public String toString() {
+    completeMigration();
     final StringBuilder sb = new StringBuilder();
     sb.append(
         String.format("%d,%d,%d,%d,%d,%d,", k, mergeError, offset, streamLength, K, initialSize));
@@ -442,55 +681,177 @@ public class FrequentItems extends FrequencyEstimator {
    **/
   // @formatter:on
   public byte[] toByteArray() {
-    final int preLongs, arrLongs;
-    final boolean empty = isEmpty();
+    return toByteArray(false);
+  }
 
-    if (empty) {
-      preLongs = 1;
-      arrLongs = 1;
-    } else {
-      preLongs = 6;
-      arrLongs = preLongs + 2 * nnz();
-    }
+  /**
+   * Serializes the sketch as toByteArray() does, optionally with the keys in increasing order.
+   * Sorting costs O(nnz log(nnz)) here, and lets wrap() answer point queries on the image by binary
+   * search rather than by a scan. Both layouts are heapified by getInstance.
+   *
+   * @param sortedKeys if true, the keys buffer is sorted, the values buffer follows the same order,
+   *        and the flag byte holds SORTED_FLAG
+   * @return the serialized sketch
+   */
+  public byte[] toByteArray(final boolean sortedKeys) {
+    completeMigration();
+    final long[] preArr = getPreamble(SER_VER, sortedKeys ? SORTED_FLAG : 0);
+    final int arrLongs = isEmpty() ? 1 : preArr.length + 2 * nnz();
     final byte[] outArr = new byte[arrLongs << 3];
     final NativeMemory mem = new NativeMemory(outArr);
+    mem.putLongArray(0, preArr, 0, preArr.length);
+
+    if (!isEmpty()) {
+      if (sortedKeys) {
+        final long[] keys = counters.getKeys();
+        Arrays.sort(keys);
+        final long[] values = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+          values[i] = counters.get(keys[i]);
+        }
+        mem.putLongArray(48, keys, 0, keys.length);
+        mem.putLongArray(48 + (keys.length << 3), values, 0, keys.length);
+      } else {
+        counters.forEach(new KeyValueWriter(mem, 48, 48 + (this.nnz() << 3)));
+      }
+    }
+    return outArr;
+  }
+
+  /**
+   * @param serVer the serialization version, SER_VER or SER_VER_COMPACT
+   * @param flag the flag byte of a non-empty sketch
+   * @return the preamble: one long if the sketch is empty, six otherwise
+   */
+  private long[] getPreamble(final int serVer, final int flag) {
+    final boolean empty = isEmpty();
+    final int preLongs = empty ? 1 : 6;
+    final long[] preArr = new long[preLongs];
 
     // build first prelong
     long pre0 = 0L;
     pre0 = insertPreLongs(preLongs, pre0);
-    pre0 = insertSerVer(SER_VER, pre0);
+    pre0 = insertSerVer(serVer, pre0);
     pre0 = insertFamilyID(10, pre0);
+    pre0 = insertEmptyFlag(empty ? 1 : flag, pre0);
+    pre0 = insertLowerK(this.k, pre0);
+    preArr[0] = pre0;
     if (empty) {
-      pre0 = insertEmptyFlag(1, pre0);
-    }
-    else {
-      pre0 = insertEmptyFlag(0, pre0);
+      return preArr;
     }
-    pre0 = insertLowerK(this.k, pre0);
+    preArr[1] = this.mergeError;
+    preArr[2] = this.offset;
+    preArr[3] = this.streamLength;
+
+    long pre1 = 0L;
+    pre1 = insertUpperK(this.K, pre1);
+    pre1 = insertInitialSize(this.initialSize, pre1);
+    preArr[4] = pre1;
+
+    long pre2 = 0L;
+    pre2 = insertBufferLength(nnz(), pre2);
+    preArr[5] = pre2;
+    return preArr;
+  }
 
-    if (empty) {
-      mem.putLong(0, pre0);
-    } else {
-      final long[] preArr = new long[6];
-      preArr[0] = pre0;
-      preArr[1] = this.mergeError;
-      preArr[2] = this.offset;
-      preArr[3] = this.streamLength;
+  /**
+   * Writes the sketch to the channel in the format of toByteArray(), through a buffer of fixed
+   * size: the bytes written are those of toByteArray(), but no array of the size of the sketch is
+   * allocated. Suited to spilling large sketches to files or piping them between processes.
+   *
+   * @param channel the destination, in blocking mode. It is not closed.
+   * @throws IOException if the channel fails
+   */
+  public void writeTo(final WritableByteChannel channel) throws IOException {
+    completeMigration();
+    final ChannelWriter out = new ChannelWriter(channel);
+    for (final long pre: getPreamble(SER_VER, 0)) {
+      out.putLong(pre);
+    }
+    // the keys buffer, then the values buffer, each in the iteration order of the counters
+    counters.forEach(new LongLongConsumer() {
+      @Override
+      public void accept(final long key, final long value) {
+        out.putLong(key);
+      }
+    });
+    counters.forEach(new LongLongConsumer() {
+      @Override
+      public void accept(final long key, final long value) {
+        out.putLong(value);
+      }
+    });
+    out.flush();
+  }
 
-      long pre1 = 0L;
-      pre1 = insertUpperK(this.K, pre1);
-      pre1 = insertInitialSize(this.initialSize, pre1);
-      preArr[4] = pre1;
+  /**
+   * Reads a sketch written by writeTo or writeCompactTo, or any image of serialization version
+   * SER_VER or SER_VER_COMPACT, from the channel. Exactly the bytes of the sketch are consumed, so
+   * several sketches may be written to and read from one channel in turn.
+   *
+   * @param channel the source, in blocking mode. It is not closed.
+   * @return a FrequentItems on the Java heap
+   * @throws IOException if the channel fails or ends within the sketch
+   */
+  public static FrequentItems readFrom(final ReadableByteChannel channel) throws IOException {
+    final ChannelReader in = new ChannelReader(channel);
+    in.expect(8);
+    final long pre0 = in.getLong();
+    final int serVer = extractSerVer(pre0);
+    if ((serVer != SER_VER && serVer != SER_VER_COMPACT) || extractFamilyID(pre0) != FAMILY_ID) {
+      throw new IllegalArgumentException(
+          "Not a FrequentItems of a known serialization version, serVer: " + serVer);
+    }
+    final int emptyFlag = extractEmptyFlag(pre0);
+    final int k = extractLowerK(pre0);
+    if (emptyFlag == DIRECT_FLAG) {
+      throw new IllegalArgumentException(
+          "Channel holds a DirectFrequentItems, read its toByteArray() instead.");
+    }
+    if (emptyFlag == 1) {
+      return new FrequentItems(k);
+    }
+    if (extractPreLongs(pre0) != 6) {
+      throw new IllegalArgumentException("Corrupt FrequentItems preamble.");
+    }
 
-      long pre2 = 0L;
-      pre2 = insertBufferLength(nnz(), pre2);
-      preArr[5] = pre2;
+    in.expect(40);
+    final long mergeError = in.getLong();
+    final long offset = in.getLong();
+    final long streamLength = in.getLong();
+    final long pre1 = in.getLong();
+    final int bufferLength = extractBufferLength(in.getLong());
+    if (bufferLength < 0) {
+      throw new IllegalArgumentException("Corrupt FrequentItems buffer length: " + bufferLength);
+    }
 
-      mem.putLongArray(0, preArr, 0, 6);
-      mem.putLongArray(48, counters.getKeys(), 0, this.nnz());
-      mem.putLongArray(48 + (this.nnz() << 3), counters.getValues(), 0, this.nnz());
+    final FrequentItems hfi = new FrequentItems(k, extractUpperK(pre1));
+    hfi.initialSize = extractInitialSize(pre1);
+    hfi.offset = offset;
+    hfi.mergeError = mergeError;
+    if (serVer == SER_VER_COMPACT) {
+      // at least one byte for each of the two varints of an entry
+      in.expect((long) bufferLength << 1);
+      long key = 0;
+      for (int i = 0; i < bufferLength; i++) {
+        final long delta = in.getUnsigned();
+        key = (i == 0) ? VarInt.unZigZag(delta) : key + delta;
+        hfi.update(key, in.getUnsigned());
+      }
+      hfi.streamLength = streamLength;
+      return hfi;
     }
-    return outArr;
+    // the values follow all the keys, so the keys are held until their values arrive
+    in.expect((long) bufferLength << 4);
+    final long[] keyArray = new long[bufferLength];
+    for (int i = 0; i < bufferLength; i++) {
+      keyArray[i] = in.getLong();
+    }
+    for (int i = 0; i < bufferLength; i++) {
+      hfi.update(keyArray[i], in.getLong());
+    }
+    hfi.streamLength = streamLength;
+    return hfi;
   }
 
   /**
@@ -508,6 +869,96 @@ public class FrequentItems extends FrequencyEstimator {
     dstMem.putByteArray(0, byteArr, 0, arrLen);
   }
 
+  // @formatter:off
+  /**
+   * Serializes the sketch in the compact format of serialization version 2, for transfers where
+   * the size of the image matters more than the cost of encoding it. The preamble is that of
+   * toByteArray(), with SER_VER_COMPACT as serialization version. The entries follow, sorted by
+   * key, each as two varints of 1 to 10 bytes:
+   *
+   * <pre>
+   *  key    || zigZag(key) for the first entry, key - previous key for the others
+   *  count  || the stored count, which the estimate of the key exceeds by offset
+   * </pre>
+   *
+   * Sorting makes the key deltas small when the keys are dense, and the counts of a sketch that
+   * has been purged are small compared to their raw longs. This method sorts a copy of the keys,
+   * sizes the image in a first pass and writes it in a second, looking the counts up in both;
+   * writeCompactTo streams the same bytes to a channel in a single pass. getInstance decodes the
+   * varints straight from the Memory into the new sketch, without copying the entries.
+   *
+   * @return the sketch serialized in the compact format
+   */
+  // @formatter:on
+  public byte[] toCompactByteArray() {
+    completeMigration();
+    final long[] preArr = getPreamble(SER_VER_COMPACT, 0);
+    if (isEmpty()) {
+      final byte[] outArr = new byte[8];
+      new NativeMemory(outArr).putLong(0, preArr[0]);
+      return outArr;
+    }
+    final long[] keys = counters.getKeys();
+    Arrays.sort(keys);
+    long bytes = 48;
+    for (int i = 0; i < keys.length; i++) {
+      bytes += VarInt.unsignedLength(keyDelta(keys, i))
+          + VarInt.unsignedLength(counters.get(keys[i]));
+    }
+    final byte[] outArr = new byte[(int) bytes];
+    new NativeMemory(outArr).putLongArray(0, preArr, 0, preArr.length);
+    final ByteBuffer buf = ByteBuffer.wrap(outArr);
+    buf.position(48);
+    for (int i = 0; i < keys.length; i++) {
+      VarInt.putUnsigned(buf, keyDelta(keys, i));
+      VarInt.putUnsigned(buf, counters.get(keys[i]));
+    }
+    assert (!buf.hasRemaining());
+    return outArr;
+  }
+
+  /**
+   * Writes the sketch to the channel in the compact format of toCompactByteArray(), one varint at a
+   * time through a buffer of fixed size: the bytes written are those of toCompactByteArray(), but
+   * the image is neither sized nor held in memory. The keys are still sorted, so a copy of them is
+   * the only allocation of the size of the sketch. readFrom reads the sketch back.
+   *
+   * @param channel the destination, in blocking mode. It is not closed.
+   * @throws IOException if the channel fails
+   */
+  public void writeCompactTo(final WritableByteChannel channel) throws IOException {
+    completeMigration();
+    final ChannelWriter out = new ChannelWriter(channel);
+    final long[] preArr = getPreamble(SER_VER_COMPACT, 0);
+    for (final long pre: preArr) {
+      out.putLong(pre);
+    }
+    if (!isEmpty()) {
+      final long[] keys = counters.getKeys();
+      Arrays.sort(keys);
+      for (int i = 0; i < keys.length; i++) {
+        out.putUnsigned(keyDelta(keys, i));
+        out.putUnsigned(counters.get(keys[i]));
+      }
+    }
+    out.flush();
+  }
+
+  private static long keyDelta(final long[] sortedKeys, final int i) {
+    return (i == 0) ? VarInt.zigZag(sortedKeys[0]) : sortedKeys[i] - sortedKeys[i - 1];
+  }
+
+  /**
+   * Wraps the given srcMem, which must be a Memory image of a FrequentItems sketch, without copying
+   * it. Point queries binary search images written by toByteArray(true), and scan the others.
+   *
+   * @param srcMem a Memory image of a sketch
+   * @return a read-only sketch answering queries against srcMem
+   */
+  public static FrequentItemsImage wrap(final Memory srcMem) {
+    return FrequentItemsImage.wrap(srcMem);
+  }
+
   /**
    * Heapifies the given srcMem, which must be a Memory image of a FrequentItems sketch
    *
@@ -526,11 +977,17 @@ public class FrequentItems extends FrequencyEstimator {
 
     assert ((preambleLongs == 1) || (preambleLongs == 6));
     final int serVer = extractSerVer(pre0);
-    assert (serVer == 1);
+    if (serVer != SER_VER && serVer != SER_VER_COMPACT) {
+      throw new IllegalArgumentException("Unknown serialization version: " + serVer);
+    }
     final int familyID = extractFamilyID(pre0);
     assert (familyID == 10);
     final int emptyFlag = extractEmptyFlag(pre0);
     final int k = extractLowerK(pre0);
+    if (emptyFlag == DIRECT_FLAG) {
+      throw new IllegalArgumentException(
+          "Memory holds a DirectFrequentItems, heapify its toByteArray() instead.");
+    }
 
     if (emptyFlag == 1) {
       return new FrequentItems(k);
@@ -555,6 +1012,18 @@ public class FrequentItems extends FrequencyEstimator {
     hfi.offset = offset;
     hfi.mergeError = mergeError;
 
+    if (serVer == SER_VER_COMPACT) {
+      final VarInt.MemoryReader reader = new VarInt.MemoryReader(srcMem, 48);
+      long key = 0;
+      for (int i = 0; i < bufferLength; i++) {
+        final long delta = reader.getUnsigned();
+        key = (i == 0) ? VarInt.unZigZag(delta) : key + delta;
+        hfi.update(key, reader.getUnsigned());
+      }
+      hfi.streamLength = streamLength;
+      return hfi;
+    }
+
     final long[] keyArray = new long[bufferLength];
     final long[] valueArray = new long[bufferLength];
 
@@ -567,4 +1036,27 @@ public class FrequentItems extends FrequencyEstimator {
     hfi.streamLength = streamLength;
     return hfi;
   }
+
+  /**
+   * Writes the keys and the values it receives to two consecutive regions of a Memory
+   */
+  private static final class KeyValueWriter implements LongLongConsumer {
+    private final Memory mem;
+    private long keyOffset;
+    private long valueOffset;
+
+    KeyValueWriter(final Memory mem, final long keyOffset, final long valueOffset) {
+      this.mem = mem;
+      this.keyOffset = keyOffset;
+      this.valueOffset = valueOffset;
+    }
+
+    @Override
+    public void accept(final long key, final long value) {
+      mem.putLong(keyOffset, key);
+      mem.putLong(valueOffset, value);
+      keyOffset += 8;
+      valueOffset += 8;
+    }
+  }
 }
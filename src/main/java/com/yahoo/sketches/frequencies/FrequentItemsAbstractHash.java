@@ -6,6 +6,8 @@
 package com.yahoo.sketches.frequencies;
 
 import com.yahoo.sketches.hashmaps.HashMap;
+import com.yahoo.sketches.hashmaps.HashMapBucketizedCuckoo;
+import com.yahoo.sketches.hashmaps.HashMapCompact;
 import com.yahoo.sketches.hashmaps.HashMapDoubleHashingWithRebuilds;
 import com.yahoo.sketches.hashmaps.HashMapLinearProbingWithRebuilds;
 import com.yahoo.sketches.hashmaps.HashMapReverseEfficient;
@@ -14,6 +16,8 @@ import com.yahoo.sketches.hashmaps.HashMapTrove;
 import com.yahoo.sketches.hashmaps.HashMapTroveRebuilds;
 import com.yahoo.sketches.hashmaps.HashMapWithEfficientDeletes;
 import com.yahoo.sketches.hashmaps.HashMapWithImplicitDeletes;
+import com.yahoo.sketches.hashmaps.HashStrategy;
+import com.yahoo.sketches.hashmaps.LongLongConsumer;
 
 /**
  * Implements frequent items sketch on the Java heap.
@@ -61,6 +65,19 @@ public class FrequentItemsAbstractHash extends FrequencyEstimator {
   static final int MIN_FREQUENT_ITEMS_SIZE = 4; // This is somewhat arbitrary
   static final String DEFAULT_HASHMAP_TYPE = "ReverseEfficient";
 
+  /**
+   * The hashMapType that lets the sketch choose the table itself, see AdaptiveHashMapSelector
+   */
+  public static final String ADAPTIVE_HASHMAP_TYPE = "Adaptive";
+
+  /**
+   * The largest number of updates an adaptive sketch counts before choosing its table. Smaller
+   * sketches count ADAPTIVE_SAMPLES_PER_COUNTER updates per counter, enough to fill and purge the
+   * table several times on a uniform stream.
+   */
+  static final int ADAPTIVE_SAMPLE_LENGTH = 1 << 16;
+  static final int ADAPTIVE_SAMPLES_PER_COUNTER = 8;
+
   /**
    * This is a constant large enough that computing the median of SAMPLE_SIZE
    * randomly selected entries from a list of numbers and outputting
@@ -123,17 +140,48 @@ public class FrequentItemsAbstractHash extends FrequencyEstimator {
    */
   private String hashMapType;
 
+  /**
+   * True if the hash table implementation is chosen by the sketch
+   */
+  private final boolean adaptive;
+
+  /**
+   * The number of updates an adaptive sketch still counts before choosing its table, 0 once the
+   * table has been chosen, and the updates, hits and purges counted so far
+   */
+  private int sampleRemaining;
+  private long sampleUpdates;
+  private long sampleHits;
+  private int sampleStartPurges;
+
+  /**
+   * The hash function used by the internal hash table. Ignored by the Trove based tables.
+   */
+  private HashStrategy hashStrategy;
+
 
-  @SuppressWarnings("unused")
   private int numPurges;
 
+  /**
+   * Feeds the counters of another sketch into update() during a merge
+   */
+  private final LongLongConsumer updater = new LongLongConsumer() {
+    @Override
+    public void accept(final long key, final long value) {
+      update(key, value);
+    }
+  };
+
   // **CONSTRUCTOR**********************************************************
   /**
    * @param k Determines the accuracy of the estimates returned by the sketch.
    * @param initialCapacity determines the initial size of the sketch.
    * @param hashMapType is a string specifying the hashmap type. The possible values are
    * {Trove, TroveRebuilds, ProbingWithRebuilds, DoubleHashingWithRebuilds, ImplicitDeletes,
-   * EfficientDeletes, RobinHood, ReverseEfficient}.
+   * EfficientDeletes, RobinHood, ReverseEfficient, BucketizedCuckoo, Compact, Adaptive}.
+   * An Adaptive sketch starts with the default table, and after at most ADAPTIVE_SAMPLE_LENGTH
+   * updates switches once to the table AdaptiveHashMapSelector picks from the hits, purges and
+   * probe lengths it counted.
    *
    * <p>The guarantee of the sketch is that with high probability, any returned estimate will
    * have error at most (4/3)*(n/k), where n is the true sum of frequencies in the stream. In
@@ -145,22 +193,39 @@ public class FrequentItemsAbstractHash extends FrequencyEstimator {
    * should oscillate between roughly .75*k and 1.5 * k.</p>
    */
   public FrequentItemsAbstractHash(final int k, final int initialCapacity, final String hashMapType) {
+    this(k, initialCapacity, hashMapType, HashStrategy.FMIX64);
+  }
+
+  /**
+   * @param k Determines the accuracy of the estimates returned by the sketch.
+   * @param initialCapacity determines the initial size of the sketch.
+   * @param hashMapType is a string specifying the hashmap type.
+   * @param hashStrategy the hash function applied to keys by the hash table.
+   *        HashStrategy.IDENTITY avoids hashing keys that are already hashes.
+   */
+  public FrequentItemsAbstractHash(final int k, final int initialCapacity, final String hashMapType,
+      final HashStrategy hashStrategy) {
 
     if (k <= 0) {
       throw new IllegalArgumentException("Received negative or zero value for k.");
     }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
 
     //set initial size of counters data structure so it can exactly store a stream with
     //initialCapacity distinct elements
 
     this.K = initialCapacity;
-    this.hashMapType = hashMapType;
+    this.adaptive = ADAPTIVE_HASHMAP_TYPE.equals(hashMapType);
+    this.hashMapType = adaptive ? DEFAULT_HASHMAP_TYPE : hashMapType;
 
-    counters = hashMapFactory(hashMapType, this.K);
+    counters = hashMapFactory(this.hashMapType, this.K, hashStrategy);
     if (counters == null) {
      throw new IllegalArgumentException("hashMapType must by from "
          + "{Trove, TroveRebuilds, ProbingWithRebuilds, DoubleHashingWithRebuilds, ImplicitDeletes, "
-         + "EfficientDeletes, RobinHood, ReverseEfficient}");
+         + "EfficientDeletes, RobinHood, ReverseEfficient, BucketizedCuckoo, Compact, Adaptive}");
     }
 
     this.k = k;
@@ -181,6 +246,9 @@ public class FrequentItemsAbstractHash extends FrequencyEstimator {
     else {
       this.sampleSize = SAMPLE_SIZE;
     }
+    if (adaptive) {
+      startSampling();
+    }
   }
 
   public FrequentItemsAbstractHash(final int k, final int initialCapacity, final int sampleSize,
@@ -189,6 +257,12 @@ public class FrequentItemsAbstractHash extends FrequencyEstimator {
     this.sampleSize = sampleSize;
   }
 
+  public FrequentItemsAbstractHash(final int k, final int initialCapacity, final int sampleSize,
+      final String hashMapType, final HashStrategy hashStrategy) {
+    this(k, initialCapacity, hashMapType, hashStrategy);
+    this.sampleSize = sampleSize;
+  }
+
   public FrequentItemsAbstractHash(final int k) {
       this(k, MIN_FREQUENT_ITEMS_SIZE, DEFAULT_HASHMAP_TYPE);
     }
@@ -251,22 +325,29 @@ public class FrequentItemsAbstractHash extends FrequencyEstimator {
   @Override
   public void update(final long key, final long increment) {
     this.streamLength += increment;
+    final int before = this.nnz();
     counters.adjust(key, increment);
     final int size = this.nnz();
+    if (sampleRemaining > 0) {
+      sampleUpdates++;
+      if (size == before) {
+        sampleHits++;
+      }
+    }
 
     // if the data structure needs to be grown
     if ((size >= this.K) && (this.K < this.maxK)) {
       // grow the size of the data structure
       final int newSize = Math.max(Math.min(this.maxK, 2 * this.K), 1);
       this.K = newSize;
-      final HashMap newTable = hashMapFactory(hashMapType, newSize);
-      final long[] keys = this.counters.getKeys();
-      final long[] values = this.counters.getValues();
-
-      assert (keys.length == size);
-      for (int i = 0; i < size; i++) {
-        newTable.adjust(keys[i], values[i]);
-      }
+      final HashMap newTable = hashMapFactory(hashMapType, newSize, hashStrategy);
+      this.counters.forEach(new LongLongConsumer() {
+        @Override
+        public void accept(final long key, final long value) {
+          newTable.adjust(key, value);
+        }
+      });
+      assert (newTable.getSize() == size);
       this.counters = newTable;
     }
 
@@ -274,6 +355,54 @@ public class FrequentItemsAbstractHash extends FrequencyEstimator {
       purge();
       assert (this.nnz() <= this.maxK);
     }
+
+    if (sampleRemaining > 0 && --sampleRemaining == 0) {
+      chooseHashMapType();
+    }
+  }
+
+  /**
+   * @return the name of the hash table implementation currently in use
+   */
+  public String getHashMapType() {
+    return hashMapType;
+  }
+
+  /**
+   * @return true if an adaptive sketch is still counting the updates it will choose its table by
+   */
+  public boolean isSampling() {
+    return sampleRemaining > 0;
+  }
+
+  // counts the updates of a prefix proportional to the size of the sketch, with no allocation
+  private void startSampling() {
+    sampleRemaining =
+        (int) Math.min(ADAPTIVE_SAMPLE_LENGTH, (long) ADAPTIVE_SAMPLES_PER_COUNTER * maxK);
+    sampleUpdates = 0;
+    sampleHits = 0;
+    sampleStartPurges = numPurges;
+  }
+
+  /**
+   * Picks a table from the updates counted, and moves the counters into a table of that type. This
+   * is the only time an adaptive sketch changes its table type.
+   */
+  private void chooseHashMapType() {
+    final String chosen = AdaptiveHashMapSelector.select(sampleUpdates, sampleHits,
+        numPurges - sampleStartPurges, maxK, counters.getStats());
+    if (chosen.equals(hashMapType)) {
+      return;
+    }
+    hashMapType = chosen;
+    final HashMap newTable = hashMapFactory(hashMapType, this.K, hashStrategy);
+    this.counters.forEach(new LongLongConsumer() {
+      @Override
+      public void accept(final long key, final long value) {
+        newTable.adjust(key, value);
+      }
+    });
+    this.counters = newTable;
   }
 
   /**
@@ -301,37 +430,56 @@ public class FrequentItemsAbstractHash extends FrequencyEstimator {
     this.streamLength += otherCasted.streamLength;
     this.mergeError += otherCasted.getMaxError();
 
-    final long[] otherKeys = otherCasted.counters.getKeys();
-    final long[] otherValues = otherCasted.counters.getValues();
-
-    for (int i = otherKeys.length; i-- > 0;) {
-      this.update(otherKeys[i], otherValues[i]);
+    if (otherCasted == this) {
+      // updates would modify the table being iterated, so take a copy first
+      final long[] keys = counters.getKeys();
+      final long[] values = counters.getValues();
+      for (int i = (keys == null) ? 0 : keys.length; i-- > 0;) {
+        this.update(keys[i], values[i]);
+      }
+      return this;
     }
+    otherCasted.counters.forEach(updater);
     return this;
   }
 
   @Override
   public long[] getFrequentKeys(final long threshold) {
+    // a tracked key has upper bound (counter + offset + mergeError), so it is returned exactly
+    // when its counter is at least threshold - offset - mergeError
+    final long minCount = threshold - offset - mergeError;
+    final FrequentKeysCollector counter = new FrequentKeysCollector(minCount, null);
+    counters.forEach(counter);
+
+    // allocate an array to store the candidate frequent keys, and then compute them
+    final FrequentKeysCollector collector =
+        new FrequentKeysCollector(minCount, new long[counter.count]);
+    counters.forEach(collector);
+    return collector.freqKeys;
+  }
+
+  /**
+   * Counts, and optionally collects, the keys whose counters are at least minCount
+   */
+  static final class FrequentKeysCollector implements LongLongConsumer {
+    final long minCount;
+    final long[] freqKeys;
     int count = 0;
-    final long[] keys = counters.ProtectedGetKey();
 
-    // first, count the number of candidate frequent keys
-    for (int i = counters.getLength(); i-- > 0;) {
-      if (counters.isActive(i) && (getEstimate(keys[i]) >= threshold)) {
-        count++;
-      }
+    FrequentKeysCollector(final long minCount, final long[] freqKeys) {
+      this.minCount = minCount;
+      this.freqKeys = freqKeys;
     }
 
-    // allocate an array to store the candidate frequent keys, and then compute them
-    final long[] freqKeys = new long[count];
-    count = 0;
-    for (int i = counters.getLength(); i-- > 0;) {
-      if (counters.isActive(i) && (getEstimateUpperBound(keys[i]) >= threshold)) {
-        freqKeys[count] = keys[i];
+    @Override
+    public void accept(final long key, final long value) {
+      if (value > 0 && value >= minCount) {
+        if (freqKeys != null) {
+          freqKeys[count] = key;
+        }
         count++;
       }
     }
-    return freqKeys;
   }
 
 
@@ -358,7 +506,11 @@ public class FrequentItemsAbstractHash extends FrequencyEstimator {
   @Override
   public void reset() {
     this.K = this.initialSize;
-    counters = new HashMapReverseEfficient(this.K);
+    if (adaptive) {
+      hashMapType = DEFAULT_HASHMAP_TYPE;
+      startSampling();
+    }
+    counters = hashMapFactory(hashMapType, this.K, hashStrategy);
     this.offset = 0;
     this.mergeError = 0;
     this.streamLength = 0;
@@ -392,24 +544,29 @@ public class FrequentItemsAbstractHash extends FrequencyEstimator {
   }
 
 
-  static private HashMap hashMapFactory(final String hashMapType, final int capacity) {
+  static HashMap hashMapFactory(final String hashMapType, final int capacity,
+      final HashStrategy hashStrategy) {
       switch (hashMapType) {
         case "Trove":
           return new HashMapTrove(capacity);
         case "TroveRebuilds":
           return new HashMapTroveRebuilds(capacity);
         case "ProbingWithRebuilds":
-          return new HashMapLinearProbingWithRebuilds(capacity);
+          return new HashMapLinearProbingWithRebuilds(capacity, hashStrategy);
         case "DoubleHashingWithRebuilds":
-          return new HashMapDoubleHashingWithRebuilds(capacity);
+          return new HashMapDoubleHashingWithRebuilds(capacity, hashStrategy);
         case "ImplicitDeletes":
-          return new HashMapWithImplicitDeletes(capacity);
+          return new HashMapWithImplicitDeletes(capacity, hashStrategy);
         case "EfficientDeletes":
-          return new HashMapWithEfficientDeletes(capacity);
+          return new HashMapWithEfficientDeletes(capacity, hashStrategy);
         case "RobinHood":
-          return new HashMapRobinHood(capacity);
+          return new HashMapRobinHood(capacity, hashStrategy);
         case "ReverseEfficient":
-          return new HashMapReverseEfficient(capacity);
+          return new HashMapReverseEfficient(capacity, hashStrategy);
+        case "BucketizedCuckoo":
+          return new HashMapBucketizedCuckoo(capacity, hashStrategy);
+        case "Compact":
+          return new HashMapCompact(capacity, hashStrategy);
       }
       return null;
     }
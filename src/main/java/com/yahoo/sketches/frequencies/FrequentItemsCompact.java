@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import com.yahoo.sketches.hashmaps.HashMapCompact;
+import com.yahoo.sketches.hashmaps.HashStrategy;
+import com.yahoo.sketches.hashmaps.LongLongConsumer;
+
+/**
+ * The sketch of FrequentItemsAbstractHash with hashMapType "Compact", with its counters held in a
+ * field of type HashMapCompact rather than HashMap. The calls on the table then have a single
+ * receiver class, which the JIT compiler can inline as long as no subclass of it is loaded, no
+ * matter how many other table types the process uses.
+ */
+public final class FrequentItemsCompact extends FrequencyEstimator {
+
+  private int K;
+  private final int initialSize;
+  private final int maxK;
+  private HashMapCompact counters;
+  private final HashStrategy hashStrategy;
+  private long offset = 0;
+  private long mergeError = 0;
+  private long streamLength = 0;
+  private final int sampleSize;
+
+  /**
+   * Feeds the counters of another sketch into update() during a merge
+   */
+  private final LongLongConsumer updater = new LongLongConsumer() {
+    @Override
+    public void accept(final long key, final long value) {
+      update(key, value);
+    }
+  };
+
+  /**
+   * @param k Determines the accuracy of the estimates returned by the sketch.
+   */
+  public FrequentItemsCompact(final int k) {
+    this(k, FrequentItemsAbstractHash.MIN_FREQUENT_ITEMS_SIZE,
+        FrequentItemsAbstractHash.SAMPLE_SIZE, HashStrategy.FMIX64);
+  }
+
+  /**
+   * @param k Determines the accuracy of the estimates returned by the sketch.
+   * @param initialCapacity determines the initial size of the sketch.
+   * @param sampleSize the maximal number of counters sampled to estimate their median in a purge.
+   * @param hashStrategy the hash function applied to keys by the hash table.
+   */
+  public FrequentItemsCompact(final int k, final int initialCapacity, final int sampleSize,
+      final HashStrategy hashStrategy) {
+    if (k <= 0) {
+      throw new IllegalArgumentException("Received negative or zero value for k.");
+    }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
+    this.K = initialCapacity;
+    this.initialSize = initialCapacity;
+    counters = new HashMapCompact(this.K, hashStrategy);
+    final int maxHashMapLength = Integer.highestOneBit(4 * k - 1);
+    this.maxK = (int) (maxHashMapLength * counters.LOAD_FACTOR);
+    this.sampleSize = Math.min(sampleSize, this.maxK);
+  }
+
+  /**
+   * @return the number of positive counters in the sketch.
+   */
+  public int nnz() {
+    return counters.getSize();
+  }
+
+  @Override
+  public long getEstimate(final long key) {
+    final long count = counters.get(key);
+    return (count > 0) ? count + offset : 0;
+  }
+
+  @Override
+  public long getEstimateUpperBound(final long key) {
+    final long estimate = getEstimate(key);
+    if (estimate > 0) {
+      return estimate + mergeError;
+    }
+    return mergeError + offset;
+  }
+
+  @Override
+  public long getEstimateLowerBound(final long key) {
+    final long returnVal = getEstimate(key) - offset - mergeError;
+    return (returnVal > 0) ? returnVal : 0;
+  }
+
+  @Override
+  public long getMaxError() {
+    return offset + mergeError;
+  }
+
+  @Override
+  public void update(final long key) {
+    update(key, 1);
+  }
+
+  @Override
+  public void update(final long key, final long increment) {
+    this.streamLength += increment;
+    counters.adjust(key, increment);
+    final int size = counters.getSize();
+
+    if ((size >= this.K) && (this.K < this.maxK)) {
+      this.K = Math.max(Math.min(this.maxK, 2 * this.K), 1);
+      final HashMapCompact newTable = new HashMapCompact(this.K, hashStrategy);
+      counters.forEach(new LongLongConsumer() {
+        @Override
+        public void accept(final long key, final long value) {
+          newTable.adjust(key, value);
+        }
+      });
+      counters = newTable;
+    }
+
+    if (size > this.maxK) {
+      final long median = counters.quickSelect(0.5, sampleSize);
+      counters.adjustAllValuesBy(-1 * median);
+      counters.keepOnlyLargerThan(0);
+      this.offset += median;
+    }
+  }
+
+  @Override
+  public FrequencyEstimator merge(final FrequencyEstimator other) {
+    if (!(other instanceof FrequentItemsCompact)) {
+      throw new IllegalArgumentException(
+          "FrequentItemsCompact can only merge with other FrequentItemsCompact");
+    }
+    final FrequentItemsCompact otherCasted = (FrequentItemsCompact) other;
+    // update() counts the merged counters into the stream length, which is set afterwards instead
+    final long mergedStreamLength = this.streamLength + otherCasted.streamLength;
+    this.mergeError += otherCasted.getMaxError();
+    if (otherCasted == this) {
+      // updates would modify the table being iterated, so take a copy first
+      final long[] keys = counters.getKeys();
+      final long[] values = counters.getValues();
+      for (int i = (keys == null) ? 0 : keys.length; i-- > 0;) {
+        update(keys[i], values[i]);
+      }
+    } else {
+      otherCasted.counters.forEach(updater);
+    }
+    this.streamLength = mergedStreamLength;
+    return this;
+  }
+
+  @Override
+  public long[] getFrequentKeys(final long threshold) {
+    final long minCount = threshold - offset - mergeError;
+    final FrequentItemsAbstractHash.FrequentKeysCollector counter =
+        new FrequentItemsAbstractHash.FrequentKeysCollector(minCount, null);
+    counters.forEach(counter);
+    final FrequentItemsAbstractHash.FrequentKeysCollector collector =
+        new FrequentItemsAbstractHash.FrequentKeysCollector(minCount, new long[counter.count]);
+    counters.forEach(collector);
+    return collector.freqKeys;
+  }
+
+  @Override
+  public int getK() {
+    return this.K;
+  }
+
+  @Override
+  public int getMaxK() {
+    return this.maxK;
+  }
+
+  @Override
+  public long getStreamLength() {
+    return this.streamLength;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return nnz() == 0;
+  }
+
+  @Override
+  public void reset() {
+    this.K = this.initialSize;
+    counters = new HashMapCompact(this.K, hashStrategy);
+    this.offset = 0;
+    this.mergeError = 0;
+    this.streamLength = 0;
+  }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import static com.yahoo.sketches.frequencies.PreambleUtil.BUFFERLENGTH_START;
+import static com.yahoo.sketches.frequencies.PreambleUtil.DIRECT_FLAG;
+import static com.yahoo.sketches.frequencies.PreambleUtil.FAMILY_ID;
+import static com.yahoo.sketches.frequencies.PreambleUtil.MERGE_ERROR_START;
+import static com.yahoo.sketches.frequencies.PreambleUtil.OFFSET_START;
+import static com.yahoo.sketches.frequencies.PreambleUtil.SER_VER;
+import static com.yahoo.sketches.frequencies.PreambleUtil.SORTED_FLAG;
+import static com.yahoo.sketches.frequencies.PreambleUtil.STREAMLENGTH_START;
+import static com.yahoo.sketches.frequencies.PreambleUtil.UPPER_K_START;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractBufferLength;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractEmptyFlag;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractFamilyID;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractLowerK;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractPreLongs;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractSerVer;
+import static com.yahoo.sketches.frequencies.PreambleUtil.extractUpperK;
+
+import com.yahoo.memory.Memory;
+
+/**
+ * A read-only view of a FrequentItems serialized by toByteArray or putMemory, as returned by
+ * FrequentItems.wrap. Queries read the image in place. On an image written by toByteArray(true),
+ * getEstimate and its bounds binary search the sorted keys, so a point lookup costs O(log(nnz))
+ * reads of the image and allocates nothing; the keys of other images are scanned instead.
+ *
+ * <p>The view never copies the image, and methods that would modify the sketch throw
+ * UnsupportedOperationException. Use FrequentItems.getInstance for a modifiable copy.</p>
+ */
+public final class FrequentItemsImage extends FrequencyEstimator {
+
+  private static final int PREAMBLE_BYTES = 48;
+
+  private final Memory mem;
+  private final boolean sorted;
+  private final int k;
+  private final int K;
+  private final int nnz;
+  private final long valuesOffset;
+  private final long offset;
+  private final long mergeError;
+  private final long streamLength;
+
+  private FrequentItemsImage(final Memory mem, final int k, final int K, final int nnz,
+      final boolean sorted, final long offset, final long mergeError, final long streamLength) {
+    this.mem = mem;
+    this.k = k;
+    this.K = K;
+    this.nnz = nnz;
+    this.sorted = sorted;
+    this.offset = offset;
+    this.mergeError = mergeError;
+    this.streamLength = streamLength;
+    valuesOffset = PREAMBLE_BYTES + ((long) nnz << 3);
+  }
+
+  /**
+   * @param srcMem the image of a FrequentItems
+   * @return a read-only sketch answering queries against srcMem
+   */
+  static FrequentItemsImage wrap(final Memory srcMem) {
+    if (srcMem.getCapacity() < 8) {
+      throw new IllegalArgumentException("Memory too small: " + srcMem.getCapacity());
+    }
+    final long pre0 = srcMem.getLong(0);
+    final int flag = extractEmptyFlag(pre0);
+    if (extractSerVer(pre0) != SER_VER || extractFamilyID(pre0) != FAMILY_ID
+        || flag == DIRECT_FLAG) {
+      throw new IllegalArgumentException("Not a FrequentItems image.");
+    }
+    final int k = extractLowerK(pre0);
+    if (flag == 1) {
+      return new FrequentItemsImage(srcMem, k, FrequentItems.MIN_FREQUENT_ITEMS_SIZE, 0, true,
+          0, 0, 0);
+    }
+    if (extractPreLongs(pre0) != 6 || srcMem.getCapacity() < PREAMBLE_BYTES) {
+      throw new IllegalArgumentException("Corrupt FrequentItems image.");
+    }
+    final int nnz = extractBufferLength(srcMem.getLong(BUFFERLENGTH_START));
+    final long bytes = PREAMBLE_BYTES + ((long) nnz << 4);
+    if (nnz < 0 || srcMem.getCapacity() < bytes) {
+      throw new IllegalArgumentException(
+          "Memory too small for image: " + srcMem.getCapacity() + " < " + bytes);
+    }
+    return new FrequentItemsImage(srcMem, k, extractUpperK(srcMem.getLong(UPPER_K_START)), nnz,
+        flag == SORTED_FLAG, srcMem.getLong(OFFSET_START), srcMem.getLong(MERGE_ERROR_START),
+        srcMem.getLong(STREAMLENGTH_START));
+  }
+
+  /**
+   * @return the index of key in the keys buffer, or -1
+   */
+  private int indexOf(final long key) {
+    if (!sorted) {
+      for (int i = 0; i < nnz; i++) {
+        if (keyAt(i) == key) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    int low = 0;
+    int high = nnz - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final long midKey = keyAt(mid);
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private long keyAt(final int index) {
+    return mem.getLong(PREAMBLE_BYTES + ((long) index << 3));
+  }
+
+  private long valueAt(final int index) {
+    return mem.getLong(valuesOffset + ((long) index << 3));
+  }
+
+  /**
+   * @return the number of positive counters in the sketch.
+   */
+  public int nnz() {
+    return nnz;
+  }
+
+  @Override
+  public long getEstimate(final long key) {
+    final int index = indexOf(key);
+    if (index >= 0) {
+      return valueAt(index) + offset;
+    }
+    return 0;
+  }
+
+  @Override
+  public long getEstimateUpperBound(final long key) {
+    final long estimate = getEstimate(key);
+    if (estimate > 0) {
+      return estimate + mergeError;
+    }
+    return mergeError + offset;
+  }
+
+  @Override
+  public long getEstimateLowerBound(final long key) {
+    final long returnVal = getEstimate(key) - offset - mergeError;
+    return (returnVal > 0) ? returnVal : 0;
+  }
+
+  @Override
+  public long getMaxError() {
+    return offset + mergeError;
+  }
+
+  @Override
+  public long[] getFrequentKeys(final long threshold) {
+    // every stored counter is positive, so the upper bound of its key is its value plus the error
+    final long minValue = threshold - offset - mergeError;
+    int count = 0;
+    for (int i = 0; i < nnz; i++) {
+      if (valueAt(i) >= minValue) {
+        count++;
+      }
+    }
+    final long[] freqKeys = new long[count];
+    count = 0;
+    for (int i = 0; i < nnz; i++) {
+      if (valueAt(i) >= minValue) {
+        freqKeys[count] = keyAt(i);
+        count++;
+      }
+    }
+    return freqKeys;
+  }
+
+  @Override
+  public int getK() {
+    return K;
+  }
+
+  @Override
+  public int getMaxK() {
+    return (int) (Integer.highestOneBit(4 * k - 1) * 0.75);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return nnz == 0;
+  }
+
+  @Override
+  public long getStreamLength() {
+    return streamLength;
+  }
+
+  @Override
+  public void update(final long key) {
+    throw new UnsupportedOperationException("The image is read-only.");
+  }
+
+  @Override
+  public void update(final long key, final long value) {
+    throw new UnsupportedOperationException("The image is read-only.");
+  }
+
+  @Override
+  public void update(final long[] keys, final long[] weights, final int off, final int len) {
+    throw new UnsupportedOperationException("The image is read-only.");
+  }
+
+  @Override
+  public FrequencyEstimator merge(final FrequencyEstimator other) {
+    throw new UnsupportedOperationException("The image is read-only.");
+  }
+
+  @Override
+  public void reset() {
+    throw new UnsupportedOperationException("The image is read-only.");
+  }
+
+}
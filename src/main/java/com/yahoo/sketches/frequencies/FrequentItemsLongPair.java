@@ -0,0 +1,300 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import com.yahoo.sketches.hashmaps.HashMapLongPair;
+import com.yahoo.sketches.hashmaps.HashStrategy;
+import com.yahoo.sketches.hashmaps.LongPairLongConsumer;
+
+/**
+ * The frequent items sketch of FrequentItems for keys made of two longs, such as (source,
+ * destination) or (user, item) pairs. Both words of every key are kept in a HashMapLongPair, so
+ * the frequent pairs are returned as they were given, and no dictionary from pair hashes back to
+ * pairs is needed. The estimates, bounds and guarantees are those of FrequentItems.
+ *
+ * <p>Methods that take or return several keys use arrays of twice the number of keys, holding the
+ * two words of every key one after the other.</p>
+ */
+public class FrequentItemsLongPair {
+
+  /**
+   * The initial number of counters
+   */
+  static final int MIN_FREQUENT_ITEMS_SIZE = 4;
+
+  /**
+   * The number of counters sampled to estimate their median during a purge
+   */
+  static final int SAMPLE_SIZE = 256;
+
+  /**
+   * The current number of counters that the data structure can support
+   */
+  private int K;
+
+  /**
+   * Initial number of counters supported by the data structure
+   */
+  private final int initialSize;
+
+  /**
+   * The number of counters to be supported when sketch is full size
+   */
+  private final int maxK;
+
+  /**
+   * Hash map mapping stored keys to approximate counts
+   */
+  private HashMapLongPair counters;
+
+  /**
+   * The hash function used by the counters table
+   */
+  private final HashStrategy hashStrategy;
+
+  /**
+   * Tracks the total number of decrements performed on sketch.
+   */
+  private long offset;
+
+  /**
+   * An upper bound on the error in any estimated count due to merging with other sketches.
+   */
+  private long mergeError;
+
+  /**
+   * The sum of all frequencies of the stream so far.
+   */
+  private long streamLength = 0;
+
+  /**
+   * The number of counters sampled to compute the approximate median during a purge
+   */
+  private final int sampleSize;
+
+  /**
+   * Feeds the counters of another sketch into update() during a merge
+   */
+  private final LongPairLongConsumer updater = new LongPairLongConsumer() {
+    @Override
+    public void accept(final long key0, final long key1, final long value) {
+      update(key0, key1, value);
+    }
+  };
+
+  /**
+   * @param k Determines the accuracy of the estimates returned by the sketch, as in FrequentItems.
+   */
+  public FrequentItemsLongPair(final int k) {
+    this(k, MIN_FREQUENT_ITEMS_SIZE, HashStrategy.FMIX64);
+  }
+
+  /**
+   * @param k Determines the accuracy of the estimates returned by the sketch, as in FrequentItems.
+   * @param initialCapacity determines the initial size of the sketch.
+   * @param hashStrategy the hash function applied to the combined words of the keys.
+   */
+  public FrequentItemsLongPair(final int k, final int initialCapacity,
+      final HashStrategy hashStrategy) {
+    if (k <= 0) {
+      throw new IllegalArgumentException("Received negative or zero value for k.");
+    }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
+    this.K = initialCapacity;
+    this.initialSize = initialCapacity;
+    counters = new HashMapLongPair(this.K, hashStrategy);
+    // the same maximal number of counters as FrequentItems
+    final int maxHashMapLength = Integer.highestOneBit(4 * k - 1);
+    this.maxK = (int) (maxHashMapLength * HashMapLongPair.LOAD_FACTOR);
+    this.sampleSize = Math.min(SAMPLE_SIZE, this.maxK);
+    this.offset = 0;
+  }
+
+  /**
+   * @param key0 the first word of the key
+   * @param key1 the second word of the key
+   */
+  public void update(final long key0, final long key1) {
+    update(key0, key1, 1);
+  }
+
+  /**
+   * @param key0 the first word of the key
+   * @param key1 the second word of the key
+   * @param increment by which the frequency of the key is increased. Must be non-negative.
+   */
+  public void update(final long key0, final long key1, final long increment) {
+    this.streamLength += increment;
+    counters.adjust(key0, key1, increment);
+    final int size = counters.getSize();
+
+    if ((size >= this.K) && (this.K < this.maxK)) {
+      this.K = Math.max(Math.min(this.maxK, 2 * this.K), 1);
+      final HashMapLongPair newTable = new HashMapLongPair(this.K, hashStrategy);
+      counters.forEach(new LongPairLongConsumer() {
+        @Override
+        public void accept(final long k0, final long k1, final long value) {
+          newTable.adjust(k0, k1, value);
+        }
+      });
+      counters = newTable;
+    }
+
+    if (size > this.maxK) {
+      purge();
+      assert (counters.getSize() <= this.maxK);
+    }
+  }
+
+  /**
+   * Decrements all counters by an estimate of their median, and removes those no longer positive.
+   */
+  private void purge() {
+    final long median = counters.quickSelect(0.5, sampleSize);
+    counters.adjustAllValuesBy(-1 * median);
+    counters.keepOnlyLargerThan(0);
+    this.offset += median;
+  }
+
+  /**
+   * @param key0 the first word of the key
+   * @param key1 the second word of the key
+   * @return the estimated frequency of the key, 0 if the key is not tracked
+   */
+  public long getEstimate(final long key0, final long key1) {
+    final long count = counters.get(key0, key1);
+    return (count > 0) ? count + offset : 0;
+  }
+
+  /**
+   * @param key0 the first word of the key
+   * @param key1 the second word of the key
+   * @return an upper bound on the frequency of the key
+   */
+  public long getEstimateUpperBound(final long key0, final long key1) {
+    final long estimate = getEstimate(key0, key1);
+    if (estimate > 0) {
+      return estimate + mergeError;
+    }
+    return mergeError + offset;
+  }
+
+  /**
+   * @param key0 the first word of the key
+   * @param key1 the second word of the key
+   * @return a lower bound on the frequency of the key
+   */
+  public long getEstimateLowerBound(final long key0, final long key1) {
+    final long returnVal = getEstimate(key0, key1) - offset - mergeError;
+    return (returnVal > 0) ? returnVal : 0;
+  }
+
+  /**
+   * @return an upper bound on the error of any estimate
+   */
+  public long getMaxError() {
+    return offset + mergeError;
+  }
+
+  /**
+   * @param threshold the frequency a key must possibly reach to be returned
+   * @return the keys whose upper bound is at least threshold, two words per key
+   */
+  public long[] getFrequentKeys(final long threshold) {
+    final long minCount = threshold - offset - mergeError;
+    int count = 0;
+    final long[] values = counters.getValues();
+    for (final long value: values) {
+      if (value >= minCount) {
+        count++;
+      }
+    }
+    final long[] keys = counters.getKeys();
+    final long[] freqKeys = new long[2 * count];
+    int j = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] >= minCount) {
+        freqKeys[j++] = keys[2 * i];
+        freqKeys[j++] = keys[2 * i + 1];
+      }
+    }
+    return freqKeys;
+  }
+
+  /**
+   * Adds the counts of another sketch to this one
+   *
+   * @param other the sketch to merge into this one
+   * @return this sketch
+   */
+  public FrequentItemsLongPair merge(final FrequentItemsLongPair other) {
+    // update() counts the merged counters into the stream length, which is set afterwards instead
+    final long mergedStreamLength = this.streamLength + other.streamLength;
+    this.mergeError += other.getMaxError();
+    if (other == this) {
+      // updates would modify the table being iterated, so take a copy first
+      final long[] keys = counters.getKeys();
+      final long[] values = counters.getValues();
+      for (int i = values.length; i-- > 0;) {
+        update(keys[2 * i], keys[2 * i + 1], values[i]);
+      }
+    } else {
+      other.counters.forEach(updater);
+    }
+    this.streamLength = mergedStreamLength;
+    return this;
+  }
+
+  /**
+   * @return the number of positive counters in the sketch.
+   */
+  public int nnz() {
+    return counters.getSize();
+  }
+
+  /**
+   * @return the current number of counters the sketch can support
+   */
+  public int getK() {
+    return this.K;
+  }
+
+  /**
+   * @return the maximal number of counters of the sketch
+   */
+  public int getMaxK() {
+    return this.maxK;
+  }
+
+  /**
+   * @return the sum of the increments of the stream so far
+   */
+  public long getStreamLength() {
+    return this.streamLength;
+  }
+
+  /**
+   * @return true if the sketch holds no counters
+   */
+  public boolean isEmpty() {
+    return nnz() == 0;
+  }
+
+  /**
+   * Returns the sketch to the state it was constructed in
+   */
+  public void reset() {
+    this.K = this.initialSize;
+    counters = new HashMapLongPair(this.K, hashStrategy);
+    this.offset = 0;
+    this.mergeError = 0;
+    this.streamLength = 0;
+  }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+/**
+ * Merges many sketches of one type as a balanced tree on a ForkJoinPool. The list of sketches is
+ * split in halves until groups of at most leafSize sketches remain; each group is merged into a
+ * fresh scratch sketch, and the two scratch sketches of every level are merged into one another on
+ * the way up. The input sketches are never modified.
+ *
+ * <p>All the merges of this package add the errors of the merged sketches, so the result has the
+ * error bounds of merging the sketches one after the other, whatever the shape of the tree.</p>
+ *
+ * @param <S> the type of the sketches merged
+ */
+public final class ParallelMerger<S> {
+
+  /**
+   * The default number of sketches merged sequentially by a leaf of the tree
+   */
+  public static final int DEFAULT_LEAF_SIZE = 16;
+
+  /**
+   * What the merger needs to know about a type of sketches
+   *
+   * @param <S> the type of the sketches merged
+   */
+  public interface Operations<S> {
+
+    /**
+     * @return an empty sketch that the others can be merged into
+     */
+    S newScratch();
+
+    /**
+     * Merges the sketches into scratch, without modifying them
+     *
+     * @param scratch a sketch returned by newScratch, or the result of previous merges into one
+     * @param sketches the sketches to merge into scratch
+     */
+    void mergeInto(S scratch, List<S> sketches);
+  }
+
+  private final Operations<S> operations;
+  private final ForkJoinPool pool;
+  private final int leafSize;
+
+  /**
+   * @param operations creates and merges the sketches
+   * @param pool the pool the merges run on
+   */
+  public ParallelMerger(final Operations<S> operations, final ForkJoinPool pool) {
+    this(operations, pool, DEFAULT_LEAF_SIZE);
+  }
+
+  /**
+   * @param operations creates and merges the sketches
+   * @param pool the pool the merges run on
+   * @param leafSize the number of sketches merged sequentially by a leaf of the tree
+   */
+  public ParallelMerger(final Operations<S> operations, final ForkJoinPool pool,
+      final int leafSize) {
+    if (operations == null || pool == null) {
+      throw new IllegalArgumentException("operations and pool must not be null.");
+    }
+    if (leafSize < 1) {
+      throw new IllegalArgumentException("leafSize must be positive: " + leafSize);
+    }
+    this.operations = operations;
+    this.pool = pool;
+    this.leafSize = leafSize;
+  }
+
+  /**
+   * @param sketches the sketches to merge. The list must not change during the merge.
+   * @return a new sketch holding the merge of all the sketches
+   */
+  public S merge(final List<S> sketches) {
+    return pool.invoke(new MergeTask(sketches, 0, sketches.size()));
+  }
+
+  private final class MergeTask extends RecursiveTask<S> {
+    private static final long serialVersionUID = 1L;
+    private final List<S> sketches;
+    private final int from;
+    private final int to;
+
+    MergeTask(final List<S> sketches, final int from, final int to) {
+      this.sketches = sketches;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected S compute() {
+      if (to - from <= leafSize) {
+        final S scratch = operations.newScratch();
+        operations.mergeInto(scratch, sketches.subList(from, to));
+        return scratch;
+      }
+      final int middle = (from + to) >>> 1;
+      final MergeTask left = new MergeTask(sketches, from, middle);
+      left.fork();
+      final S right = new MergeTask(sketches, middle, to).compute();
+      final S merged = left.join();
+      // both halves are scratch sketches of this merge, so either may receive the other
+      operations.mergeInto(merged, Collections.singletonList(right));
+      return merged;
+    }
+  }
+
+  /**
+   * @param k the k of the scratch sketches
+   * @return the operations merging FrequentItems sketches through FrequentItems.mergeAll
+   */
+  public static Operations<FrequentItems> frequentItems(final int k) {
+    return new Operations<FrequentItems>() {
+      @Override
+      public FrequentItems newScratch() {
+        return new FrequentItems(k);
+      }
+
+      @Override
+      public void mergeInto(final FrequentItems scratch, final List<FrequentItems> sketches) {
+        scratch.mergeAll(sketches);
+      }
+    };
+  }
+
+  /**
+   * @param eps the eps of the sketches merged
+   * @param delta the delta of the sketches merged
+   * @param hashStrategy the hash strategy of the sketches merged
+   * @return the operations merging CountMin sketches
+   */
+  public static Operations<CountMin> countMin(final double eps, final double delta,
+      final HashStrategy hashStrategy) {
+    return new Operations<CountMin>() {
+      @Override
+      public CountMin newScratch() {
+        return new CountMin(eps, delta, hashStrategy);
+      }
+
+      @Override
+      public void mergeInto(final CountMin scratch, final List<CountMin> sketches) {
+        for (final CountMin sketch: sketches) {
+          scratch.merge(sketch);
+        }
+      }
+    };
+  }
+
+  /**
+   * @param errorTolerance the errorTolerance of the scratch sketches
+   * @return the operations merging SpaceSavingGood sketches
+   */
+  public static Operations<SpaceSavingGood> spaceSavingGood(final double errorTolerance) {
+    return new Operations<SpaceSavingGood>() {
+      @Override
+      public SpaceSavingGood newScratch() {
+        return new SpaceSavingGood(errorTolerance);
+      }
+
+      @Override
+      public void mergeInto(final SpaceSavingGood scratch, final List<SpaceSavingGood> sketches) {
+        for (final SpaceSavingGood sketch: sketches) {
+          scratch.merge(sketch);
+        }
+      }
+    };
+  }
+
+}
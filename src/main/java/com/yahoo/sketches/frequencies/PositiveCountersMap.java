@@ -7,8 +7,9 @@ package com.yahoo.sketches.frequencies;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map.Entry;
+
+import com.yahoo.sketches.hashmaps.HashStrategy;
+import com.yahoo.sketches.hashmaps.LongLongConsumer;
 
 /**
  * This is a utility class that implements (and abstracts) a set of positive counters. The mapping
@@ -19,20 +20,36 @@ import java.util.Map.Entry;
  * This is a convenient and efficient modification intended to be used in FrequentDirection
  * sketching.
  *
+ * <p>The counters live in an open addressing table of primitive longs, so increments neither box
+ * nor allocate. Every cell stores its count plus the offset, the sum of all the decrements so far,
+ * which makes decerementAll a single addition. Counters that a decrement takes to zero or below
+ * keep their cell until the table is next rebuilt, and come back to life if their key is
+ * incremented again.
+ *
  * @author edo
  */
 public class PositiveCountersMap {
-  private HashMap<Long, Long> counters;
-  ArrayList<Long> keysToRemove;
+
+  private static final int MIN_LENGTH = 16;
+  private static final double LOAD_FACTOR = 0.75;
+
+  private long[] keys;
+  // count + offset for every occupied cell, the counter is dead when not above offset
+  private long[] values;
+  private boolean[] occupied;
+  private int arrayMask;
+  // occupied cells, live or dead
+  private int used;
   private long offset;
   private long nnz;
+  // set by decerementAll, nnz is recounted the next time it is asked for
+  private boolean nnzStale;
 
   /**
    * Creates empty mappings and default offset = 0.
    */
   public PositiveCountersMap() {
-    counters = new HashMap<Long, Long>();
-    keysToRemove = new ArrayList<Long>();
+    allocate(MIN_LENGTH);
     offset = 0L;
   }
 
@@ -40,21 +57,56 @@ public class PositiveCountersMap {
    * @return the number of positive counters
    */
   public long nnz() {
+    if (nnzStale) {
+      nnz = 0;
+      for (int i = keys.length; i-- > 0;) {
+        if (isLive(i)) {
+          nnz++;
+        }
+      }
+      nnzStale = false;
+    }
     return nnz;
   }
 
   /**
-   * @return an iterator over the positive count values
+   * @return an iterator over the positive count values, in the order of keys()
    */
   public Collection<Long> values() {
-    return counters.values();
+    final ArrayList<Long> list = new ArrayList<Long>((int) nnz());
+    for (int i = 0; i < keys.length; i++) {
+      if (isLive(i)) {
+        list.add(values[i] - offset);
+      }
+    }
+    return list;
   }
 
   /**
    * @return an iterator over the keys corresponding to positive counts only
    */
   public Collection<Long> keys() {
-    return counters.keySet();
+    final ArrayList<Long> list = new ArrayList<Long>((int) nnz());
+    for (int i = 0; i < keys.length; i++) {
+      if (isLive(i)) {
+        list.add(keys[i]);
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Passes every positive counter to the consumer, without boxing. The consumer must not modify
+   * this map.
+   *
+   * @param consumer receives the keys and their counts
+   */
+  public void forEach(final LongLongConsumer consumer) {
+    for (int i = 0; i < keys.length; i++) {
+      if (isLive(i)) {
+        consumer.accept(keys[i], values[i] - offset);
+      }
+    }
   }
 
   /**
@@ -62,8 +114,8 @@ public class PositiveCountersMap {
    * @return the exact count for that key.
    */
   public long get(final long key) {
-    final Long value = counters.get(key);
-    return (value != null) ? value - offset : 0L;
+    final int probe = find(key);
+    return (probe >= 0 && isLive(probe)) ? values[probe] - offset : 0L;
   }
 
   /**
@@ -74,10 +126,18 @@ public class PositiveCountersMap {
     if (value < 0) {
       throw new IllegalArgumentException("Received negative value.");
     }
+    final int probe = find(key);
+    final boolean live = probe >= 0 && isLive(probe);
     if (value == 0) {
-      counters.remove(key);
+      if (live) {
+        values[probe] = offset;
+        nnz--;
+      }
+    } else if (live) {
+      values[probe] = value + offset;
+    } else {
+      set(probe, key, value);
     }
-    counters.put(key, get(key) + value + offset);
   }
 
   /**
@@ -93,11 +153,12 @@ public class PositiveCountersMap {
     if (delta == 0) {
       return;
     }
-    final long value = get(key);
-    if (value == 0) {
-      nnz++;
+    final int probe = find(key);
+    if (probe >= 0 && isLive(probe)) {
+      values[probe] += delta;
+    } else {
+      set(probe, key, delta);
     }
-    counters.put(key, value + delta + offset);
   }
 
   /**
@@ -113,11 +174,20 @@ public class PositiveCountersMap {
    *        in the other PositiveCountersMap receive new counts.
    */
   public void increment(final PositiveCountersMap other) {
-    for (Entry<Long, Long> entry : other.counters.entrySet()) {
-      increment(entry.getKey(), entry.getValue());
+    if (other == this) {
+      for (int i = keys.length; i-- > 0;) {
+        if (isLive(i)) {
+          values[i] += values[i] - offset;
+        }
+      }
+      return;
+    }
+    // read the other table in place rather than through forEach, which would allocate a consumer
+    for (int i = 0; i < other.keys.length; i++) {
+      if (other.isLive(i)) {
+        increment(other.keys[i], other.values[i] - other.offset);
+      }
     }
-    removeNegativeCounters();
-    nnz = counters.size();
   }
 
   /**
@@ -132,8 +202,7 @@ public class PositiveCountersMap {
       return;
     }
     offset += delta;
-    removeNegativeCounters();
-    nnz = counters.size();
+    nnzStale = true;
   }
 
   /**
@@ -143,19 +212,75 @@ public class PositiveCountersMap {
     decerementAll(1L);
   }
 
+  private boolean isLive(final int probe) {
+    return occupied[probe] && values[probe] > offset;
+  }
+
+  /**
+   * @return the cell holding the key, or -(cell + 1) for the empty cell where it would be inserted
+   */
+  private int find(final long key) {
+    int probe = (int) HashStrategy.FMIX64.hash(key) & arrayMask;
+    while (occupied[probe]) {
+      if (keys[probe] == key) {
+        return probe;
+      }
+      probe = (probe + 1) & arrayMask;
+    }
+    return -(probe + 1);
+  }
+
   /**
-   * This is an internal function that cleans up non-positive counts and frees up space.
+   * Gives a key that has no positive counter the count value, at the cell returned by find(key)
    */
-  private void removeNegativeCounters() {
-    for (Entry<Long, Long> entry : counters.entrySet()) {
-      if (entry.getValue() <= offset) {
-        keysToRemove.add(entry.getKey());
+  private void set(int probe, final long key, final long value) {
+    if (probe < 0) {
+      if (used + 1 > keys.length * LOAD_FACTOR) {
+        rebuild();
+        probe = find(key);
       }
+      probe = -(probe + 1);
+      occupied[probe] = true;
+      keys[probe] = key;
+      used++;
     }
-    for (long key : keysToRemove) {
-      counters.remove(key);
+    values[probe] = value + offset;
+    if (!nnzStale) {
+      nnz++;
+    }
+  }
+
+  /**
+   * Drops the dead counters, and doubles the table if the live ones would still fill more than half
+   * of the allowed load
+   */
+  private void rebuild() {
+    final long[] oldKeys = keys;
+    final long[] oldValues = values;
+    final boolean[] oldOccupied = occupied;
+    final long live = nnz();
+    int length = oldKeys.length;
+    while (live + 1 > length * LOAD_FACTOR / 2) {
+      length *= 2;
+    }
+    allocate(length);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldOccupied[i] && oldValues[i] > offset) {
+        final int probe = -(find(oldKeys[i]) + 1);
+        occupied[probe] = true;
+        keys[probe] = oldKeys[i];
+        values[probe] = oldValues[i];
+        used++;
+      }
     }
-    keysToRemove.clear();
+  }
+
+  private void allocate(final int length) {
+    keys = new long[length];
+    values = new long[length];
+    occupied = new boolean[length];
+    arrayMask = length - 1;
+    used = 0;
   }
 
 }
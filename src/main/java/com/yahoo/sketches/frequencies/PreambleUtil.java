@@ -26,6 +26,21 @@ package com.yahoo.sketches.frequencies;
  * An empty FrequentItems only requires 8 bytes. All others require 40 bytes of preamble.
  * </p>
  *
+ * <p>
+ * The image of a DirectFrequentItems has DIRECT_FLAG in the flag byte and a bufferLength of 0.
+ * Its counters follow the preamble at byte 48 as the binary image of a HashMapReverseEfficient.
+ * </p>
+ *
+ * <p>
+ * A non-empty image whose flag byte is SORTED_FLAG has its keys buffer in increasing order, which
+ * FrequentItemsImage binary searches. The flag byte of other non-empty images is 0.
+ * </p>
+ *
+ * <p>
+ * An image of serialization version SER_VER_COMPACT has the same preamble, followed by varint
+ * encoded entries instead of the keys and values buffers. See FrequentItems.toCompactByteArray.
+ * </p>
+ *
  * <pre>
  * Long || Start Byte Adr:
  * Adr:
@@ -68,6 +83,10 @@ final class PreambleUtil {
   static final int BUFFERLENGTH_START = 40; // to 43
   // Specific values for this implementation
   static final int SER_VER = 1;
+  static final int SER_VER_COMPACT = 2;
+  static final int FAMILY_ID = 10;
+  static final int DIRECT_FLAG = 2;
+  static final int SORTED_FLAG = 4;
 
   static int extractPreLongs(final long pre0) {
     final long mask = 0XFFL;
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.nio.ByteBuffer;
+
+import com.yahoo.memory.Memory;
+
+/**
+ * Variable-length encoding of longs, 7 bits per byte with the high bit set on all the bytes of a
+ * value but the last, least significant group first. Values below 128 take one byte, and no value
+ * takes more than MAX_BYTES.
+ */
+final class VarInt {
+
+  static final int MAX_BYTES = 10;
+
+  private VarInt() {}
+
+  /**
+   * @param value a long read as unsigned
+   * @return the number of bytes of its encoding
+   */
+  static int unsignedLength(final long value) {
+    // the number of significant bits, rounded up to a multiple of 7
+    return Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 6) / 7);
+  }
+
+  /**
+   * Writes a long read as unsigned at the position of the buffer, advancing it
+   *
+   * @param buf the destination, with at least unsignedLength(value) bytes remaining
+   * @param value the value written
+   */
+  static void putUnsigned(final ByteBuffer buf, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buf.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buf.put((byte) value);
+  }
+
+  /**
+   * Reads a long written by putUnsigned at the position of the buffer, advancing it
+   *
+   * @param buf the source
+   * @return the value read
+   */
+  static long getUnsigned(final ByteBuffer buf) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final byte b = buf.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Corrupt varint: more than " + MAX_BYTES + " bytes.");
+  }
+
+  /**
+   * @param value a signed long
+   * @return the value mapped to an unsigned one that is small when the magnitude of value is
+   */
+  static long zigZag(final long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * @param value a value returned by zigZag
+   * @return the signed long it was computed from
+   */
+  static long unZigZag(final long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Reads consecutive varints written by putUnsigned straight from a Memory, without copying it
+   */
+  static final class MemoryReader {
+    private final Memory mem;
+    private final long end;
+    private long offset;
+
+    /**
+     * @param mem the source, read up to its capacity
+     * @param offset the offset of the first varint
+     */
+    MemoryReader(final Memory mem, final long offset) {
+      this.mem = mem;
+      this.end = mem.getCapacity();
+      this.offset = offset;
+    }
+
+    /**
+     * @return the next varint, as an unsigned long
+     * @throws IllegalArgumentException if the Memory ends within the varint, or the varint is
+     *         longer than MAX_BYTES
+     */
+    long getUnsigned() {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        if (offset >= end) {
+          throw new IllegalArgumentException("Memory ends within a varint at " + offset);
+        }
+        final byte b = mem.getByte(offset++);
+        value |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Corrupt varint: more than " + MAX_BYTES + " bytes.");
+    }
+  }
+
+}
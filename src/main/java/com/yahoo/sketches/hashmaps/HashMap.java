@@ -32,6 +32,16 @@ public abstract class HashMap {
   protected long[] keys;
   protected long[] values;
   protected short[] states;
+  protected HashStrategy hashStrategy = HashStrategy.FMIX64;
+  // purge history, see getStats
+  protected long numRebuilds = 0;
+  private long numPurges = 0;
+  private long purgeNanos = 0;
+
+  /**
+   * getStats() examines at most about this many cells
+   */
+  public static final int DEFAULT_STATS_SAMPLE_CELLS = 1 << 12;
 
   public HashMap() {}
 
@@ -55,6 +65,18 @@ public abstract class HashMap {
     states = new short[length];
   }
 
+  /**
+   * @param capacity Determines the number of (key, value) pairs the hashmap is expected to store.
+   * @param hashStrategy the hash function applied to keys before they are mapped to cells.
+   */
+  public HashMap(final int capacity, final HashStrategy hashStrategy) {
+    this(capacity);
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
+  }
+
   /**
    * Increments the primitive value mapped to the key if the key is present in the map. Otherwise,
    * the key is inserted with the putAmount.
@@ -97,7 +119,21 @@ public abstract class HashMap {
    * @param thresholdValue Only keys corresponding to values larger
    * than thresholdValue are retained.
    */
-  abstract public void keepOnlyLargerThan(long thresholdValue);
+  public void keepOnlyLargerThan(final long thresholdValue) {
+    final long start = System.nanoTime();
+    doKeepOnlyLargerThan(thresholdValue);
+    purgeNanos += System.nanoTime() - start;
+    numPurges++;
+  }
+
+  /**
+   * Removes the keys whose values are not larger than thresholdValue. Called by
+   * keepOnlyLargerThan, which also accounts for the call in the stats.
+   *
+   * @param thresholdValue Only keys corresponding to values larger
+   * than thresholdValue are retained.
+   */
+  abstract protected void doKeepOnlyLargerThan(long thresholdValue);
 
   /**
    * @param probe location in the hash table array
@@ -105,18 +141,85 @@ public abstract class HashMap {
    */
   abstract public boolean isActive(int probe);
 
+  /**
+   * @param probe location of an active cell in the hash table array
+   * @return the number of cells a lookup of the key in this cell reads. The default is correct for
+   *         linear probing from the cell given by the low bits of the hash.
+   */
+  protected int probeLength(final int probe) {
+    return ((probe - ((int) hash(keys[probe]) & arrayMask)) & arrayMask) + 1;
+  }
+
+  /**
+   * @param probe location in the hash table array
+   * @return true if the cell holds a deleted key that lookups still have to probe past
+   */
+  protected boolean isTombstone(final int probe) {
+    return false;
+  }
+
+  /**
+   * @return the stats of this table, examining about DEFAULT_STATS_SAMPLE_CELLS cells
+   */
+  public HashMapStats getStats() {
+    return getStats(Math.max(1, length / DEFAULT_STATS_SAMPLE_CELLS));
+  }
+
+  /**
+   * Takes a snapshot of the probe lengths and the purge history of this table. Nothing is recorded
+   * while the table is updated, the probe lengths are read off the table by this method.
+   *
+   * @param sampleStride examine every sampleStride-th cell, 1 to examine all of them
+   * @return the stats of this table
+   */
+  public HashMapStats getStats(final int sampleStride) {
+    if (sampleStride <= 0) {
+      throw new IllegalArgumentException("sampleStride must be positive: " + sampleStride);
+    }
+    final long[] histogram = new long[HashMapStats.MAX_HISTOGRAM_PROBE_LENGTH + 1];
+    long sumProbeLengths = 0;
+    int maxProbeLength = 0;
+    long tombstones = 0;
+    for (int i = 0; i < length; i += sampleStride) {
+      if (isActive(i)) {
+        final int probeLength = probeLength(i);
+        histogram[Math.min(probeLength, HashMapStats.MAX_HISTOGRAM_PROBE_LENGTH)]++;
+        sumProbeLengths += probeLength;
+        maxProbeLength = Math.max(maxProbeLength, probeLength);
+      } else if (isTombstone(i)) {
+        tombstones++;
+      }
+    }
+    return new HashMapStats(getSize(), length, sampleStride, histogram, sumProbeLengths,
+        maxProbeLength, tombstones, numPurges, numRebuilds, purgeNanos);
+  }
+
+  /**
+   * Passes every active (key, value) pair of the map to the consumer, in no particular order. No
+   * arrays are allocated and nothing is boxed. The consumer must not modify this map.
+   *
+   * @param consumer receives the (key, value) pairs
+   */
+  public void forEach(final LongLongConsumer consumer) {
+    for (int i = 0; i < length; i++) {
+      if (isActive(i)) {
+        consumer.accept(keys[i], values[i]);
+      }
+    }
+  }
+
   @Override
   public String toString() {
-      String s = "[";
-      final long[] activeKeys = getKeys();
-      final long[] activeValues = getValues();
-      assert (activeKeys.length == activeValues.length);
-      for (int i = 0; i < keys.length; i++) {
-        if (i > 0) { s += ","; }
-        s += String.format("(%d,%d)", activeKeys[i], activeValues[i]);
-      }
-      s += "]";
-      return s;
+      final StringBuilder sb = new StringBuilder("[");
+      forEach(new LongLongConsumer() {
+        @Override
+        public void accept(final long key, final long value) {
+          if (sb.length() > 1) { sb.append(","); }
+          sb.append(String.format("(%d,%d)", key, value));
+        }
+      });
+      sb.append("]");
+      return sb.toString();
   }
 
   /**
@@ -258,18 +361,20 @@ public abstract class HashMap {
     return LOAD_FACTOR;
   }
 
+  /**
+   * @return the hash function applied to keys by this map
+   */
+  public HashStrategy getHashStrategy() {
+    return hashStrategy;
+  }
+
   /**
    * @param key to be hashed
-   * @return an index into the hash table This hash function is taken from the internals of the
-   *         Trove open source library.
+   * @return the hash of the key under this map's hash strategy. The default, FMIX64, is taken from
+   *         the internals of the Trove open source library.
    */
-  protected long hash(long key) {
-    key ^= key >>> 33;
-    key *= 0xff51afd7ed558ccdL;
-    key ^= key >>> 33;
-    key *= 0xc4ceb9fe1a85ec53L;
-    key ^= key >>> 33;
-    return key;
+  protected long hash(final long key) {
+    return hashStrategy.hash(key);
   }
 
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.hashmaps;
+
+/**
+ * Implements a 2-choice bucketized cuckoo hash table. The arrays are divided into buckets of 4 or
+ * 8 consecutive cells, so that the keys of a bucket of 8 occupy a single 64-byte cache line. Every
+ * key may live in one of two buckets, and both bucket indices are taken from a single hash of the
+ * key: the low word selects the first and the high word the second. A lookup therefore reads at
+ * most two lines of keys, even at load factors above 90%.
+ *
+ * <p>An insertion into two full buckets evicts a resident of one of them into its alternate bucket,
+ * repeating for at most MAX_KICKS evictions. The rare key that still has no home is put into a
+ * small stash kept at the end of the arrays, which is searched only when it is not empty.
+ * Purging simply clears the states of the removed cells, since no entry depends on the position of
+ * another.
+ */
+public class HashMapBucketizedCuckoo extends HashMap {
+
+  /**
+   * The load factor of the buckets. Higher than the LOAD_FACTOR of the probing tables, since
+   * lookups do not get longer as the buckets fill up.
+   */
+  static final double CUCKOO_LOAD_FACTOR = 0.9;
+
+  /**
+   * The default number of cells per bucket, 8 longs being one cache line
+   */
+  public static final int DEFAULT_BUCKET_SIZE = 8;
+
+  /**
+   * The maximal number of evictions attempted by a single insertion before using the stash
+   */
+  static final int MAX_KICKS = 256;
+
+  private final int bucketSize;
+  private final int logBucketSize;
+  private final int bucketMask;
+  // the stash occupies the cells from stashStart to length - 1
+  private final int stashStart;
+  private int stashCount = 0;
+  // state of the pseudo-random choice of eviction victims
+  private long kickSeed = 0x2545f4914f6cdd1dL;
+
+  /**
+   * Constructs a hash table with buckets of DEFAULT_BUCKET_SIZE cells
+   *
+   * @param capacity the capacity of the hash map created
+   */
+  public HashMapBucketizedCuckoo(final int capacity) {
+    this(capacity, DEFAULT_BUCKET_SIZE, HashStrategy.FMIX64);
+  }
+
+  /**
+   * @param capacity the capacity of the hash map created
+   * @param hashStrategy the hash function applied to keys
+   */
+  public HashMapBucketizedCuckoo(final int capacity, final HashStrategy hashStrategy) {
+    this(capacity, DEFAULT_BUCKET_SIZE, hashStrategy);
+  }
+
+  /**
+   * @param capacity the capacity of the hash map created
+   * @param bucketSize the number of cells per bucket, either 4 or 8
+   * @param hashStrategy the hash function applied to keys
+   */
+  public HashMapBucketizedCuckoo(final int capacity, final int bucketSize,
+      final HashStrategy hashStrategy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException(
+          "Received negative or zero value for as initial capacity.");
+    }
+    if (bucketSize != 4 && bucketSize != 8) {
+      throw new IllegalArgumentException("bucketSize must be 4 or 8: " + bucketSize);
+    }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
+    this.bucketSize = bucketSize;
+    logBucketSize = Integer.numberOfTrailingZeros(bucketSize);
+    // at least two buckets so that the two choices can always differ
+    final int minBuckets = (int) Math.ceil(capacity / (CUCKOO_LOAD_FACTOR * bucketSize));
+    final int numBuckets = Math.max(2, Integer.highestOneBit(2 * minBuckets - 1));
+    bucketMask = numBuckets - 1;
+    stashStart = numBuckets << logBucketSize;
+    this.capacity = (int) (stashStart * CUCKOO_LOAD_FACTOR);
+    length = stashStart + bucketSize;
+    arrayMask = stashStart - 1;
+    keys = new long[length];
+    values = new long[length];
+    states = new short[length];
+  }
+
+  @Override
+  protected double getLoadFactor() {
+    return CUCKOO_LOAD_FACTOR;
+  }
+
+  @Override
+  public boolean isActive(final int probe) {
+    return (states[probe] > 0);
+  }
+
+  /**
+   * @return the number of buckets a lookup of the key in this cell reads, 3 for the stash
+   */
+  @Override
+  protected int probeLength(final int probe) {
+    if (probe >= stashStart) {
+      return 3;
+    }
+    return ((probe >> logBucketSize) == firstBucket(hash(keys[probe]))) ? 1 : 2;
+  }
+
+  @Override
+  public long get(final long key) {
+    final int probe = findKey(key, hash(key));
+    return (probe >= 0) ? values[probe] : 0;
+  }
+
+  @Override
+  public void adjustOrPutValue(final long key, final long adjustAmount, final long putAmount) {
+    final long hash = hash(key);
+    final int probe = findKey(key, hash);
+    if (probe >= 0) {
+      values[probe] += adjustAmount;
+      return;
+    }
+    assert (size < capacity);
+    insert(key, putAmount, hash);
+    size++;
+  }
+
+  @Override
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
+    for (int probe = length; probe-- > 0;) {
+      if (states[probe] > 0 && values[probe] <= thresholdValue) {
+        states[probe] = 0;
+        size--;
+      }
+    }
+    if (stashCount > 0) {
+      // entries left in the stash go back to their buckets if room was made for them
+      stashCount = 0;
+      for (int probe = stashStart; probe < length; probe++) {
+        if (states[probe] > 0) {
+          final int freeProbe = findFreeCell(hash(keys[probe]));
+          if (freeProbe >= 0) {
+            keys[freeProbe] = keys[probe];
+            values[freeProbe] = values[probe];
+            states[freeProbe] = 1;
+            states[probe] = 0;
+          } else {
+            stashCount++;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of cells per bucket
+   */
+  public int getBucketSize() {
+    return bucketSize;
+  }
+
+  private int firstBucket(final long hash) {
+    return ((int) hash) & bucketMask;
+  }
+
+  private int secondBucket(final long hash) {
+    final int bucket = ((int) (hash >>> 32)) & bucketMask;
+    return (bucket == firstBucket(hash)) ? bucket ^ 1 : bucket;
+  }
+
+  /**
+   * @return the cell holding the key, or -1 if the key is not in the table
+   */
+  private int findKey(final long key, final long hash) {
+    int probe = firstBucket(hash) << logBucketSize;
+    for (int i = bucketSize; i-- > 0; probe++) {
+      if (keys[probe] == key && states[probe] > 0) {
+        return probe;
+      }
+    }
+    probe = secondBucket(hash) << logBucketSize;
+    for (int i = bucketSize; i-- > 0; probe++) {
+      if (keys[probe] == key && states[probe] > 0) {
+        return probe;
+      }
+    }
+    if (stashCount > 0) {
+      for (probe = stashStart; probe < length; probe++) {
+        if (keys[probe] == key && states[probe] > 0) {
+          return probe;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return a free cell in either of the two buckets of the hash, or -1 if both are full
+   */
+  private int findFreeCell(final long hash) {
+    final int freeProbe = findFreeCellInBucket(firstBucket(hash));
+    return (freeProbe >= 0) ? freeProbe : findFreeCellInBucket(secondBucket(hash));
+  }
+
+  private int findFreeCellInBucket(final int bucket) {
+    int probe = bucket << logBucketSize;
+    for (int i = bucketSize; i-- > 0; probe++) {
+      if (states[probe] == 0) {
+        return probe;
+      }
+    }
+    return -1;
+  }
+
+  private void insert(long key, long value, long hash) {
+    int freeProbe = findFreeCell(hash);
+    if (freeProbe >= 0) {
+      keys[freeProbe] = key;
+      values[freeProbe] = value;
+      states[freeProbe] = 1;
+      return;
+    }
+    int bucket = firstBucket(hash);
+    for (int kicks = 0; kicks < MAX_KICKS; kicks++) {
+      // swap the homeless entry with a pseudo-randomly chosen resident of the bucket
+      kickSeed ^= kickSeed << 13;
+      kickSeed ^= kickSeed >>> 7;
+      kickSeed ^= kickSeed << 17;
+      final int victim = (bucket << logBucketSize) + (int) (kickSeed >>> (64 - logBucketSize));
+      final long victimKey = keys[victim];
+      final long victimValue = values[victim];
+      keys[victim] = key;
+      values[victim] = value;
+      key = victimKey;
+      value = victimValue;
+      hash = hash(key);
+      // the evicted entry goes to whichever of its buckets it was not in
+      final int first = firstBucket(hash);
+      bucket = (first == bucket) ? secondBucket(hash) : first;
+      freeProbe = findFreeCellInBucket(bucket);
+      if (freeProbe >= 0) {
+        keys[freeProbe] = key;
+        values[freeProbe] = value;
+        states[freeProbe] = 1;
+        return;
+      }
+    }
+    for (int probe = stashStart; probe < length; probe++) {
+      if (states[probe] == 0) {
+        keys[probe] = key;
+        values[probe] = value;
+        states[probe] = 1;
+        stashCount++;
+        return;
+      }
+    }
+    throw new IllegalStateException("Cuckoo stash overflow: the table is overloaded.");
+  }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.hashmaps;
+
+import static com.yahoo.sketches.QuickSelect.select;
+
+/**
+ * A linear-probing hash table with the same reverse purge as HashMapReverseEfficient, laid out to
+ * use as little memory per cell as possible. Where the other tables spend 18 bytes per cell (long
+ * key, long value, short state) this one spends 13:
+ *
+ * <ul>
+ * <li>one byte for the drift of the cell, which also marks it as empty or occupied,</li>
+ * <li>a 32-bit value, promoted for the whole table to 64 bits the first time a value does not fit
+ * in an int,</li>
+ * <li>the full 64-bit key.</li>
+ * </ul>
+ *
+ * <p>A drift of MAX_DRIFT or more is stored as MAX_DRIFT, and the exact drift of such a cell is
+ * recomputed from the hash of its key, so long probe sequences, from HashStrategy.IDENTITY on
+ * poorly mixed keys for example, are slower but never fail.</p>
+ */
+public class HashMapCompact extends HashMap {
+
+  /**
+   * The largest drift a cell records in its byte. Larger drifts are recomputed from the key.
+   */
+  static final int MAX_DRIFT = 255;
+
+  // drift of each cell, 1 for a key in its home cell and 0 for an empty cell, read as unsigned
+  private byte[] drifts;
+  // narrow values, null once the values have been promoted to the values array
+  private int[] counts;
+
+  /**
+   * Constructs a hash table storing full keys
+   *
+   * @param capacity the capacity of the hash map created
+   */
+  public HashMapCompact(final int capacity) {
+    this(capacity, HashStrategy.FMIX64);
+  }
+
+  /**
+   * @param capacity the capacity of the hash map created
+   * @param hashStrategy the hash function applied to keys
+   */
+  public HashMapCompact(final int capacity, final HashStrategy hashStrategy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException(
+          "Received negative or zero value for as initial capacity.");
+    }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
+    length = Integer.highestOneBit(2 * (int) (capacity / LOAD_FACTOR) - 1);
+    this.capacity = (int) (length * LOAD_FACTOR);
+    arrayMask = length - 1;
+    drifts = new byte[length];
+    counts = new int[length];
+    keys = new long[length];
+  }
+
+  /**
+   * @return true if the values have been promoted to 64 bits
+   */
+  public boolean hasWideValues() {
+    return counts == null;
+  }
+
+  /**
+   * @return the number of bytes used by the arrays of this table
+   */
+  public long getMemoryBytes() {
+    final long valueBytes = (counts == null) ? 8 : 4;
+    return (long) length * (1 + 8 + valueBytes);
+  }
+
+  @Override
+  public boolean isActive(final int probe) {
+    return drifts[probe] != 0;
+  }
+
+  @Override
+  protected int probeLength(final int probe) {
+    return driftAt(probe);
+  }
+
+  @Override
+  public long get(final long key) {
+    int probe = (int) hash(key) & arrayMask;
+    while (drifts[probe] != 0) {
+      if (keys[probe] == key) {
+        return valueAt(probe);
+      }
+      probe = (probe + 1) & arrayMask;
+    }
+    return 0;
+  }
+
+  @Override
+  public void adjustOrPutValue(final long key, final long adjustAmount, final long putAmount) {
+    int probe = (int) hash(key) & arrayMask;
+    int drift = 1;
+    while (drifts[probe] != 0) {
+      if (keys[probe] == key) {
+        addToValue(probe, adjustAmount);
+        return;
+      }
+      probe = (probe + 1) & arrayMask;
+      drift++;
+    }
+    assert (size <= capacity);
+    keys[probe] = key;
+    putValue(probe, putAmount);
+    setDrift(probe, drift);
+    size++;
+  }
+
+  @Override
+  public void adjustAllValuesBy(final long adjustAmount) {
+    if (counts != null) {
+      for (int i = length; i-- > 0;) {
+        if (drifts[i] != 0) {
+          final long value = counts[i] + adjustAmount;
+          if (value != (int) value) {
+            widenValues();
+            break;
+          }
+        }
+      }
+    }
+    if (counts != null) {
+      final int intAmount = (int) adjustAmount;
+      for (int i = length; i-- > 0;) {
+        counts[i] += intAmount;
+      }
+    } else {
+      for (int i = length; i-- > 0;) {
+        values[i] += adjustAmount;
+      }
+    }
+  }
+
+  @Override
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
+    int firstProbe = length - 1;
+    while (drifts[firstProbe] != 0) {
+      firstProbe--;
+    }
+
+    for (int probe = firstProbe; probe-- > 0;) {
+      if (drifts[probe] != 0 && valueAt(probe) <= thresholdValue) {
+        hashDelete(probe);
+        size--;
+      }
+    }
+    for (int probe = length; probe-- > firstProbe;) {
+      if (drifts[probe] != 0 && valueAt(probe) <= thresholdValue) {
+        hashDelete(probe);
+        size--;
+      }
+    }
+  }
+
+  @Override
+  public void forEach(final LongLongConsumer consumer) {
+    for (int i = 0; i < length; i++) {
+      if (drifts[i] != 0) {
+        consumer.accept(keys[i], valueAt(i));
+      }
+    }
+  }
+
+  @Override
+  public long[] getValues() {
+    if (size == 0) {
+      return null;
+    }
+    final long[] returnedValues = new long[size];
+    int j = 0;
+    for (int i = 0; i < length; i++) {
+      if (drifts[i] != 0) {
+        returnedValues[j] = valueAt(i);
+        j++;
+      }
+    }
+    assert (j == size);
+    return returnedValues;
+  }
+
+  /**
+   * Promotes the values to 64 bits if they are still narrow, so that the raw array can be
+   * returned, and stays in sync with the table, as in the other tables.
+   *
+   * @return the raw array of values. Do NOT modify this array!
+   */
+  @Override
+  public long[] ProtectedGetValues() {
+    if (counts != null) {
+      widenValues();
+    }
+    return values;
+  }
+
+  @Override
+  public long quickSelect(final double ralativeRank, int sampleSize) {
+    final int numActive = getSize();
+    if (sampleSize >= numActive) { sampleSize = numActive; }
+    final long[] vals = new long[sampleSize];
+    int i = 0, j = 0;
+    while (i < sampleSize) {
+      if (drifts[j] != 0) {
+        vals[i] = valueAt(j);
+        i++;
+      }
+      j++;
+    }
+    return select(vals, 0, sampleSize - 1, (int) (sampleSize * ralativeRank));
+  }
+
+  @Override
+  public void print() {
+    for (int i = 0; i < length; i++) {
+      System.out.format("%3d: (%4d,%4d,%3d)\n", i, drifts[i] & 0xff, keys[i], valueAt(i));
+    }
+    System.out.format("=====================\n");
+  }
+
+  private int driftAt(final int probe) {
+    final int drift = drifts[probe] & 0xff;
+    if (drift < MAX_DRIFT) {
+      return drift;
+    }
+    return ((probe - ((int) hash(keys[probe]) & arrayMask)) & arrayMask) + 1;
+  }
+
+  private void setDrift(final int probe, final int drift) {
+    drifts[probe] = (byte) Math.min(drift, MAX_DRIFT);
+  }
+
+  private long valueAt(final int probe) {
+    return (counts != null) ? counts[probe] : values[probe];
+  }
+
+  private void putValue(final int probe, final long value) {
+    if (counts != null) {
+      if (value == (int) value) {
+        counts[probe] = (int) value;
+        return;
+      }
+      widenValues();
+    }
+    values[probe] = value;
+  }
+
+  private void addToValue(final int probe, final long amount) {
+    if (counts != null) {
+      final long value = counts[probe] + amount;
+      if (value == (int) value) {
+        counts[probe] = (int) value;
+        return;
+      }
+      widenValues();
+    }
+    values[probe] += amount;
+  }
+
+  private void widenValues() {
+    values = new long[length];
+    for (int i = length; i-- > 0;) {
+      values[i] = counts[i];
+    }
+    counts = null;
+  }
+
+  private void hashDelete(int deleteProbe) {
+    // same backward shift as HashMapReverseEfficient, with drifts stored as unsigned bytes
+    drifts[deleteProbe] = 0;
+    int drift = 1;
+    int probe = (deleteProbe + drift) & arrayMask;
+    while (drifts[probe] != 0) {
+      final int probeDrift = driftAt(probe);
+      if (probeDrift > drift) {
+        keys[deleteProbe] = keys[probe];
+        if (counts != null) {
+          counts[deleteProbe] = counts[probe];
+        } else {
+          values[deleteProbe] = values[probe];
+        }
+        setDrift(deleteProbe, probeDrift - drift);
+        drifts[probe] = 0;
+        drift = 0;
+        deleteProbe = probe;
+      }
+      probe = (probe + 1) & arrayMask;
+      drift++;
+    }
+  }
+
+}
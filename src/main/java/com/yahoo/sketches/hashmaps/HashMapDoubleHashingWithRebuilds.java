@@ -21,11 +21,33 @@ public class HashMapDoubleHashingWithRebuilds extends HashMap {
     logLength = Integer.numberOfTrailingZeros(length);
   }
 
+  /**
+   * @param capacity the capacity of the hash map created
+   * @param hashStrategy the hash function applied to keys
+   */
+  public HashMapDoubleHashingWithRebuilds(final int capacity, final HashStrategy hashStrategy) {
+    super(capacity, hashStrategy);
+    logLength = Integer.numberOfTrailingZeros(length);
+  }
+
   @Override
   public boolean isActive(final int probe) {
     return (states[probe] > 0);
   }
 
+  @Override
+  protected int probeLength(final int probe) {
+    final long hash = hash(keys[probe]);
+    final int stride = (2 * (int) ((hash >> logLength) & STRIDE_MASK)) + 1;
+    int cell = (int) (hash & arrayMask);
+    int probeLength = 1;
+    while (cell != probe) {
+      cell = (cell + stride) & arrayMask;
+      probeLength++;
+    }
+    return probeLength;
+  }
+
   @Override
   public long get(final long key) {
     final int probe = hashProbe(key);
@@ -64,9 +86,9 @@ public class HashMapDoubleHashingWithRebuilds extends HashMap {
   }
 
   @Override
-  public void keepOnlyLargerThan(final long thresholdValue) {
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
     final HashMapDoubleHashingWithRebuilds rebuiltHashMap =
-        new HashMapDoubleHashingWithRebuilds(capacity);
+        new HashMapDoubleHashingWithRebuilds(capacity, hashStrategy);
     for (int i = 0; i < length; i++) {
       if (states[i] > 0 && values[i] > thresholdValue) {
         rebuiltHashMap.adjustOrPutValue(keys[i], values[i], values[i]);
@@ -76,5 +98,6 @@ public class HashMapDoubleHashingWithRebuilds extends HashMap {
     System.arraycopy(rebuiltHashMap.values, 0, values, 0, length);
     System.arraycopy(rebuiltHashMap.states, 0, states, 0, length);
     size = rebuiltHashMap.getSize();
+    numRebuilds++;
   }
 }
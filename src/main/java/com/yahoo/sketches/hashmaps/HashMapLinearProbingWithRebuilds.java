@@ -14,6 +14,14 @@ public class HashMapLinearProbingWithRebuilds extends HashMap {
     super(capacity);
   }
 
+  /**
+   * @param capacity the capacity of the hash map created
+   * @param hashStrategy the hash function applied to keys
+   */
+  public HashMapLinearProbingWithRebuilds(final int capacity, final HashStrategy hashStrategy) {
+    super(capacity, hashStrategy);
+  }
+
   @Override
   public boolean isActive(final int probe) {
     return (states[probe] > 0);
@@ -40,9 +48,9 @@ public class HashMapLinearProbingWithRebuilds extends HashMap {
   }
 
   @Override
-  public void keepOnlyLargerThan(final long thresholdValue) {
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
     final HashMapLinearProbingWithRebuilds rebuiltHashMap =
-        new HashMapLinearProbingWithRebuilds(capacity);
+        new HashMapLinearProbingWithRebuilds(capacity, hashStrategy);
     for (int i = 0; i < length; i++) {
       if (states[i] > 0 && values[i] > thresholdValue) {
         rebuiltHashMap.adjustOrPutValue(keys[i], values[i], values[i]);
@@ -52,6 +60,7 @@ public class HashMapLinearProbingWithRebuilds extends HashMap {
     System.arraycopy(rebuiltHashMap.values, 0, values, 0, length);
     System.arraycopy(rebuiltHashMap.states, 0, states, 0, length);
     size = rebuiltHashMap.getSize();
+    numRebuilds++;
   }
 
   /**
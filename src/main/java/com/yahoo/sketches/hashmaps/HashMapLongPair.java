@@ -0,0 +1,285 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.hashmaps;
+
+import static com.yahoo.sketches.QuickSelect.select;
+
+/**
+ * A hash map from 128-bit keys, given as two longs, to long values, for counting pairs such as
+ * (source, destination) without first hashing them down to a single long. It has the same
+ * operations and the same linear probing with reverse purge as HashMapReverseEfficient. The two
+ * words of a key are stored next to each other in a single array, so that comparing a key reads
+ * one cache line, and the pair is mixed into a single hash only once per operation.
+ */
+public class HashMapLongPair {
+
+  /**
+   * The load factor of the table, the same as HashMap.LOAD_FACTOR
+   */
+  public static final double LOAD_FACTOR = 0.75;
+
+  private final HashStrategy hashStrategy;
+  private final int capacity;
+  private final int length;
+  private final int arrayMask;
+  private int size = 0;
+  // key i occupies keys[2 * i] and keys[2 * i + 1]
+  private final long[] keys;
+  private final long[] values;
+  // drift of each cell, 0 for an empty cell
+  private final short[] states;
+
+  /**
+   * @param capacity the capacity of the hash map created
+   */
+  public HashMapLongPair(final int capacity) {
+    this(capacity, HashStrategy.FMIX64);
+  }
+
+  /**
+   * @param capacity the capacity of the hash map created
+   * @param hashStrategy the hash function applied to the combined words of a key
+   */
+  public HashMapLongPair(final int capacity, final HashStrategy hashStrategy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException(
+          "Received negative or zero value for as initial capacity.");
+    }
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
+    length = Integer.highestOneBit(2 * (int) (capacity / LOAD_FACTOR) - 1);
+    this.capacity = (int) (length * LOAD_FACTOR);
+    arrayMask = length - 1;
+    keys = new long[2 * length];
+    values = new long[length];
+    states = new short[length];
+  }
+
+  /**
+   * @param key0 the first word of the key
+   * @param key1 the second word of the key
+   * @return the positive value the key corresponds to or zero if the key is not found
+   */
+  public long get(final long key0, final long key1) {
+    int probe = (int) hash(key0, key1) & arrayMask;
+    while (states[probe] > 0) {
+      if (keys[2 * probe] == key0 && keys[2 * probe + 1] == key1) {
+        return values[probe];
+      }
+      probe = (probe + 1) & arrayMask;
+    }
+    return 0;
+  }
+
+  /**
+   * Increments the value mapped to the key if the key is present in the map. Otherwise, the key is
+   * inserted with the value.
+   *
+   * @param key0 the first word of the key
+   * @param key1 the second word of the key
+   * @param value the value increment by, or to put into the map if the key is not present
+   */
+  public void adjust(final long key0, final long key1, final long value) {
+    adjustOrPutValue(key0, key1, value, value);
+  }
+
+  /**
+   * Increments the value mapped to the key if the key is present in the map. Otherwise, the key is
+   * inserted with the putAmount.
+   *
+   * @param key0 the first word of the key
+   * @param key1 the second word of the key
+   * @param adjustAmount the amount by which to increment the value
+   * @param putAmount the value put into the map if the key is not present
+   */
+  public void adjustOrPutValue(final long key0, final long key1, final long adjustAmount,
+      final long putAmount) {
+    int probe = (int) hash(key0, key1) & arrayMask;
+    int drift = 1;
+    while (states[probe] != 0) {
+      if (keys[2 * probe] == key0 && keys[2 * probe + 1] == key1) {
+        values[probe] += adjustAmount;
+        return;
+      }
+      probe = (probe + 1) & arrayMask;
+      drift++;
+      assert (drift < 512);
+    }
+    assert (size <= capacity);
+    keys[2 * probe] = key0;
+    keys[2 * probe + 1] = key1;
+    values[probe] = putAmount;
+    states[probe] = (short) drift;
+    size++;
+  }
+
+  /**
+   * @param adjustAmount value by which to shift all values.
+   */
+  public void adjustAllValuesBy(final long adjustAmount) {
+    for (int i = length; i-- > 0;) {
+      values[i] += adjustAmount;
+    }
+  }
+
+  /**
+   * @param thresholdValue Only keys corresponding to values larger than thresholdValue are
+   *        retained.
+   */
+  public void keepOnlyLargerThan(final long thresholdValue) {
+    int firstProbe = length - 1;
+    while (states[firstProbe] > 0) {
+      firstProbe--;
+    }
+
+    for (int probe = firstProbe; probe-- > 0;) {
+      if (states[probe] > 0 && values[probe] <= thresholdValue) {
+        hashDelete(probe);
+        size--;
+      }
+    }
+    for (int probe = length; probe-- > firstProbe;) {
+      if (states[probe] > 0 && values[probe] <= thresholdValue) {
+        hashDelete(probe);
+        size--;
+      }
+    }
+  }
+
+  /**
+   * @param probe location in the hash table array
+   * @return true if the cell in the array contains an active key
+   */
+  public boolean isActive(final int probe) {
+    return (states[probe] > 0);
+  }
+
+  /**
+   * Passes every active entry of the map to the consumer, in no particular order. The consumer must
+   * not modify this map.
+   *
+   * @param consumer receives the entries
+   */
+  public void forEach(final LongPairLongConsumer consumer) {
+    for (int i = 0; i < length; i++) {
+      if (states[i] > 0) {
+        consumer.accept(keys[2 * i], keys[2 * i + 1], values[i]);
+      }
+    }
+  }
+
+  /**
+   * @return an array of twice the size of the map holding the two words of every active key one
+   *         after the other, in the order of getValues
+   */
+  public long[] getKeys() {
+    final long[] returnedKeys = new long[2 * size];
+    int j = 0;
+    for (int i = 0; i < length; i++) {
+      if (states[i] > 0) {
+        returnedKeys[j++] = keys[2 * i];
+        returnedKeys[j++] = keys[2 * i + 1];
+      }
+    }
+    assert (j == 2 * size);
+    return returnedKeys;
+  }
+
+  /**
+   * @return an array containing the values of the active keys
+   */
+  public long[] getValues() {
+    final long[] returnedValues = new long[size];
+    int j = 0;
+    for (int i = 0; i < length; i++) {
+      if (states[i] > 0) {
+        returnedValues[j++] = values[i];
+      }
+    }
+    assert (j == size);
+    return returnedValues;
+  }
+
+  /**
+   * @param relativeRank the rank sought, as a fraction of the sample size
+   * @param sampleSize the number of values sampled, from the start of the table
+   * @return the value of the given relative rank among the sampled values
+   */
+  public long quickSelect(final double relativeRank, int sampleSize) {
+    if (sampleSize >= size) { sampleSize = size; }
+    final long[] vals = new long[sampleSize];
+    int i = 0, j = 0;
+    while (i < sampleSize) {
+      if (states[j] > 0) {
+        vals[i] = values[j];
+        i++;
+      }
+      j++;
+    }
+    return select(vals, 0, sampleSize - 1, (int) (sampleSize * relativeRank));
+  }
+
+  /**
+   * @return length of hash table internal arrays
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return capacity of hash table internal arrays (i.e., max number of keys that can be stored)
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return number of populated keys
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return the hash function applied to keys by this map
+   */
+  public HashStrategy getHashStrategy() {
+    return hashStrategy;
+  }
+
+  /**
+   * The second word goes through a multiplication by an odd constant and a rotation, which are both
+   * invertible, so for a fixed first word distinct second words never meet before the strategy
+   * mixes them.
+   */
+  private long hash(final long key0, final long key1) {
+    return hashStrategy.hash(key0 ^ Long.rotateLeft(key1 * 0x9e3779b97f4a7c15L, 31));
+  }
+
+  private void hashDelete(int deleteProbe) {
+    // the same backward shift as HashMapReverseEfficient
+    states[deleteProbe] = 0;
+    int drift = 1;
+    int probe = (deleteProbe + drift) & arrayMask;
+    while (states[probe] != 0) {
+      if (states[probe] > drift) {
+        keys[2 * deleteProbe] = keys[2 * probe];
+        keys[2 * deleteProbe + 1] = keys[2 * probe + 1];
+        values[deleteProbe] = values[probe];
+        states[deleteProbe] = (short) (states[probe] - drift);
+        states[probe] = 0;
+        drift = 0;
+        deleteProbe = probe;
+      }
+      probe = (probe + 1) & arrayMask;
+      drift++;
+      assert (drift < 512);
+    }
+  }
+
+}
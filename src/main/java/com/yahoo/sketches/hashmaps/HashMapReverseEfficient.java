@@ -6,6 +6,13 @@
 
 package com.yahoo.sketches.hashmaps;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import com.yahoo.memory.Memory;
+import com.yahoo.memory.NativeMemory;
+
 /**
  * Implements a linear-probing based hash table. Supports a purge operation that removes all keys in
  * the table whose associated values are below a threshold. This purge operation is done starting at
@@ -13,6 +20,36 @@ package com.yahoo.sketches.hashmaps;
  */
 public class HashMapReverseEfficient extends HashMap {
 
+  /**
+   * The serialization version of the binary image, see toByteArray
+   */
+  public static final int IMAGE_SER_VER = 1;
+
+  /**
+   * The number of bytes of the preamble of the binary image, see toByteArray
+   */
+  public static final int IMAGE_PREAMBLE_BYTES = 16;
+
+  /**
+   * Tables shorter than this are always purged by a single thread
+   */
+  public static final int PARALLEL_PURGE_MIN_LENGTH = 1 << 16;
+
+  /**
+   * The number of ranges a parallel purge splits the table into per thread of the pool, so that a
+   * few long clusters do not leave the other threads idle
+   */
+  static final int RANGES_PER_THREAD = 4;
+
+  /**
+   * The cell most recently visited by drainTo, or -1 if draining has not started.
+   */
+  private int drainProbe = -1;
+
+  /**
+   * The pool that purges large tables in parallel, or null to always purge on the calling thread
+   */
+  private ForkJoinPool purgePool = null;
 
   /**
    * Constructs a hash table
@@ -23,11 +60,24 @@ public class HashMapReverseEfficient extends HashMap {
     super(capacity);
   }
 
+  /**
+   * @param capacity the capacity of the hash map created
+   * @param hashStrategy the hash function applied to keys
+   */
+  public HashMapReverseEfficient(final int capacity, final HashStrategy hashStrategy) {
+    super(capacity, hashStrategy);
+  }
+
   @Override
   public boolean isActive(final int probe) {
     return (states[probe] > 0);
   }
 
+  @Override
+  protected int probeLength(final int probe) {
+    return states[probe];
+  }
+
   @Override
   public long get(final long key) {
     final int probe = hashProbe(key);
@@ -63,8 +113,32 @@ public class HashMapReverseEfficient extends HashMap {
     }
   }
 
+  /**
+   * Lets adjustAllValuesBy and keepOnlyLargerThan use the given pool for tables of at least
+   * PARALLEL_PURGE_MIN_LENGTH cells. The result of a purge does not depend on the pool.
+   *
+   * @param purgePool the pool to run on, or null to always run on the calling thread
+   */
+  public void setPurgePool(final ForkJoinPool purgePool) {
+    this.purgePool = purgePool;
+  }
+
   @Override
-  public void keepOnlyLargerThan(final long thresholdValue) {
+  public void adjustAllValuesBy(final long adjustAmount) {
+    if (purgePool == null || length < PARALLEL_PURGE_MIN_LENGTH) {
+      super.adjustAllValuesBy(adjustAmount);
+      return;
+    }
+    purgePool.invoke(new AdjustTask(0, length, adjustAmount,
+        length / (RANGES_PER_THREAD * purgePool.getParallelism())));
+  }
+
+  @Override
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
+    if (purgePool != null && length >= PARALLEL_PURGE_MIN_LENGTH) {
+      parallelKeepOnlyLargerThan(thresholdValue);
+      return;
+    }
     int firstProbe = length - 1;
     while (states[firstProbe] > 0) {
       firstProbe--;
@@ -84,6 +158,137 @@ public class HashMapReverseEfficient extends HashMap {
     }
   }
 
+  /**
+   * Moves up to maxEntries (key, value) pairs from this table into the target table, removing them
+   * from this table. Like keepOnlyLargerThan, the array is swept from the back toward the front
+   * starting at an empty cell, so every cell ahead of the one being removed is already empty and no
+   * entry ever has to be shifted. Repeated calls continue where the previous one stopped, and
+   * lookups on this table remain valid for the entries that have not been moved yet. Keys must not
+   * be inserted into this table once draining has started.
+   *
+   * @param target the table that receives the moved entries
+   * @param maxEntries the maximum number of entries to move during this call
+   * @return the number of entries still left in this table
+   */
+  public int drainTo(final HashMap target, final int maxEntries) {
+    if (drainProbe < 0) {
+      drainProbe = length - 1;
+      while (states[drainProbe] > 0) {
+        drainProbe--;
+      }
+    }
+    int moved = 0;
+    while (moved < maxEntries && size > 0) {
+      drainProbe = (drainProbe - 1) & arrayMask;
+      if (states[drainProbe] > 0) {
+        target.adjust(keys[drainProbe], values[drainProbe]);
+        states[drainProbe] = 0;
+        size--;
+        moved++;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * A deletion only ever moves keys backward within their cluster, the run of occupied cells
+   * that ends at an empty cell. The table is therefore cut at empty cells into ranges of whole
+   * clusters, and each range is swept from the back exactly as in the sequential purge,
+   * independently of the others.
+   */
+  private void parallelKeepOnlyLargerThan(final long thresholdValue) {
+    int firstProbe = length - 1;
+    while (states[firstProbe] > 0) {
+      firstProbe--;
+    }
+    // boundaries are offsets from firstProbe, and every boundary but length is an empty cell
+    final int numRanges = RANGES_PER_THREAD * purgePool.getParallelism();
+    final int[] boundaries = new int[numRanges + 1];
+    for (int i = 1; i < numRanges; i++) {
+      int boundary = Math.max(boundaries[i - 1], (int) ((long) length * i / numRanges));
+      while (boundary < length && states[(firstProbe + boundary) & arrayMask] > 0) {
+        boundary++;
+      }
+      boundaries[i] = boundary;
+    }
+    boundaries[numRanges] = length;
+    size -= purgePool.invoke(new PurgeTask(firstProbe, boundaries, 0, numRanges, thresholdValue));
+  }
+
+  /**
+   * Purges the ranges between boundaries[lo] and boundaries[hi], and returns the number of keys
+   * removed
+   */
+  private final class PurgeTask extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 1L;
+    private final int firstProbe;
+    private final int[] boundaries;
+    private final int lo;
+    private final int hi;
+    private final long thresholdValue;
+
+    PurgeTask(final int firstProbe, final int[] boundaries, final int lo, final int hi,
+        final long thresholdValue) {
+      this.firstProbe = firstProbe;
+      this.boundaries = boundaries;
+      this.lo = lo;
+      this.hi = hi;
+      this.thresholdValue = thresholdValue;
+    }
+
+    @Override
+    protected Integer compute() {
+      if (hi - lo > 1) {
+        final int mid = (lo + hi) >>> 1;
+        final PurgeTask right = new PurgeTask(firstProbe, boundaries, mid, hi, thresholdValue);
+        right.fork();
+        final PurgeTask left = new PurgeTask(firstProbe, boundaries, lo, mid, thresholdValue);
+        final int deleted = left.compute();
+        return deleted + right.join();
+      }
+      int deleted = 0;
+      for (int offset = boundaries[hi]; offset-- > boundaries[lo];) {
+        final int probe = (firstProbe + offset) & arrayMask;
+        if (states[probe] > 0 && values[probe] <= thresholdValue) {
+          hashDelete(probe);
+          deleted++;
+        }
+      }
+      return deleted;
+    }
+  }
+
+  /**
+   * Adds adjustAmount to the values of the cells from start to end
+   */
+  private final class AdjustTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int start;
+    private final int end;
+    private final long adjustAmount;
+    private final int grain;
+
+    AdjustTask(final int start, final int end, final long adjustAmount, final int grain) {
+      this.start = start;
+      this.end = end;
+      this.adjustAmount = adjustAmount;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start > grain) {
+        final int mid = (start + end) >>> 1;
+        invokeAll(new AdjustTask(start, mid, adjustAmount, grain),
+            new AdjustTask(mid, end, adjustAmount, grain));
+        return;
+      }
+      for (int i = start; i < end; i++) {
+        values[i] += adjustAmount;
+      }
+    }
+  }
+
   private int hashProbe(final long key) {
     int probe = (int) hash(key) & arrayMask;
     while (states[probe] > 0 && keys[probe] != key) {
@@ -117,6 +322,83 @@ public class HashMapReverseEfficient extends HashMap {
     }
   }
 
+  // @formatter:off
+  /**
+   * Returns a binary image of this table that stores the probe table exactly as it is laid out on
+   * the heap, so that the image can be queried in place with HashMapReverseEfficientImage. The
+   * multi-byte values are in native byte order.
+   *
+   * <pre>
+   * Bytes  0 -  7 ||----------size----------|--lgLength--|--strategy--|--serVer--|--preLongs--|
+   * Bytes  8 - 15 ||--------(unused)--------|------------------capacity-----------------------|
+   * Bytes 16 -    || keys[length], values[length], states[length], padded to a multiple of 8
+   * </pre>
+   *
+   * @return the binary image of this table
+   */
+  // @formatter:on
+  public byte[] toByteArray() {
+    final byte[] outArr = new byte[(int) getImageBytes(length)];
+    putMemory(new NativeMemory(outArr));
+    return outArr;
+  }
+
+  /**
+   * Writes the binary image of this table, as described in toByteArray, to the given Memory
+   *
+   * @param dstMem the destination, at least as large as the image
+   */
+  public void putMemory(final Memory dstMem) {
+    final long imageBytes = getImageBytes(length);
+    if (dstMem.getCapacity() < imageBytes) {
+      throw new IllegalArgumentException(
+          "Destination Memory not large enough: " + dstMem.getCapacity() + " < " + imageBytes);
+    }
+    final long pre0 = (IMAGE_PREAMBLE_BYTES >>> 3)
+        | (IMAGE_SER_VER << 8)
+        | (HashStrategy.toId(hashStrategy) << 16)
+        | (Integer.numberOfTrailingZeros(length) << 24)
+        | ((long) size << 32);
+    dstMem.putLong(0, pre0);
+    dstMem.putLong(8, capacity);
+    dstMem.putLongArray(IMAGE_PREAMBLE_BYTES, keys, 0, length);
+    dstMem.putLongArray(IMAGE_PREAMBLE_BYTES + ((long) length << 3), values, 0, length);
+    dstMem.putShortArray(IMAGE_PREAMBLE_BYTES + ((long) length << 4), states, 0, length);
+  }
+
+  /**
+   * Heapifies a binary image written by toByteArray or putMemory
+   *
+   * @param srcMem the binary image of a table
+   * @return a HashMapReverseEfficient on the Java heap with the same contents and layout
+   * @throws IllegalArgumentException if srcMem is not a valid image
+   */
+  public static HashMapReverseEfficient heapify(final Memory srcMem) {
+    final HashMapReverseEfficientImage image = HashMapReverseEfficientImage.wrap(srcMem);
+    final HashMapReverseEfficient table =
+        new HashMapReverseEfficient(image.getCapacity(), image.getHashStrategy());
+    if (table.length != image.getLength()) {
+      throw new IllegalArgumentException("Corrupt image, capacity " + image.getCapacity()
+          + " does not match length " + image.getLength());
+    }
+    // copying the arrays keeps every key in the cell it was probed into
+    srcMem.getLongArray(IMAGE_PREAMBLE_BYTES, table.keys, 0, table.length);
+    srcMem.getLongArray(IMAGE_PREAMBLE_BYTES + ((long) table.length << 3), table.values, 0,
+        table.length);
+    srcMem.getShortArray(IMAGE_PREAMBLE_BYTES + ((long) table.length << 4), table.states, 0,
+        table.length);
+    table.size = image.getSize();
+    return table;
+  }
+
+  /**
+   * @param length the length of the arrays of a table
+   * @return the number of bytes of the binary image of a table with arrays of this length
+   */
+  public static long getImageBytes(final int length) {
+    return IMAGE_PREAMBLE_BYTES + ((long) length << 4) + ((((long) length << 1) + 7) & ~7L);
+  }
+
   /**
    * Turns the HashMapReverseEfficient object into a string listing properties of the table and all
    * the (key, value) pairs that the table contains.
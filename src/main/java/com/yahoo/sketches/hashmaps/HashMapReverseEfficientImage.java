@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.hashmaps;
+
+import static com.yahoo.sketches.QuickSelect.select;
+import static com.yahoo.sketches.hashmaps.HashMapReverseEfficient.IMAGE_PREAMBLE_BYTES;
+import static com.yahoo.sketches.hashmaps.HashMapReverseEfficient.IMAGE_SER_VER;
+
+import com.yahoo.memory.Memory;
+
+/**
+ * A read-only view of the binary image of a HashMapReverseEfficient, as written by its toByteArray
+ * or putMemory. Lookups probe the image directly, exactly as the heap table would probe its arrays,
+ * so wrapping an image costs nothing but the validation of its preamble. The image may live
+ * anywhere a Memory can point to, including a memory-mapped file.
+ *
+ * <p>The view never copies the image, and methods that would modify the table throw
+ * UnsupportedOperationException. Use HashMapReverseEfficient.heapify for a modifiable copy.</p>
+ */
+public final class HashMapReverseEfficientImage extends HashMap {
+
+  private final Memory mem;
+  private final long valuesOffset;
+  private final long statesOffset;
+
+  private HashMapReverseEfficientImage(final Memory mem, final int length, final int capacity,
+      final int size, final HashStrategy hashStrategy) {
+    this.mem = mem;
+    this.length = length;
+    this.capacity = capacity;
+    this.size = size;
+    this.hashStrategy = hashStrategy;
+    arrayMask = length - 1;
+    valuesOffset = IMAGE_PREAMBLE_BYTES + ((long) length << 3);
+    statesOffset = IMAGE_PREAMBLE_BYTES + ((long) length << 4);
+  }
+
+  /**
+   * Wraps the binary image of a HashMapReverseEfficient without copying it
+   *
+   * @param srcMem the binary image of a table
+   * @return a read-only table that answers queries against srcMem
+   */
+  public static HashMapReverseEfficientImage wrap(final Memory srcMem) {
+    if (srcMem.getCapacity() < IMAGE_PREAMBLE_BYTES) {
+      throw new IllegalArgumentException("Memory too small: " + srcMem.getCapacity());
+    }
+    final long pre0 = srcMem.getLong(0);
+    final int preBytes = ((int) pre0 & 0xff) << 3;
+    final int serVer = (int) (pre0 >>> 8) & 0xff;
+    final int strategyId = (int) (pre0 >>> 16) & 0xff;
+    final int lgLength = (int) (pre0 >>> 24) & 0xff;
+    final int size = (int) (pre0 >>> 32);
+    if (preBytes != IMAGE_PREAMBLE_BYTES || serVer != IMAGE_SER_VER) {
+      throw new IllegalArgumentException("Not a HashMapReverseEfficient image, serVer: " + serVer);
+    }
+    if (lgLength > 30) {
+      throw new IllegalArgumentException("Corrupt image, lgLength: " + lgLength);
+    }
+    final int length = 1 << lgLength;
+    final int capacity = (int) srcMem.getLong(8);
+    // a table always keeps an empty cell, which ends every probe sequence
+    if (size < 0 || size > capacity || size >= length || capacity > length) {
+      throw new IllegalArgumentException(
+          "Corrupt image, size: " + size + ", capacity: " + capacity + ", length: " + length);
+    }
+    final long imageBytes = HashMapReverseEfficient.getImageBytes(length);
+    if (srcMem.getCapacity() < imageBytes) {
+      throw new IllegalArgumentException(
+          "Memory too small for image: " + srcMem.getCapacity() + " < " + imageBytes);
+    }
+    return new HashMapReverseEfficientImage(srcMem, length, capacity, size,
+        HashStrategy.fromId(strategyId));
+  }
+
+  @Override
+  public boolean isActive(final int probe) {
+    return stateAt(probe) > 0;
+  }
+
+  @Override
+  protected int probeLength(final int probe) {
+    return stateAt(probe);
+  }
+
+  @Override
+  public long get(final long key) {
+    int probe = (int) hash(key) & arrayMask;
+    // bounded by the length, so that an image whose states were corrupted to leave no empty cell
+    // answers 0 rather than probing forever
+    for (int i = 0; i < length && stateAt(probe) > 0; i++) {
+      if (keyAt(probe) == key) {
+        return valueAt(probe);
+      }
+      probe = (probe + 1) & arrayMask;
+    }
+    return 0;
+  }
+
+  @Override
+  public void forEach(final LongLongConsumer consumer) {
+    for (int i = 0; i < length; i++) {
+      if (stateAt(i) > 0) {
+        consumer.accept(keyAt(i), valueAt(i));
+      }
+    }
+  }
+
+  @Override
+  public long[] getKeys() {
+    if (size == 0) {
+      return null;
+    }
+    final long[] returnedKeys = new long[size];
+    int j = 0;
+    for (int i = 0; i < length; i++) {
+      if (stateAt(i) > 0) {
+        returnedKeys[j] = keyAt(i);
+        j++;
+      }
+    }
+    assert (j == size);
+    return returnedKeys;
+  }
+
+  @Override
+  public long[] getValues() {
+    if (size == 0) {
+      return null;
+    }
+    final long[] returnedValues = new long[size];
+    int j = 0;
+    for (int i = 0; i < length; i++) {
+      if (stateAt(i) > 0) {
+        returnedValues[j] = valueAt(i);
+        j++;
+      }
+    }
+    assert (j == size);
+    return returnedValues;
+  }
+
+  @Override
+  public long quickSelect(final double ralativeRank, int sampleSize) {
+    final int numActive = getSize();
+    if (sampleSize >= numActive) { sampleSize = numActive; }
+    final long[] vals = new long[sampleSize];
+    int i = 0, j = 0;
+    while (i < sampleSize) {
+      if (stateAt(j) > 0) {
+        vals[i] = valueAt(j);
+        i++;
+      }
+      j++;
+    }
+    return select(vals, 0, sampleSize - 1, (int) (sampleSize * ralativeRank));
+  }
+
+  @Override
+  public void adjustOrPutValue(final long key, final long adjustAmount, final long putAmount) {
+    throw new UnsupportedOperationException("The image is read-only.");
+  }
+
+  @Override
+  public void adjustAllValuesBy(final long adjustAmount) {
+    throw new UnsupportedOperationException("The image is read-only.");
+  }
+
+  @Override
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
+    throw new UnsupportedOperationException("The image is read-only.");
+  }
+
+  @Override
+  public long[] ProtectedGetKey() {
+    throw new UnsupportedOperationException("The image has no key array.");
+  }
+
+  @Override
+  public long[] ProtectedGetValues() {
+    throw new UnsupportedOperationException("The image has no value array.");
+  }
+
+  @Override
+  public void print() {
+    for (int i = 0; i < length; i++) {
+      System.out.format("%3d: (%4d,%4d,%3d)\n", i, stateAt(i), keyAt(i), valueAt(i));
+    }
+    System.out.format("=====================\n");
+  }
+
+  private long keyAt(final int probe) {
+    return mem.getLong(IMAGE_PREAMBLE_BYTES + ((long) probe << 3));
+  }
+
+  private long valueAt(final int probe) {
+    return mem.getLong(valuesOffset + ((long) probe << 3));
+  }
+
+  private short stateAt(final int probe) {
+    return mem.getShort(statesOffset + ((long) probe << 1));
+  }
+
+}
@@ -36,11 +36,28 @@ public class HashMapReverseEfficientOneArray extends HashMap {
     this.kvsArray = new long[kvsLength];
   }
 
+  /**
+   * @param capacity the capacity of the hash map created
+   * @param hashStrategy the hash function applied to keys
+   */
+  public HashMapReverseEfficientOneArray(final int capacity, final HashStrategy hashStrategy) {
+    this(capacity);
+    if (hashStrategy == null) {
+      throw new IllegalArgumentException("hashStrategy must not be null.");
+    }
+    this.hashStrategy = hashStrategy;
+  }
+
   @Override
   public boolean isActive(final int probe) {
     return (kvsArray[probe * KVS_SIZE + STATE_OFFSET] > 0);
   }
 
+  @Override
+  protected int probeLength(final int probe) {
+    return (int) kvsArray[probe * KVS_SIZE + STATE_OFFSET];
+  }
+
   @Override
   public long[] getKeys() {
     if (size == 0) {
@@ -76,6 +93,15 @@ public class HashMapReverseEfficientOneArray extends HashMap {
   }
 
 
+  @Override
+  public void forEach(final LongLongConsumer consumer) {
+    for (int kvsProbe = 0; kvsProbe < kvsLength; kvsProbe += KVS_SIZE) {
+      if (kvsArray[kvsProbe + STATE_OFFSET] > 0) {
+        consumer.accept(kvsArray[kvsProbe + KEY_OFFSET], kvsArray[kvsProbe + VALUE_OFFSET]);
+      }
+    }
+  }
+
   @Override
   public long get(final long key) {
     int probe = (int) hash(key) & arrayMask;
@@ -121,7 +147,7 @@ public class HashMapReverseEfficientOneArray extends HashMap {
 
 
   @Override
-  public void keepOnlyLargerThan(final long thresholdValue) {
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
     int firstProbe = length - 1;
     while (kvsArray[firstProbe * KVS_SIZE + STATE_OFFSET] > 0) {
       firstProbe--;
@@ -15,11 +15,24 @@ public class HashMapRobinHood extends HashMap {
     super(capacity);
   }
 
+  /**
+   * @param capacity the capacity of the hash map created
+   * @param hashStrategy the hash function applied to keys
+   */
+  public HashMapRobinHood(final int capacity, final HashStrategy hashStrategy) {
+    super(capacity, hashStrategy);
+  }
+
   @Override
   public boolean isActive(final int probe) {
     return (states[probe] > 0);
   }
 
+  @Override
+  protected int probeLength(final int probe) {
+    return states[probe];
+  }
+
   @Override
   public long get(final long key) {
     int probe = (int) hash(key) & arrayMask;
@@ -76,7 +89,7 @@ public class HashMapRobinHood extends HashMap {
   }
 
   @Override
-  public void keepOnlyLargerThan(final long thresholdValue) {
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
     // first probe is the last vacant cell before an occupied one
     int firstProbe = 0;
     while (states[firstProbe] > 0) {
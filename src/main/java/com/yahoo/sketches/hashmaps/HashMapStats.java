@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.hashmaps;
+
+/**
+ * A snapshot of the shape and the purge history of a HashMap, returned by HashMap.getStats.
+ *
+ * <p>The probe lengths are read off the table when the snapshot is taken, from the drift that the
+ * tables already store or from the hash of the key, so collecting them costs nothing while the
+ * table is being updated. To keep the snapshot cheap on large tables only every sampleStride-th
+ * cell is examined; the probe length histogram, the maximum probe length and the tombstone count
+ * refer to the examined cells. The purge and rebuild counts are exact.</p>
+ *
+ * <p>The probe length of a key is the number of cells, or buckets for the cuckoo table, that a
+ * successful lookup of the key reads. A key in its home cell has probe length 1.</p>
+ */
+public final class HashMapStats {
+
+  /**
+   * The last bucket of the histogram counts all the probe lengths from this value up
+   */
+  public static final int MAX_HISTOGRAM_PROBE_LENGTH = 64;
+
+  private final int size;
+  private final int length;
+  private final int sampleStride;
+  private final long[] probeLengthHistogram;
+  private final long sampledKeys;
+  private final long sumProbeLengths;
+  private final int maxProbeLength;
+  private final long tombstones;
+  private final long numPurges;
+  private final long numRebuilds;
+  private final long purgeNanos;
+
+  HashMapStats(final int size, final int length, final int sampleStride,
+      final long[] probeLengthHistogram, final long sumProbeLengths, final int maxProbeLength,
+      final long tombstones, final long numPurges, final long numRebuilds, final long purgeNanos) {
+    this.size = size;
+    this.length = length;
+    this.sampleStride = sampleStride;
+    this.probeLengthHistogram = probeLengthHistogram;
+    long keys = 0;
+    for (final long count: probeLengthHistogram) {
+      keys += count;
+    }
+    this.sampledKeys = keys;
+    this.sumProbeLengths = sumProbeLengths;
+    this.maxProbeLength = maxProbeLength;
+    this.tombstones = tombstones;
+    this.numPurges = numPurges;
+    this.numRebuilds = numRebuilds;
+    this.purgeNanos = purgeNanos;
+  }
+
+  /**
+   * @return the number of keys in the table
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return the number of cells of the table
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return the fraction of the cells holding a key
+   */
+  public double getLoad() {
+    return (length == 0) ? 0 : (double) size / length;
+  }
+
+  /**
+   * @return the distance between two examined cells, 1 if every cell was examined
+   */
+  public int getSampleStride() {
+    return sampleStride;
+  }
+
+  /**
+   * @return the number of examined keys by probe length. Entry i counts the keys with probe length
+   *         i, and the last entry those with probe length MAX_HISTOGRAM_PROBE_LENGTH or more.
+   */
+  public long[] getProbeLengthHistogram() {
+    return probeLengthHistogram.clone();
+  }
+
+  /**
+   * @return the number of keys examined
+   */
+  public long getSampledKeys() {
+    return sampledKeys;
+  }
+
+  /**
+   * @return the mean probe length of the examined keys
+   */
+  public double getMeanProbeLength() {
+    return (sampledKeys == 0) ? 0 : (double) sumProbeLengths / sampledKeys;
+  }
+
+  /**
+   * @return the longest probe length among the examined keys
+   */
+  public int getMaxProbeLength() {
+    return maxProbeLength;
+  }
+
+  /**
+   * @return the number of examined cells holding a deleted key that still lengthens probes
+   */
+  public long getTombstones() {
+    return tombstones;
+  }
+
+  /**
+   * @return the number of calls to keepOnlyLargerThan
+   */
+  public long getNumPurges() {
+    return numPurges;
+  }
+
+  /**
+   * @return the number of times the table was rebuilt into fresh arrays
+   */
+  public long getNumRebuilds() {
+    return numRebuilds;
+  }
+
+  /**
+   * @return the total time spent in keepOnlyLargerThan, in nanoseconds
+   */
+  public long getPurgeNanos() {
+    return purgeNanos;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(String.format("size: %d, length: %d, load: %.3f%n", size, length, getLoad()));
+    sb.append(String.format("sampled keys: %d (every %d cells), mean probe length: %.3f, "
+        + "max probe length: %d, tombstones: %d%n", sampledKeys, sampleStride,
+        getMeanProbeLength(), maxProbeLength, tombstones));
+    sb.append(String.format("purges: %d, rebuilds: %d, purge time: %.3f ms%n", numPurges,
+        numRebuilds, purgeNanos / 1e6));
+    for (int i = 1; i < probeLengthHistogram.length; i++) {
+      if (probeLengthHistogram[i] > 0) {
+        sb.append(String.format("%s%d: %d%n", (i == MAX_HISTOGRAM_PROBE_LENGTH) ? ">=" : "", i,
+            probeLengthHistogram[i]));
+      }
+    }
+    return sb.toString();
+  }
+
+}
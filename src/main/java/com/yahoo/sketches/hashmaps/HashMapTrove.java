@@ -44,7 +44,7 @@ public class HashMapTrove extends HashMap {
   }
 
   @Override
-  public void keepOnlyLargerThan(final long thresholdValue) {
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
     hashmap.retainEntries(new GreaterThenThreshold(thresholdValue));
   }
 
@@ -53,6 +53,25 @@ public class HashMapTrove extends HashMap {
     hashmap.transformValues(new AdjustAllValuesBy(adjustAmount));
   }
 
+  @Override
+  public void forEach(final LongLongConsumer consumer) {
+    hashmap.forEachEntry(new ForEachEntry(consumer));
+  }
+
+  private static class ForEachEntry implements TLongLongProcedure {
+    final LongLongConsumer consumer;
+
+    public ForEachEntry(final LongLongConsumer consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public boolean execute(final long key, final long value) {
+      consumer.accept(key, value);
+      return true;
+    }
+  }
+
   @Override
   public long[] getKeys() {
     return hashmap.keys();
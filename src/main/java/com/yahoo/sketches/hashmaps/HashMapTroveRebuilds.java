@@ -10,6 +10,7 @@ import static com.yahoo.sketches.QuickSelect.select;
 import gnu.trove.function.TLongFunction;
 import gnu.trove.iterator.TLongLongIterator;
 import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.procedure.TLongLongProcedure;
 
 public class HashMapTroveRebuilds extends HashMap {
 
@@ -49,7 +50,7 @@ public class HashMapTroveRebuilds extends HashMap {
   }
 
   @Override
-  public void keepOnlyLargerThan(final long thresholdValue) {
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
     final TLongLongHashMap newHashmap = new TLongLongHashMap(capacity);
     final TLongLongIterator iterator = hashmap.iterator();
     for (int i = hashmap.size(); i-- > 0;) {
@@ -59,6 +60,26 @@ public class HashMapTroveRebuilds extends HashMap {
       }
     }
     hashmap = newHashmap;
+    numRebuilds++;
+  }
+
+  @Override
+  public void forEach(final LongLongConsumer consumer) {
+    hashmap.forEachEntry(new ForEachEntry(consumer));
+  }
+
+  private static class ForEachEntry implements TLongLongProcedure {
+    final LongLongConsumer consumer;
+
+    public ForEachEntry(final LongLongConsumer consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public boolean execute(final long key, final long value) {
+      consumer.accept(key, value);
+      return true;
+    }
   }
 
   @Override
@@ -11,6 +11,14 @@ public class HashMapWithEfficientDeletes extends HashMap {
     super(capacity);
   }
 
+  /**
+   * @param capacity the capacity of the hash map created
+   * @param hashStrategy the hash function applied to keys
+   */
+  public HashMapWithEfficientDeletes(final int capacity, final HashStrategy hashStrategy) {
+    super(capacity, hashStrategy);
+  }
+
   @Override
   public long get(final long key) {
     final int probe = hashProbe(key);
@@ -26,6 +34,11 @@ public class HashMapWithEfficientDeletes extends HashMap {
     return (states[probe] > 0);
   }
 
+  @Override
+  protected int probeLength(final int probe) {
+    return states[probe];
+  }
+
   @Override
   public void adjustOrPutValue(final long key, final long adjustAmount, final long putAmount) {
     int probe = (int) hash(key) & arrayMask;
@@ -50,7 +63,7 @@ public class HashMapWithEfficientDeletes extends HashMap {
   }
 
   @Override
-  public void keepOnlyLargerThan(final long thresholdValue) {
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
     for (int probe = 0; probe < length; probe++) {
       if (states[probe] > 0 && values[probe] <= thresholdValue) {
         hashDelete(probe);
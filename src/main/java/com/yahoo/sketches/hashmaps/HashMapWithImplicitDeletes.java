@@ -17,11 +17,24 @@ public class HashMapWithImplicitDeletes extends HashMap {
     super(capacity);
   }
 
+  /**
+   * @param capacity the capacity of the hash map created
+   * @param hashStrategy the hash function applied to keys
+   */
+  public HashMapWithImplicitDeletes(final int capacity, final HashStrategy hashStrategy) {
+    super(capacity, hashStrategy);
+  }
+
   @Override
   public boolean isActive(final int probe) {
     return (states[probe] == 1);
   }
 
+  @Override
+  protected boolean isTombstone(final int probe) {
+    return (states[probe] == DELETED_STATE);
+  }
+
   @Override
   public long get(final long key) {
     final int probe = hashProbe(key);
@@ -44,7 +57,7 @@ public class HashMapWithImplicitDeletes extends HashMap {
   }
 
   @Override
-  public void keepOnlyLargerThan(final long thresholdValue) {
+  protected void doKeepOnlyLargerThan(final long thresholdValue) {
     for (int i = 0; i < length; i++) {
       if (states[i] == OCCUPIED_STATE && values[i] <= thresholdValue) {
         states[i] = DELETED_STATE;
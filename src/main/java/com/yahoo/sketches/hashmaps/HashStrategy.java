@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.hashmaps;
+
+/**
+ * Maps a long key to a 64-bit hash. Hash maps use the low bits of the hash to choose a cell, and
+ * some (double hashing, count-min rows) also use the high bits, so a strategy should mix the input
+ * into both halves of the result. A strategy is passed to a hash map or an estimator when it is
+ * constructed; the shared instances below cover the common cases.
+ */
+public abstract class HashStrategy {
+
+  /**
+   * The 64-bit finalizer of MurmurHash3 (fmix64). Good mixing at the cost of two multiplications.
+   * This is the default for the hash maps.
+   */
+  public static final HashStrategy FMIX64 = new HashStrategy() {
+    @Override
+    public long hash(long key) {
+      key ^= key >>> 33;
+      key *= 0xff51afd7ed558ccdL;
+      key ^= key >>> 33;
+      key *= 0xc4ceb9fe1a85ec53L;
+      key ^= key >>> 33;
+      return key;
+    }
+
+    @Override
+    public String toString() {
+      return "FMIX64";
+    }
+  };
+
+  /**
+   * The full MurmurHash3 of the key with seed 0, first 64 bits. Slowest of the strategies, but
+   * identical to what the count-min sketches have always used. Computed by LongMurmurHash3, which
+   * does not allocate.
+   */
+  public static final HashStrategy MURMUR3 = new HashStrategy() {
+    @Override
+    public long hash(final long key) {
+      return LongMurmurHash3.hash64(key, 0);
+    }
+
+    @Override
+    public String toString() {
+      return "MURMUR3";
+    }
+  };
+
+  /**
+   * Multiply-shift: a single multiplication by the 64-bit golden ratio, with the well-mixed high
+   * word folded onto the low word so that masking off the low bits still depends on the whole key.
+   */
+  public static final HashStrategy MULTIPLY_SHIFT = new HashStrategy() {
+    @Override
+    public long hash(final long key) {
+      final long h = key * 0x9e3779b97f4a7c15L;
+      return h ^ (h >>> 32);
+    }
+
+    @Override
+    public String toString() {
+      return "MULTIPLY_SHIFT";
+    }
+  };
+
+  /**
+   * Returns the key unchanged. Only for keys that are already well mixed, for example keys that
+   * are themselves hashes of the original items.
+   */
+  public static final HashStrategy IDENTITY = new HashStrategy() {
+    @Override
+    public long hash(final long key) {
+      return key;
+    }
+
+    @Override
+    public String toString() {
+      return "IDENTITY";
+    }
+  };
+
+  // the shared strategies in the order of their serialized ids, which must never change
+  private static final HashStrategy[] SERIALIZABLE = {FMIX64, MURMUR3, MULTIPLY_SHIFT, IDENTITY};
+
+  /**
+   * @param key to be hashed
+   * @return a 64-bit hash of the key
+   */
+  public abstract long hash(long key);
+
+  /**
+   * @param hashStrategy one of the shared strategies of this class
+   * @return the id that identifies the strategy in serialized images
+   */
+  public static int toId(final HashStrategy hashStrategy) {
+    for (int i = 0; i < SERIALIZABLE.length; i++) {
+      if (SERIALIZABLE[i] == hashStrategy) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Only the shared strategies can be serialized: "
+        + hashStrategy);
+  }
+
+  /**
+   * @param id an id returned by toId
+   * @return the shared strategy with the given id
+   */
+  public static HashStrategy fromId(final int id) {
+    if (id < 0 || id >= SERIALIZABLE.length) {
+      throw new IllegalArgumentException("Unknown hash strategy id: " + id);
+    }
+    return SERIALIZABLE[id];
+  }
+
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.hashmaps;
+
+/**
+ * Receives the (key, value) pairs of a hash map from HashMap.forEach, without boxing.
+ */
+public interface LongLongConsumer {
+
+  /**
+   * @param key an active key of the hash map
+   * @param value the value mapped to the key
+   */
+  void accept(long key, long value);
+
+}
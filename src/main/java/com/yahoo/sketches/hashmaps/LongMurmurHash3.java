@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.hashmaps;
+
+/**
+ * MurmurHash3 x64_128 of a single long key, computed without allocation. The results are bit for
+ * bit those of com.yahoo.sketches.hash.MurmurHash3.hash(new long[] {key}, seed), which allocates
+ * both the input and the output array on every call.
+ *
+ * <p>A single 128-bit hash is enough to derive several indices from, by double hashing with its
+ * two halves or the two halves of either long, so callers that need one index per row or per
+ * table should hash once and derive the indices rather than hash once per index.</p>
+ */
+public final class LongMurmurHash3 {
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private LongMurmurHash3() {}
+
+  /**
+   * @param key the key to be hashed
+   * @param seed the seed of the hash
+   * @return the first 64 bits of the 128-bit MurmurHash3 of the key
+   */
+  public static long hash64(final long key, final long seed) {
+    long h1 = seed ^ mixK1(key);
+    long h2 = seed;
+    // the length of the input in bytes
+    h1 ^= 8;
+    h2 ^= 8;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    return h1 + h2;
+  }
+
+  /**
+   * @param key the key to be hashed
+   * @param seed the seed of the hash
+   * @param hashOut receives the 128-bit MurmurHash3 of the key in its first two elements
+   * @return hashOut
+   */
+  public static long[] hash128(final long key, final long seed, final long[] hashOut) {
+    long h1 = seed ^ mixK1(key);
+    long h2 = seed;
+    h1 ^= 8;
+    h2 ^= 8;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+    hashOut[0] = h1;
+    hashOut[1] = h2;
+    return hashOut;
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    k1 *= C2;
+    return k1;
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+}
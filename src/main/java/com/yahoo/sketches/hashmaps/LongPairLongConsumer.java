@@ -0,0 +1,20 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.hashmaps;
+
+/**
+ * Receives the (key pair, value) entries of a HashMapLongPair from its forEach, without boxing.
+ */
+public interface LongPairLongConsumer {
+
+  /**
+   * @param key0 the first word of an active key of the hash map
+   * @param key1 the second word of the key
+   * @param value the value mapped to the key
+   */
+  void accept(long key0, long key1, long value);
+
+}
@@ -107,6 +107,19 @@ public class WritableMemoryImplTest {
     }
   }
 
+  @Test
+  public void checkPutShortWritesTwoBytes() {
+    short[] arr = { 1, 2, 3, 4 };
+    WritableMemory wmem = WritableMemory.wrap(arr);
+    wmem.putShort(2, (short) -5);
+    assertEquals(arr[0], 1);
+    assertEquals(arr[1], -5);
+    assertEquals(arr[2], 3);
+    assertEquals(arr[3], 4);
+    wmem.putShort(6, (short) 9); //last two bytes
+    assertEquals(arr[3], 9);
+  }
+
   @Test
   public void checkIntArray() {
     int[] srcArray = { 1, -2, 3, -4, 5, -6, 7, -8 };
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.memory4.WritableMemory;
+import com.yahoo.memory4.WritableResourceHandler;
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+/**
+ * Tests ConcurrentCountMin class
+ */
+public class ConcurrentCountMinTest {
+
+  @Test
+  public void matchesCountMinFast() {
+    ConcurrentCountMin sketch = new ConcurrentCountMin(0.01, 0.01);
+    ConcurrentCountMin conservative = new ConcurrentCountMin(0.01, 0.01);
+    CountMinFast reference = new CountMinFast(0.01, 0.01);
+    CountMinFast conservativeReference = new CountMinFast(0.01, 0.01);
+    Random random = new Random(5);
+    for (int i = 0; i < 20000; i++) {
+      long key = random.nextInt(1000);
+      sketch.update(key, 3);
+      reference.update(key, 3);
+      conservative.conservative_update(key);
+      conservativeReference.conservative_update(key);
+    }
+    for (long key = 0; key < 1000; key++) {
+      Assert.assertEquals(sketch.getEstimate(key), reference.getEstimate(key));
+      Assert.assertEquals(conservative.getEstimate(key), conservativeReference.getEstimate(key));
+    }
+    Assert.assertEquals(sketch.getMaxError(), reference.getMaxError());
+    Assert.assertEquals(sketch.getStreamLength(), 60000);
+  }
+
+  @Test
+  public void concurrentUpdatesAreNotLost() throws Exception {
+    final ConcurrentCountMin sketch = new ConcurrentCountMin(0.001, 0.01);
+    final ConcurrentCountMin conservative = new ConcurrentCountMin(0.001, 0.01);
+    final int threads = 4;
+    final int updatesPerThread = 50000;
+    Thread[] writers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      writers[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < updatesPerThread; i++) {
+            // every thread updates the same keys, so the threads race on every counter
+            sketch.update(i % 100);
+            // conservative updates only race on the counters that different keys share
+            conservative.conservative_update(1000 * thread + i % 100);
+          }
+        }
+      });
+      writers[t].start();
+    }
+    for (Thread writer: writers) {
+      writer.join();
+    }
+    Assert.assertEquals(sketch.getStreamLength(), threads * updatesPerThread);
+    for (long key = 0; key < 100; key++) {
+      Assert.assertTrue(sketch.getEstimate(key) >= threads * updatesPerThread / 100);
+      for (int t = 0; t < threads; t++) {
+        Assert.assertTrue(conservative.getEstimate(1000 * t + key) >= updatesPerThread / 100);
+      }
+    }
+  }
+
+  @Test
+  public void processesShareAMappedFile() throws Exception {
+    File file = File.createTempFile("ConcurrentCountMinTest", ".bin");
+    file.deleteOnExit();
+    // WritableMemory.map only maps files that are writable by others than their owner
+    file.setWritable(true, false);
+    long bytes = ConcurrentCountMin.getMemoryBytes(0.01, 0.05);
+    WritableResourceHandler creatorMap = WritableMemory.map(file, 0, bytes);
+    WritableResourceHandler attachedMap = WritableMemory.map(file, 0, bytes);
+    try {
+      ConcurrentCountMin creator =
+          new ConcurrentCountMin(0.01, 0.05, HashStrategy.FMIX64, creatorMap.get());
+      ConcurrentCountMin attached = ConcurrentCountMin.wrap(attachedMap.get());
+      creator.update(42, 5);
+      attached.update(42, 2);
+      Assert.assertEquals(creator.getEstimate(42), 7);
+      Assert.assertEquals(attached.getEstimate(42), 7);
+      Assert.assertEquals(attached.getStreamLength(), 7);
+    } finally {
+      creatorMap.close();
+      attachedMap.close();
+    }
+  }
+
+  @Test
+  public void mergeAddsCounters() {
+    ConcurrentCountMin sketch = new ConcurrentCountMin(0.01, 0.01);
+    ConcurrentCountMin other = new ConcurrentCountMin(0.01, 0.01);
+    sketch.update(1, 4);
+    other.update(1, 6);
+    sketch.merge(other);
+    Assert.assertEquals(sketch.getEstimate(1), 10);
+    Assert.assertEquals(sketch.getStreamLength(), 10);
+  }
+
+  @Test
+  public void channelRoundTripWithCountMinFast() throws Exception {
+    CountMinFast reference = new CountMinFast(0.001, 0.01, HashStrategy.MULTIPLY_SHIFT);
+    Random random = new Random(8);
+    for (int i = 0; i < 20000; i++) {
+      reference.conservative_update(random.nextInt(3000), 1 + random.nextInt(4));
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    reference.writeTo(Channels.newChannel(bytes));
+    ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+    ConcurrentCountMin sketch = ConcurrentCountMin.readFrom(in);
+    // the layout of the stream is that of the Memory
+    Assert.assertEquals(sketch.getMemory().getCapacity(), bytes.size());
+
+    bytes.reset();
+    sketch.writeTo(Channels.newChannel(bytes));
+    CountMinFast copy = CountMinFast.readFrom(
+        Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+    Assert.assertEquals(sketch.getMaxError(), reference.getMaxError());
+    Assert.assertEquals(copy.getMaxError(), reference.getMaxError());
+    for (long key = 0; key < 3000; key++) {
+      Assert.assertEquals(sketch.getEstimate(key), reference.getEstimate(key));
+      Assert.assertEquals(copy.getEstimate(key), reference.getEstimate(key));
+    }
+  }
+
+  @Test
+  public void readFromIntoDirectMemory() throws Exception {
+    ConcurrentCountMin sketch = new ConcurrentCountMin(0.01, 0.01);
+    sketch.update(3, 9);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    sketch.writeTo(Channels.newChannel(bytes));
+    WritableResourceHandler handler =
+        WritableMemory.allocateDirect(ConcurrentCountMin.getMemoryBytes(0.01, 0.01));
+    try {
+      ConcurrentCountMin copy = ConcurrentCountMin.readFrom(
+          Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), handler.get());
+      copy.update(3, 1);
+      Assert.assertEquals(copy.getEstimate(3), 10);
+      Assert.assertEquals(ConcurrentCountMin.wrap(handler.get()).getStreamLength(), 10);
+    } finally {
+      handler.close();
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void wrapRejectsOtherMemory() {
+    ConcurrentCountMin.wrap(WritableMemory.allocate(64));
+  }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests ConcurrentFrequentItems class
+ */
+public class ConcurrentFrequentItemsTest {
+
+  private static final int THREADS = 4;
+  private static final int UPDATES_PER_THREAD = 200000;
+  private static final int HEAVY_KEYS = 8;
+
+  /**
+   * Every thread sends a tenth of its updates to the heavy keys, and the rest to a large range of
+   * keys, so every shard purges many times.
+   */
+  private static long[] runWriters(final ConcurrentFrequentItems sketch) throws Exception {
+    final long[][] counts = new long[THREADS][100000];
+    final Thread[] writers = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      writers[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Random random = new Random(thread);
+          for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+            int key = (i % 10 == 0) ? random.nextInt(HEAVY_KEYS) : random.nextInt(100000);
+            sketch.update(key);
+            counts[thread][key]++;
+          }
+        }
+      });
+      writers[t].start();
+    }
+    for (Thread writer: writers) {
+      writer.join();
+    }
+    long[] total = new long[100000];
+    for (long[] threadCounts: counts) {
+      for (int key = 0; key < total.length; key++) {
+        total[key] += threadCounts[key];
+      }
+    }
+    return total;
+  }
+
+  @Test
+  public void boundsHoldBeforeAndAfterFlush() throws Exception {
+    ConcurrentFrequentItems sketch = new ConcurrentFrequentItems(256, 0);
+    long[] counts = runWriters(sketch);
+    Assert.assertEquals(sketch.getStreamLength(), THREADS * UPDATES_PER_THREAD);
+
+    // nothing folded yet, the whole stream is unmerged weight
+    Assert.assertEquals(sketch.getEstimate(0), 0);
+    Assert.assertEquals(sketch.getMaxError(), THREADS * UPDATES_PER_THREAD);
+    for (int key = 0; key < counts.length; key += 97) {
+      Assert.assertTrue(sketch.getEstimateUpperBound(key) >= counts[key]);
+    }
+
+    sketch.flush();
+    Assert.assertEquals(sketch.getStreamLength(), THREADS * UPDATES_PER_THREAD);
+    Assert.assertTrue(sketch.getMaxError() < THREADS * UPDATES_PER_THREAD / 100);
+    for (int key = 0; key < counts.length; key++) {
+      Assert.assertTrue(sketch.getEstimateUpperBound(key) >= counts[key]);
+      Assert.assertTrue(sketch.getEstimateLowerBound(key) <= counts[key]);
+    }
+    long[] frequent = sketch.getFrequentKeys(THREADS * UPDATES_PER_THREAD / 200);
+    Arrays.sort(frequent);
+    Assert.assertEquals(frequent, new long[] {0, 1, 2, 3, 4, 5, 6, 7});
+  }
+
+  @Test
+  public void backgroundFoldPublishes() throws Exception {
+    ConcurrentFrequentItems sketch = new ConcurrentFrequentItems(256, 1);
+    try {
+      long[] counts = runWriters(sketch);
+      long deadline = System.currentTimeMillis() + 10000;
+      while (sketch.getMaxError() >= THREADS * UPDATES_PER_THREAD / 100
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(1);
+      }
+      Assert.assertTrue(sketch.getEstimate(0) >= counts[0] - sketch.getMaxError());
+      Assert.assertTrue(sketch.getEstimateUpperBound(0) >= counts[0]);
+    } finally {
+      sketch.close();
+    }
+  }
+
+  @Test
+  public void mergeAddsOtherSketches() throws Exception {
+    ConcurrentFrequentItems sketch = new ConcurrentFrequentItems(256, 0);
+    ConcurrentFrequentItems other = new ConcurrentFrequentItems(256, 0);
+    FrequentItems plain = new FrequentItems(256);
+    for (int i = 0; i < 1000; i++) {
+      sketch.update(i % 10);
+      other.update(i % 10);
+      plain.update(i % 10);
+    }
+    sketch.merge(other).merge(plain);
+    Assert.assertEquals(sketch.getStreamLength(), 3000);
+    sketch.flush();
+    for (int key = 0; key < 10; key++) {
+      Assert.assertEquals(sketch.getEstimate(key), 300);
+    }
+    sketch.reset();
+    Assert.assertTrue(sketch.isEmpty());
+    Assert.assertEquals(sketch.getEstimate(0), 0);
+  }
+
+  @Test
+  public void shardsOfTerminatedThreadsAreDropped() throws Exception {
+    ConcurrentFrequentItems sketch = new ConcurrentFrequentItems(256, 0);
+    sketch.update(1, 5);
+    runWriters(sketch);
+    Assert.assertEquals(sketch.getShardCount(), THREADS + 1);
+    sketch.flush();
+    // only the shard of this thread, which is still alive, is kept
+    Assert.assertEquals(sketch.getShardCount(), 1);
+    Assert.assertEquals(sketch.getStreamLength(), THREADS * UPDATES_PER_THREAD + 5);
+    sketch.update(1, 5);
+    sketch.flush();
+    Assert.assertEquals(sketch.getShardCount(), 1);
+    Assert.assertEquals(sketch.getStreamLength(), THREADS * UPDATES_PER_THREAD + 10);
+    Assert.assertTrue(sketch.getEstimateUpperBound(1) >= 10);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void mergeRejectsOtherEstimators() {
+    new ConcurrentFrequentItems(16, 0).merge(new FrequentItemsCompact(16));
+  }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests CountMinBlocked class
+ */
+public class CountMinBlockedTest {
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void construct() {
+    new CountMinBlocked(0.01, -0.01);
+  }
+
+  @Test
+  public void neverUnderestimates() {
+    CountMinBlocked sketch = new CountMinBlocked(0.001, 0.01);
+    CountMinBlocked conservative = new CountMinBlocked(0.001, 0.01);
+    Assert.assertEquals(sketch.getHashes(), 7);
+    Assert.assertEquals(sketch.getBlocks() * CountMinBlocked.BLOCK_LONGS, 16384);
+    long[] realCounts = new long[20000];
+    Random random = new Random(9);
+    for (int i = 0; i < 200000; i++) {
+      int key = (int) (Math.pow(random.nextDouble(), 3) * realCounts.length);
+      sketch.update(key);
+      conservative.conservative_update(key);
+      realCounts[key]++;
+    }
+    long totalError = 0;
+    for (int key = 0; key < realCounts.length; key++) {
+      long estimate = sketch.getEstimate(key);
+      Assert.assertTrue(estimate >= realCounts[key]);
+      Assert.assertTrue(conservative.getEstimate(key) >= realCounts[key]);
+      Assert.assertTrue(conservative.getEstimate(key) <= estimate);
+      totalError += estimate - realCounts[key];
+    }
+    // the expected error of a cell bounds the average error of the estimates
+    Assert.assertTrue(totalError / realCounts.length <= sketch.getExpectedCellError());
+    Assert.assertEquals(sketch.getMaxError(), 200);
+    Assert.assertTrue(sketch.getFailureProbability() < 0.5);
+    Assert.assertEquals(sketch.getFailureProbability(0), 1.0);
+  }
+
+  @Test
+  public void mergeAddsCounters() {
+    CountMinBlocked sketch = new CountMinBlocked(0.01, 0.01);
+    CountMinBlocked other = new CountMinBlocked(0.01, 0.01);
+    CountMinBlocked both = new CountMinBlocked(0.01, 0.01);
+    Random random = new Random(10);
+    for (int i = 0; i < 10000; i++) {
+      long key = random.nextInt(1000);
+      long increment = random.nextInt(5) - 1;
+      ((i % 2 == 0) ? sketch : other).update(key, increment);
+      both.update(key, increment);
+    }
+    sketch.merge(other);
+    Assert.assertEquals(sketch.getStreamLength(), both.getStreamLength());
+    for (long key = 0; key < 1000; key++) {
+      Assert.assertEquals(sketch.getEstimate(key), both.getEstimate(key));
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void mergeRejectsOtherSizes() {
+    new CountMinBlocked(0.01, 0.01).merge(new CountMinBlocked(0.001, 0.01));
+  }
+
+}
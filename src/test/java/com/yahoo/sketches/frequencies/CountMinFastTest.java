@@ -5,6 +5,8 @@
 
 package com.yahoo.sketches.frequencies;
 
+import java.util.Random;
+
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.sketches.frequencies.CountMinNarrow.CounterMode;
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+/**
+ * Tests CountMinNarrow class
+ */
+public class CountMinNarrowTest {
+
+  @Test
+  public void saturatingMatchesCountMinFast() throws Exception {
+    for (int bits: new int[] {8, 16, 32}) {
+      CountMinNarrow sketch = new CountMinNarrow(0.001, 0.01, bits, CounterMode.SATURATING,
+          HashStrategy.FMIX64);
+      CountMinFast reference = new CountMinFast(0.001, 0.01, HashStrategy.FMIX64);
+      Random random = new Random(bits);
+      for (int i = 0; i < 50000; i++) {
+        long key = (long) (Math.pow(random.nextDouble(), 4) * 10000);
+        long increment = (i % 100 == 0) ? random.nextInt(100000) : 1;
+        sketch.update(key, increment);
+        reference.update(key, increment);
+      }
+      Assert.assertEquals(sketch.getMaxError(), reference.getMaxError());
+      Assert.assertEquals(sketch.getOverflowSize() > 0, bits < 32);
+      // 16384 cells
+      Assert.assertEquals(sketch.getStorageBytes(),
+          16384L * bits / 8 + 16L * sketch.getOverflowSize());
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      sketch.writeTo(Channels.newChannel(bytes));
+      CountMinNarrow copy = CountMinNarrow.readFrom(
+          Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+      Assert.assertEquals(copy.getOverflowSize(), sketch.getOverflowSize());
+      for (long key = 0; key < 10000; key++) {
+        Assert.assertEquals(sketch.getEstimate(key), reference.getEstimate(key));
+        Assert.assertEquals(copy.getEstimate(key), reference.getEstimate(key));
+      }
+    }
+  }
+
+  @Test
+  public void saturatingMergeMatchesCountMinFast() {
+    CountMinNarrow sketch = new CountMinNarrow(0.01, 0.01, 8, CounterMode.SATURATING);
+    CountMinNarrow other = new CountMinNarrow(0.01, 0.01, 8, CounterMode.SATURATING);
+    CountMinFast reference = new CountMinFast(0.01, 0.01);
+    Random random = new Random(3);
+    for (int i = 0; i < 20000; i++) {
+      long key = random.nextInt(2000);
+      long increment = random.nextInt(300);
+      ((i % 2 == 0) ? sketch : other).update(key, increment);
+      reference.update(key, increment);
+    }
+    sketch.merge(other);
+    Assert.assertEquals(sketch.getMaxError(), reference.getMaxError());
+    for (long key = 0; key < 2000; key++) {
+      Assert.assertEquals(sketch.getEstimate(key), reference.getEstimate(key));
+    }
+  }
+
+  @Test
+  public void morrisCountsAreUnbiased() throws Exception {
+    // a single hash and many cells, so that the estimate of a key is the count of one cell
+    CountMinNarrow sketch = new CountMinNarrow(0.0001, 0.5, 8, CounterMode.MORRIS);
+    CountMinNarrow half = new CountMinNarrow(0.0001, 0.5, 8, CounterMode.MORRIS);
+    sketch.setSeed(1);
+    half.setSeed(2);
+    int keys = 500;
+    for (int i = 0; i < 1000; i++) {
+      for (long key = 0; key < keys; key++) {
+        ((i % 2 == 0) ? sketch : half).update(key);
+      }
+    }
+    sketch.merge(half);
+    Assert.assertEquals(sketch.getStreamLength(), 1000L * keys);
+    Assert.assertEquals(sketch.getRelativeStandardError(), 0.3, 0.01);
+    long sum = 0;
+    for (long key = 0; key < keys; key++) {
+      sum += sketch.getEstimate(key);
+    }
+    // the standard error of the mean is about 1000 * 0.3 / sqrt(500) = 13
+    Assert.assertEquals(sum / (double) keys, 1000, 70);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    sketch.writeTo(Channels.newChannel(bytes));
+    ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+    CountMinNarrow copy = CountMinNarrow.readFrom(in);
+    Assert.assertEquals(copy.getRelativeStandardError(), sketch.getRelativeStandardError());
+    for (long key = 0; key < keys; key++) {
+      Assert.assertEquals(copy.getEstimate(key), sketch.getEstimate(key));
+    }
+  }
+
+  @Test
+  public void wideMorrisCountersAreAccurate() {
+    CountMinNarrow sketch = new CountMinNarrow(0.001, 0.01, 16, CounterMode.MORRIS);
+    sketch.setSeed(4);
+    for (long key = 0; key < 100; key++) {
+      sketch.update(key, 1000000L * (key + 1));
+    }
+    for (long key = 0; key < 100; key++) {
+      long count = 1000000L * (key + 1);
+      Assert.assertEquals(sketch.getEstimate(key), count, 0.1 * count);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void rejectsOtherWidths() {
+    new CountMinNarrow(0.01, 0.01, 12, CounterMode.SATURATING);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void rejectsNegativeIncrements() {
+    new CountMinNarrow(0.01, 0.01, 8, CounterMode.SATURATING).update(1, -1);
+  }
+
+}
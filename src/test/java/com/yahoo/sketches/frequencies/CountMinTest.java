@@ -5,9 +5,18 @@
 
 package com.yahoo.sketches.frequencies;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
 /**
  * Tests CountMin class
  *
@@ -16,6 +25,68 @@ import org.testng.annotations.Test;
  */
 public class CountMinTest {
 
+  @Test
+  public void channelRoundTrip() throws Exception {
+    CountMin sketch = new CountMin(0.0005, 0.01, HashStrategy.FMIX64);
+    Random random = new Random(2);
+    for (int i = 0; i < 20000; i++) {
+      sketch.update(random.nextInt(5000), random.nextInt(7) - 3);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WritableByteChannel out = Channels.newChannel(bytes);
+    sketch.writeTo(out);
+    sketch.writeTo(out);
+    ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+    CountMin copy = CountMin.readFrom(in);
+    CountMin second = CountMin.readFrom(in);
+    Assert.assertEquals(copy.getMaxError(), sketch.getMaxError());
+    for (long key = 0; key < 5000; key++) {
+      Assert.assertEquals(copy.getEstimate(key), sketch.getEstimate(key));
+      Assert.assertEquals(second.getEstimate(key), sketch.getEstimate(key));
+    }
+    // the copy has the parameters and hash strategy of the sketch
+    copy.merge(sketch);
+    Assert.assertEquals(copy.getEstimate(7), 2 * sketch.getEstimate(7));
+  }
+
+  @Test
+  public void estimatesInBoundsForEachHashStrategy() {
+    double eps = 0.001;
+    double delta = 0.01;
+    HashStrategy[] strategies = {HashStrategy.FMIX64, HashStrategy.MURMUR3,
+        HashStrategy.MULTIPLY_SHIFT, HashStrategy.IDENTITY};
+    for (HashStrategy hashStrategy: strategies) {
+      CountMin sketch = new CountMin(eps, delta, hashStrategy);
+      Random random = new Random(3);
+      // random longs stand in for keys that are already hashes, as IDENTITY requires
+      long[] keys = new long[20000];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = random.nextLong();
+      }
+      long[] realCounts = new long[keys.length];
+      for (int i = 0; i < 200000; i++) {
+        int k = (int) Math.min(keys.length - 1, randomGeometricDist(random, 0.001));
+        sketch.update(keys[k]);
+        realCounts[k]++;
+      }
+      int bad = 0;
+      for (int k = 0; k < keys.length; k++) {
+        long estimate = sketch.getEstimate(keys[k]);
+        Assert.assertTrue(estimate >= realCounts[k]);
+        if (estimate > realCounts[k] + sketch.getMaxError()) {
+          bad++;
+        }
+      }
+      Assert.assertTrue(bad <= delta * keys.length, hashStrategy + ": " + bad);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void mergeRejectsOtherHashStrategy() {
+    CountMin sketch = new CountMin(0.01, 0.01, HashStrategy.FMIX64);
+    sketch.merge(new CountMin(0.01, 0.01, HashStrategy.MURMUR3));
+  }
+
   @SuppressWarnings("unused")
   @Test(expectedExceptions = IllegalArgumentException.class)
   public void construct() {
@@ -60,6 +131,15 @@ public class CountMinTest {
     return (long) (Math.log(Math.random()) / Math.log(1.0 - prob));
   }
 
+  /**
+   * @param random the source of randomness
+   * @param prob the probability of success for the geometric distribution.
+   * @return a number drawn from the geometric distribution with random.
+   */
+  static private long randomGeometricDist(Random random, double prob) {
+    return (long) (Math.log(1.0 - random.nextDouble()) / Math.log(1.0 - prob));
+  }
+
   //@Test
   public void testRandomGeometricDist() {
     long maxKey = 0L;
@@ -7,7 +7,9 @@ package com.yahoo.sketches.frequencies;
 
 import java.util.Random;
 import org.testng.Assert;
-//import org.testng.annotations.Test;
+import org.testng.annotations.Test;
+
+import com.yahoo.sketches.hashmaps.HashStrategy;
 
 public class CuckooHashWithImplicitDeletionsTest {
 
@@ -45,6 +47,34 @@ public class CuckooHashWithImplicitDeletionsTest {
     }
   }
 
+  @Test
+  public void countsAreCorrectForEachHashStrategy() {
+    HashStrategy[] strategies = {HashStrategy.FMIX64, HashStrategy.MURMUR3,
+        HashStrategy.MULTIPLY_SHIFT, HashStrategy.IDENTITY};
+    for (HashStrategy hashStrategy: strategies) {
+      CuckooHashWithImplicitDeletions cuckooHash =
+          new CuckooHashWithImplicitDeletions(1000, hashStrategy);
+      Random random = new Random(5);
+      // random longs stand in for keys that are already hashes, as IDENTITY requires
+      long[] keys = new long[500];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = random.nextLong();
+      }
+      long[] realCounts = new long[keys.length];
+      for (int i = 0; i < 20000; i++) {
+        int k = random.nextInt(keys.length);
+        // at half the maximal size, every key finds a free location among the ones it hashes to
+        Assert.assertTrue(cuckooHash.increment(keys[k]), hashStrategy.toString());
+        realCounts[k]++;
+      }
+      cuckooHash.decrement();
+      for (int k = 0; k < keys.length; k++) {
+        Assert.assertEquals(cuckooHash.get(keys[k]), Math.max(0, realCounts[k] - 1));
+      }
+      Assert.assertEquals(cuckooHash.get(random.nextLong()), 0);
+    }
+  }
+
   //run only from command line
   public void stressTestUpdateTime() {
     int n = 100000000;
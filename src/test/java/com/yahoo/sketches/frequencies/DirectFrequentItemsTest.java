@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.memory.NativeMemory;
+import com.yahoo.memory4.MemoryRequest;
+import com.yahoo.memory4.WritableMemory;
+import com.yahoo.memory4.WritableResourceHandler;
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+/**
+ * Tests DirectFrequentItems class
+ */
+public class DirectFrequentItemsTest {
+
+  @Test
+  public void exactWhileCountersFit() {
+    int k = 256;
+    DirectFrequentItems direct = new DirectFrequentItems(k,
+        WritableMemory.allocate((int) DirectFrequentItems.getMaxMemoryBytes(k)));
+    FrequentItems heap = new FrequentItems(k);
+    for (long key = 0; key < direct.getMaxK(); key++) {
+      direct.update(key, key + 1);
+      heap.update(key, key + 1);
+    }
+    Assert.assertEquals(direct.getMaxError(), 0);
+    Assert.assertEquals(direct.nnz(), heap.nnz());
+    Assert.assertEquals(direct.getK(), heap.getK());
+    for (long key = 0; key < direct.getMaxK() + 10; key++) {
+      Assert.assertEquals(direct.getEstimate(key), heap.getEstimate(key));
+    }
+    Assert.assertEquals(direct.getFrequentKeys(direct.getMaxK()).length, 1);
+  }
+
+  @Test
+  public void growsThroughMemoryRequest() {
+    int k = 128;
+    GrowingMemoryManager manager = new GrowingMemoryManager();
+    WritableMemory first = manager.request(DirectFrequentItems.getMemoryBytes(4));
+    DirectFrequentItems sketch = new DirectFrequentItems(k, 4, HashStrategy.FMIX64, first);
+    long[] realCounts = new long[5000];
+    Random random = new Random(7);
+    for (int i = 0; i < 50000; i++) {
+      int key = (i % 4 == 0) ? random.nextInt(3) : random.nextInt(realCounts.length);
+      sketch.update(key);
+      realCounts[key]++;
+    }
+    Assert.assertTrue(manager.requests > 1);
+    // every memory but the current one has been handed back
+    Assert.assertEquals(manager.open.size(), 1);
+    Assert.assertTrue(manager.open.containsKey(sketch.getMemory()));
+    Assert.assertEquals(sketch.getStreamLength(), 50000);
+    Assert.assertTrue(sketch.nnz() <= sketch.getMaxK());
+    for (int key = 0; key < realCounts.length; key++) {
+      Assert.assertTrue(sketch.getEstimateUpperBound(key) >= realCounts[key]);
+      Assert.assertTrue(sketch.getEstimateLowerBound(key) <= realCounts[key]);
+    }
+    Assert.assertEquals(sketch.getFrequentKeys(50000 / 20).length, 3);
+    manager.closeRequest(sketch.getMemory());
+  }
+
+  @Test
+  public void wrapResumesAndHeapifies() {
+    int k = 64;
+    WritableMemory mem = WritableMemory.allocate((int) DirectFrequentItems.getMaxMemoryBytes(k));
+    DirectFrequentItems sketch = new DirectFrequentItems(k, mem);
+    Random random = new Random(8);
+    for (int i = 0; i < 10000; i++) {
+      sketch.update(random.nextInt(1000), 1 + random.nextInt(3));
+    }
+    DirectFrequentItems wrapped = DirectFrequentItems.wrap(mem);
+    wrapped.update(5, 100);
+    Assert.assertEquals(sketch.getEstimate(5), wrapped.getEstimate(5));
+    Assert.assertEquals(sketch.getStreamLength(), wrapped.getStreamLength());
+    Assert.assertEquals(sketch.getK(), wrapped.getK());
+
+    FrequentItems heap = FrequentItems.getInstance(new NativeMemory(wrapped.toByteArray()));
+    Assert.assertEquals(heap.getStreamLength(), wrapped.getStreamLength());
+    Assert.assertEquals(heap.getMaxError(), wrapped.getMaxError());
+    for (long key = 0; key < 1000; key++) {
+      Assert.assertEquals(heap.getEstimate(key), wrapped.getEstimate(key));
+    }
+
+    wrapped.reset();
+    Assert.assertTrue(sketch.isEmpty());
+    Assert.assertEquals(sketch.getStreamLength(), 0);
+    Assert.assertTrue(FrequentItems.getInstance(new NativeMemory(sketch.toByteArray())).isEmpty());
+  }
+
+  @Test
+  public void mergeAddsErrorsAndLengths() {
+    int k = 32;
+    DirectFrequentItems sketch = new DirectFrequentItems(k,
+        WritableMemory.allocate((int) DirectFrequentItems.getMaxMemoryBytes(k)));
+    DirectFrequentItems other = new DirectFrequentItems(k,
+        WritableMemory.allocate((int) DirectFrequentItems.getMaxMemoryBytes(k)));
+    long[] realCounts = new long[2000];
+    Random random = new Random(9);
+    for (int i = 0; i < 4000; i++) {
+      int key = random.nextInt(realCounts.length);
+      ((i % 2 == 0) ? sketch : other).update(key);
+      realCounts[key]++;
+    }
+    long error = sketch.getMaxError() + other.getMaxError();
+    sketch.merge(other);
+    Assert.assertEquals(sketch.getStreamLength(), 4000);
+    Assert.assertTrue(sketch.getMaxError() >= error);
+    for (int key = 0; key < realCounts.length; key++) {
+      Assert.assertTrue(sketch.getEstimateUpperBound(key) >= realCounts[key]);
+      Assert.assertTrue(sketch.getEstimateLowerBound(key) <= realCounts[key]);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void cannotGrowWithoutMemoryRequest() {
+    DirectFrequentItems sketch = new DirectFrequentItems(64,
+        WritableMemory.allocate((int) DirectFrequentItems.getMemoryBytes(4)));
+    for (long key = 0; key < 100; key++) {
+      sketch.update(key);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void wrapRejectsHeapImage() {
+    FrequentItems heap = new FrequentItems(16);
+    heap.update(1);
+    DirectFrequentItems.wrap(WritableMemory.wrap(heap.toByteArray()));
+  }
+
+  /**
+   * Allocates off-heap memory for each request, and frees it when it is handed back
+   */
+  private static class GrowingMemoryManager implements MemoryRequest {
+    final Map<WritableMemory, WritableResourceHandler> open =
+        new IdentityHashMap<WritableMemory, WritableResourceHandler>();
+    int requests = 0;
+
+    @Override
+    public WritableMemory request(final long capacityBytes) {
+      WritableResourceHandler handler = WritableMemory.allocateDirect(capacityBytes, this);
+      open.put(handler.get(), handler);
+      requests++;
+      return handler.get();
+    }
+
+    @Override
+    public WritableMemory request(final WritableMemory origMem, final long copyToBytes,
+        final long capacityBytes) {
+      WritableMemory newMem = request(capacityBytes);
+      origMem.copyTo(0, newMem, 0, copyToBytes);
+      return newMem;
+    }
+
+    @Override
+    public void closeRequest(final WritableMemory mem) {
+      open.remove(mem).close();
+    }
+
+    @Override
+    public void closeRequest(final WritableMemory memToClose, final WritableMemory newMem) {
+      closeRequest(memToClose);
+    }
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+/**
+ * Tests FrequentItemsAbstractHash class
+ */
+public class FrequentItemsAbstractHashTest {
+
+  @Test
+  public void adaptiveChoosesTableOnce() {
+    FrequentItemsAbstractHash sketch =
+        new FrequentItemsAbstractHash(1024, FrequentItemsAbstractHash.ADAPTIVE_HASHMAP_TYPE);
+    Assert.assertTrue(sketch.isSampling());
+    Assert.assertEquals(sketch.getHashMapType(), FrequentItemsAbstractHash.DEFAULT_HASHMAP_TYPE);
+
+    // fewer distinct keys than counters, so the counts stay exact across the switch
+    long[] counts = new long[1000];
+    Random random = new Random(5);
+    int n = FrequentItemsAbstractHash.ADAPTIVE_SAMPLE_LENGTH + 1000;
+    for (int i = 0; i < n; i++) {
+      int key = random.nextInt(counts.length);
+      sketch.update(key);
+      counts[key]++;
+    }
+    Assert.assertFalse(sketch.isSampling());
+    Assert.assertTrue(
+        Arrays.asList(AdaptiveHashMapSelector.CANDIDATES).contains(sketch.getHashMapType()));
+    Assert.assertEquals(sketch.getStreamLength(), n);
+    for (int key = 0; key < counts.length; key++) {
+      Assert.assertEquals(sketch.getEstimate(key), counts[key]);
+    }
+
+    sketch.reset();
+    Assert.assertTrue(sketch.isSampling());
+    Assert.assertEquals(sketch.getHashMapType(), FrequentItemsAbstractHash.DEFAULT_HASHMAP_TYPE);
+  }
+
+  @Test
+  public void adaptiveChoiceFollowsTheStream() {
+    // a few heavy keys: nearly every update hits a key already in the table
+    FrequentItemsAbstractHash heavy =
+        new FrequentItemsAbstractHash(256, FrequentItemsAbstractHash.ADAPTIVE_HASHMAP_TYPE);
+    // keys never seen twice: every update inserts, and the small sketch purges over and over
+    FrequentItemsAbstractHash uniform =
+        new FrequentItemsAbstractHash(256, FrequentItemsAbstractHash.ADAPTIVE_HASHMAP_TYPE);
+    FrequentItemsAbstractHash uniformAgain =
+        new FrequentItemsAbstractHash(256, FrequentItemsAbstractHash.ADAPTIVE_HASHMAP_TYPE);
+    for (int i = 0; heavy.isSampling() || uniform.isSampling(); i++) {
+      heavy.update(i % 10);
+      uniform.update(i);
+      uniformAgain.update(i);
+    }
+    Assert.assertEquals(heavy.getHashMapType(), "ReverseEfficient");
+    Assert.assertEquals(uniform.getHashMapType(), "BucketizedCuckoo");
+    // nothing is timed, so the same stream always picks the same table
+    Assert.assertEquals(uniformAgain.getHashMapType(), uniform.getHashMapType());
+    // the prefix counted is sized from maxK, not ADAPTIVE_SAMPLE_LENGTH
+    Assert.assertTrue(heavy.getStreamLength() < FrequentItemsAbstractHash.ADAPTIVE_SAMPLE_LENGTH);
+  }
+
+  @Test
+  public void adaptiveAvoidsLongLinearProbes() {
+    // with IDENTITY every key below is in the same home cell of the default table, so its probes
+    // are far longer than those the linear-probing tables were calibrated at
+    FrequentItemsAbstractHash clustered = new FrequentItemsAbstractHash(256,
+        FrequentItemsAbstractHash.MIN_FREQUENT_ITEMS_SIZE,
+        FrequentItemsAbstractHash.ADAPTIVE_HASHMAP_TYPE, HashStrategy.IDENTITY);
+    for (long i = 0; clustered.isSampling(); i++) {
+      clustered.update((i % 100) << 32);
+    }
+    Assert.assertEquals(clustered.getHashMapType(), "BucketizedCuckoo");
+  }
+
+  @Test
+  public void staticTypeNeverSamples() {
+    FrequentItemsAbstractHash sketch = new FrequentItemsAbstractHash(16, "Compact");
+    for (int i = 0; i < 1000; i++) {
+      sketch.update(i % 7);
+    }
+    Assert.assertFalse(sketch.isSampling());
+    Assert.assertEquals(sketch.getHashMapType(), "Compact");
+  }
+
+  @Test
+  public void specializedMatchesAbstract() {
+    FrequencyEstimator[] specialized = {
+        new FrequentItemsReverseEfficient(64, 4, 32, HashStrategy.FMIX64),
+        new FrequentItemsBucketizedCuckoo(64, 4, 32, HashStrategy.FMIX64),
+        new FrequentItemsCompact(64, 4, 32, HashStrategy.FMIX64)};
+    String[] types = {"ReverseEfficient", "BucketizedCuckoo", "Compact"};
+    for (int t = 0; t < types.length; t++) {
+      FrequentItemsAbstractHash reference =
+          new FrequentItemsAbstractHash(64, 4, 32, types[t], HashStrategy.FMIX64);
+      Random random = new Random(t);
+      for (int i = 0; i < 20000; i++) {
+        // enough distinct keys to purge many times
+        long key = (i % 3 == 0) ? i % 10 : random.nextInt(5000);
+        specialized[t].update(key);
+        reference.update(key);
+      }
+      Assert.assertEquals(specialized[t].getMaxError(), reference.getMaxError());
+      Assert.assertEquals(specialized[t].getStreamLength(), reference.getStreamLength());
+      for (long key = 0; key < 5000; key++) {
+        Assert.assertEquals(specialized[t].getEstimate(key), reference.getEstimate(key));
+      }
+      long[] frequent = specialized[t].getFrequentKeys(600);
+      long[] expected = reference.getFrequentKeys(600);
+      Arrays.sort(frequent);
+      Arrays.sort(expected);
+      Assert.assertEquals(frequent, expected);
+      Assert.assertEquals(frequent.length, 10);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void unknownType() {
+    new FrequentItemsAbstractHash(16, "NoSuchTable");
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.memory.NativeMemory;
+
+/**
+ * Tests FrequentItemsImage class
+ */
+public class FrequentItemsImageTest {
+
+  private static FrequentItems newSketch() {
+    FrequentItems sketch = new FrequentItems(64);
+    FrequentItems other = new FrequentItems(64);
+    Random random = new Random(4);
+    for (int i = 0; i < 20000; i++) {
+      long key = (i % 3 == 0) ? random.nextInt(5) : random.nextInt(5000);
+      ((i % 2 == 0) ? sketch : other).update(key, 1 + random.nextInt(2));
+    }
+    // gives the sketch a merge error as well as an offset
+    sketch.merge(other);
+    return sketch;
+  }
+
+  private static void assertSameQueries(final FrequencyEstimator image,
+      final FrequencyEstimator sketch) {
+    Assert.assertEquals(image.getMaxError(), sketch.getMaxError());
+    Assert.assertEquals(image.getStreamLength(), sketch.getStreamLength());
+    Assert.assertEquals(image.getK(), sketch.getK());
+    Assert.assertEquals(image.getMaxK(), sketch.getMaxK());
+    Assert.assertEquals(image.isEmpty(), sketch.isEmpty());
+    for (long key = -1; key < 5001; key++) {
+      Assert.assertEquals(image.getEstimate(key), sketch.getEstimate(key));
+      Assert.assertEquals(image.getEstimateUpperBound(key), sketch.getEstimateUpperBound(key));
+      Assert.assertEquals(image.getEstimateLowerBound(key), sketch.getEstimateLowerBound(key));
+    }
+    for (long threshold: new long[] {0, 100, 1000, 5000}) {
+      long[] expected = sketch.getFrequentKeys(threshold);
+      long[] actual = image.getFrequentKeys(threshold);
+      Arrays.sort(expected);
+      Arrays.sort(actual);
+      Assert.assertEquals(actual, expected);
+    }
+  }
+
+  @Test
+  public void answersLikeTheSketch() {
+    FrequentItems sketch = newSketch();
+    FrequentItemsImage image = FrequentItems.wrap(new NativeMemory(sketch.toByteArray(true)));
+    Assert.assertEquals(image.nnz(), sketch.nnz());
+    assertSameQueries(image, sketch);
+    assertSameQueries(FrequentItems.getInstance(new NativeMemory(sketch.toByteArray(true))),
+        sketch);
+  }
+
+  @Test
+  public void scansUnsortedImages() {
+    FrequentItems sketch = newSketch();
+    assertSameQueries(FrequentItems.wrap(new NativeMemory(sketch.toByteArray())), sketch);
+  }
+
+  @Test
+  public void wrapsEmptySketch() {
+    FrequentItems sketch = new FrequentItems(32);
+    FrequentItemsImage image = FrequentItems.wrap(new NativeMemory(sketch.toByteArray()));
+    Assert.assertTrue(image.isEmpty());
+    Assert.assertEquals(image.getEstimate(3), 0);
+    Assert.assertEquals(image.getFrequentKeys(0).length, 0);
+    Assert.assertEquals(image.getMaxK(), sketch.getMaxK());
+  }
+
+  @Test(expectedExceptions = UnsupportedOperationException.class)
+  public void isReadOnly() {
+    FrequentItems.wrap(new NativeMemory(newSketch().toByteArray(true))).update(1);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void rejectsTruncatedImage() {
+    byte[] bytes = newSketch().toByteArray(true);
+    FrequentItems.wrap(new NativeMemory(Arrays.copyOf(bytes, bytes.length - 8)));
+  }
+
+}
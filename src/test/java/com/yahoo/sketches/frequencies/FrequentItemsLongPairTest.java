@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests FrequentItemsLongPair class
+ */
+public class FrequentItemsLongPairTest {
+
+  @Test
+  public void exactWhileSmall() {
+    FrequentItemsLongPair sketch = new FrequentItemsLongPair(64);
+    for (long i = 1; i <= 20; i++) {
+      sketch.update(i, i + 1, i);
+      sketch.update(i + 1, i, 1);
+    }
+    Assert.assertEquals(sketch.nnz(), 40);
+    for (long i = 1; i <= 20; i++) {
+      Assert.assertEquals(sketch.getEstimate(i, i + 1), i);
+      Assert.assertEquals(sketch.getEstimate(i + 1, i), 1);
+    }
+    Assert.assertEquals(sketch.getEstimate(7, 7), 0);
+    Assert.assertEquals(sketch.getMaxError(), 0);
+  }
+
+  @Test
+  public void heavyPairsAreFound() {
+    FrequentItemsLongPair sketch = new FrequentItemsLongPair(100);
+    FrequentItemsLongPair other = new FrequentItemsLongPair(100);
+    Random random = new Random(23);
+    long n = 0;
+    for (int i = 0; i < 100000; i++) {
+      FrequentItemsLongPair target = (i % 2 == 0) ? sketch : other;
+      if (i % 10 == 0) {
+        // one heavy pair, and its reverse, which must not be confused with it
+        target.update(42, 4242);
+      } else {
+        target.update(random.nextInt(10000), random.nextInt(10000));
+      }
+      n++;
+    }
+    sketch.merge(other);
+    Assert.assertEquals(sketch.getStreamLength(), n);
+    Assert.assertTrue(sketch.nnz() <= sketch.getMaxK());
+    Assert.assertTrue(sketch.getEstimateUpperBound(42, 4242) >= 10000);
+    Assert.assertTrue(sketch.getEstimateLowerBound(42, 4242) <= 10000);
+    Assert.assertTrue(sketch.getEstimateLowerBound(4242, 42) == 0);
+
+    long[] frequent = sketch.getFrequentKeys(5000);
+    Assert.assertEquals(frequent.length, 2);
+    Assert.assertEquals(frequent[0], 42);
+    Assert.assertEquals(frequent[1], 4242);
+
+    sketch.reset();
+    Assert.assertTrue(sketch.isEmpty());
+    Assert.assertEquals(sketch.getStreamLength(), 0);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void nonPositiveK() {
+    new FrequentItemsLongPair(0);
+  }
+
+}
@@ -5,9 +5,22 @@
 
 package com.yahoo.sketches.frequencies;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.yahoo.memory.NativeMemory;
+
 /**
  * Tests FrequentItems class
  *
@@ -55,6 +68,261 @@ public class FrequentItemsTest {
     }
   }
 
+  @Test
+  public void estimatesAreExactWhileGrowing() {
+    int maxSize = 1024;
+    FrequentItems frequentItems = new FrequentItems(maxSize, 4, 4);
+    int distinct = frequentItems.getMaxK();
+    for (long key = 0L; key < distinct; key++) {
+      frequentItems.update(key, key + 1);
+      for (long prev = 0L; prev <= key; prev += 37) {
+        Assert.assertEquals(frequentItems.getEstimate(prev), prev + 1);
+      }
+      Assert.assertEquals(frequentItems.nnz(), key + 1);
+    }
+    for (long key = 0L; key < distinct; key++) {
+      frequentItems.update(key);
+    }
+    Assert.assertEquals(frequentItems.getMaxError(), 0);
+    for (long key = 0L; key < distinct; key++) {
+      Assert.assertEquals(frequentItems.getEstimate(key), key + 2);
+    }
+    Assert.assertEquals(frequentItems.getFrequentKeys(distinct + 1).length, 1);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void growthFactorTooSmall() {
+    new FrequentItems(100, 4, 1);
+  }
+
+  @Test
+  public void mergeAllKeepsBounds() {
+    int sketches = 200;
+    long[] realCounts = new long[100000];
+    ArrayList<FrequentItems> parts = new ArrayList<FrequentItems>();
+    Random random = new Random(11);
+    long n = 0;
+    for (int s = 0; s < sketches; s++) {
+      FrequentItems part = new FrequentItems(64);
+      for (int i = 0; i < 2000; i++) {
+        int key = (i % 5 == 0) ? random.nextInt(4) : random.nextInt(realCounts.length);
+        part.update(key);
+        realCounts[key]++;
+        n++;
+      }
+      parts.add(part);
+    }
+    FrequentItems merged = new FrequentItems(64);
+    merged.update(3, 7);
+    realCounts[3] += 7;
+    n += 7;
+    // the parts hold many more counters than the buffer, so the table is purged along the way
+    merged.mergeAll(parts);
+
+    Assert.assertEquals(merged.getStreamLength(), n);
+    Assert.assertTrue(merged.nnz() <= merged.getMaxK());
+    for (int key = 0; key < realCounts.length; key++) {
+      Assert.assertTrue(merged.getEstimateUpperBound(key) >= realCounts[key]);
+      Assert.assertTrue(merged.getEstimateLowerBound(key) <= realCounts[key]);
+    }
+    long[] frequent = merged.getFrequentKeys(n / 40);
+    Arrays.sort(frequent);
+    Assert.assertEquals(frequent, new long[] {0, 1, 2, 3});
+    // the sketch keeps working after the merge
+    merged.update(5);
+    Assert.assertTrue(merged.getEstimateUpperBound(5) >= realCounts[5] + 1);
+  }
+
+  @Test
+  public void batchUpdateMatchesSingleUpdates() {
+    FrequentItems batched = new FrequentItems(4096);
+    FrequentItems single = new FrequentItems(4096);
+    Random random = new Random(3);
+    long[] keys = new long[5000];
+    long[] weights = new long[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      // skewed keys, so that batches hold many duplicates
+      keys[i] = (long) (Math.pow(random.nextDouble(), 4) * 2000);
+      weights[i] = random.nextInt(3) + 1;
+      single.update(keys[i], weights[i]);
+    }
+    batched.update(keys, weights, 0, 1000);
+    batched.update(keys, weights, 1000, keys.length - 1000);
+    Assert.assertEquals(batched.getStreamLength(), single.getStreamLength());
+    for (long key = 0; key < 2000; key++) {
+      Assert.assertEquals(batched.getEstimate(key), single.getEstimate(key));
+    }
+
+    FrequentItems small = new FrequentItems(16);
+    long[] realCounts = new long[2000];
+    for (long key: keys) {
+      realCounts[(int) key]++;
+    }
+    small.update(keys, 0, keys.length);
+    Assert.assertEquals(small.getStreamLength(), keys.length);
+    // far more distinct keys than counters, so the batches purged
+    Assert.assertTrue(small.getMaxError() > 0);
+    for (int key = 0; key < realCounts.length; key++) {
+      Assert.assertTrue(small.getEstimateUpperBound(key) >= realCounts[key]);
+      Assert.assertTrue(small.getEstimateLowerBound(key) <= realCounts[key]);
+    }
+  }
+
+  @Test
+  public void compactSerializationRoundTrip() {
+    FrequentItems sketch = new FrequentItems(256);
+    Random random = new Random(12);
+    for (int i = 0; i < 100000; i++) {
+      sketch.update(random.nextInt(20000) - 10000, 1 + random.nextInt(5));
+    }
+    // extreme keys make deltas that only fit as unsigned longs
+    sketch.update(Long.MIN_VALUE, 1000000);
+    sketch.update(Long.MAX_VALUE, 1000000);
+    byte[] compact = sketch.toCompactByteArray();
+    Assert.assertTrue(compact.length < sketch.toByteArray().length / 3);
+
+    FrequentItems copy = FrequentItems.getInstance(new NativeMemory(compact));
+    Assert.assertEquals(copy.nnz(), sketch.nnz());
+    Assert.assertEquals(copy.getStreamLength(), sketch.getStreamLength());
+    Assert.assertEquals(copy.getMaxError(), sketch.getMaxError());
+    Assert.assertEquals(copy.getK(), sketch.getK());
+    for (long key = -10000; key < 10000; key++) {
+      Assert.assertEquals(copy.getEstimate(key), sketch.getEstimate(key));
+    }
+    Assert.assertEquals(copy.getEstimate(Long.MIN_VALUE), sketch.getEstimate(Long.MIN_VALUE));
+    Assert.assertEquals(copy.getEstimate(Long.MAX_VALUE), sketch.getEstimate(Long.MAX_VALUE));
+
+    FrequentItems empty = FrequentItems.getInstance(
+        new NativeMemory(new FrequentItems(16).toCompactByteArray()));
+    Assert.assertTrue(empty.isEmpty());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void compactSerializationTruncated() {
+    FrequentItems sketch = new FrequentItems(16);
+    for (long key = 0; key < 10; key++) {
+      sketch.update(key * 1000, 300);
+    }
+    byte[] compact = sketch.toCompactByteArray();
+    FrequentItems.getInstance(new NativeMemory(Arrays.copyOf(compact, compact.length - 2)));
+  }
+
+  @Test
+  public void channelRoundTrip() throws Exception {
+    FrequentItems sketch = new FrequentItems(4096);
+    Random random = new Random(13);
+    for (int i = 0; i < 50000; i++) {
+      sketch.update(random.nextInt(10000), 1 + random.nextInt(3));
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WritableByteChannel out = Channels.newChannel(bytes);
+    // several buffers worth of entries, followed by a second sketch on the same channel
+    sketch.writeTo(out);
+    Assert.assertEquals(bytes.toByteArray(), sketch.toByteArray());
+    new FrequentItems(16).writeTo(out);
+    sketch.writeTo(out);
+
+    ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+    FrequentItems copy = FrequentItems.readFrom(in);
+    Assert.assertTrue(FrequentItems.readFrom(in).isEmpty());
+    Assert.assertEquals(FrequentItems.readFrom(in).toString(), sketch.toString());
+    Assert.assertEquals(in.read(ByteBuffer.allocate(1)), -1);
+    Assert.assertEquals(copy.nnz(), sketch.nnz());
+    Assert.assertEquals(copy.getStreamLength(), sketch.getStreamLength());
+    for (long key = 0; key < 10000; key++) {
+      Assert.assertEquals(copy.getEstimate(key), sketch.getEstimate(key));
+    }
+  }
+
+  @Test(expectedExceptions = EOFException.class)
+  public void channelTruncated() throws Exception {
+    FrequentItems sketch = new FrequentItems(64);
+    for (long key = 0; key < 40; key++) {
+      sketch.update(key);
+    }
+    byte[] bytes = sketch.toByteArray();
+    FrequentItems.readFrom(Channels.newChannel(
+        new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 8))));
+  }
+
+  @Test
+  public void compactChannelRoundTrip() throws Exception {
+    FrequentItems sketch = new FrequentItems(4096);
+    Random random = new Random(14);
+    for (int i = 0; i < 50000; i++) {
+      sketch.update(random.nextInt(100000) - 50000, 1 + random.nextInt(300));
+    }
+    sketch.update(Long.MIN_VALUE, 1000000);
+    sketch.update(Long.MAX_VALUE, 1000000);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WritableByteChannel out = Channels.newChannel(bytes);
+    // several buffers worth of varints, then an empty and a non-compact sketch on the same channel
+    sketch.writeCompactTo(out);
+    Assert.assertEquals(bytes.toByteArray(), sketch.toCompactByteArray());
+    new FrequentItems(16).writeCompactTo(out);
+    sketch.writeTo(out);
+
+    ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+    FrequentItems copy = FrequentItems.readFrom(in);
+    Assert.assertTrue(FrequentItems.readFrom(in).isEmpty());
+    Assert.assertEquals(FrequentItems.readFrom(in).toString(), sketch.toString());
+    Assert.assertEquals(in.read(ByteBuffer.allocate(1)), -1);
+    Assert.assertEquals(copy.nnz(), sketch.nnz());
+    Assert.assertEquals(copy.getStreamLength(), sketch.getStreamLength());
+    Assert.assertEquals(copy.getMaxError(), sketch.getMaxError());
+    for (long key = -50000; key < 50000; key++) {
+      Assert.assertEquals(copy.getEstimate(key), sketch.getEstimate(key));
+    }
+    Assert.assertEquals(copy.getEstimate(Long.MIN_VALUE), sketch.getEstimate(Long.MIN_VALUE));
+    Assert.assertEquals(copy.getEstimate(Long.MAX_VALUE), sketch.getEstimate(Long.MAX_VALUE));
+  }
+
+  @Test(expectedExceptions = EOFException.class)
+  public void compactChannelTruncated() throws Exception {
+    FrequentItems sketch = new FrequentItems(16);
+    for (long key = 0; key < 10; key++) {
+      sketch.update(key * 1000, 300);
+    }
+    byte[] bytes = sketch.toCompactByteArray();
+    FrequentItems.readFrom(Channels.newChannel(
+        new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1))));
+  }
+
+  @Test
+  public void failedBatchIsNotReapplied() {
+    FrequentItems sketch = new FrequentItems(64) {
+      private boolean fail = true;
+
+      @Override
+      public void update(final long key, final long increment) {
+        if (fail && key == 5) {
+          fail = false;
+          throw new IllegalStateException();
+        }
+        super.update(key, increment);
+      }
+    };
+    long[] keys = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+    try {
+      sketch.update(keys, 0, keys.length);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    // the keys flushed before the failure count once, and the others not at all
+    sketch.update(new long[] {100}, 0, 1);
+    Assert.assertEquals(sketch.getStreamLength(), 6);
+    for (long key = 0; key < 10; key++) {
+      Assert.assertEquals(sketch.getEstimate(key), (key < 5) ? 1 : 0);
+    }
+    Assert.assertEquals(sketch.getEstimate(100), 1);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void batchOutOfBounds() {
+    new FrequentItems(16).update(new long[10], 5, 6);
+  }
+
   /**
    * @param prob the probability of success for the geometric distribution.
    * @return a random number generated from the geometric distribution.
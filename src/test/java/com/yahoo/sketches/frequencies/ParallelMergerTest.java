@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016, Yahoo! Inc. Licensed under the terms of the Apache License 2.0. See LICENSE file
+ * at the project root for terms.
+ */
+
+package com.yahoo.sketches.frequencies;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.sketches.hashmaps.HashStrategy;
+
+/**
+ * Tests ParallelMerger class
+ */
+public class ParallelMergerTest {
+
+  private static final int SKETCHES = 300;
+  private static final int UPDATES_PER_SKETCH = 500;
+  private static final int KEYS = 20000;
+
+  private final ForkJoinPool pool = new ForkJoinPool(4);
+
+  /**
+   * @return the key of update i, every fifth of them one of 4 heavy keys
+   */
+  private static int key(final Random random, final int i) {
+    return (i % 5 == 0) ? random.nextInt(4) : random.nextInt(KEYS);
+  }
+
+  @Test
+  public void countMinMatchesSequentialMerge() {
+    List<CountMin> sketches = new ArrayList<CountMin>();
+    CountMin sequential = new CountMin(0.01, 0.01, HashStrategy.FMIX64);
+    Random random = new Random(1);
+    for (int s = 0; s < SKETCHES; s++) {
+      CountMin sketch = new CountMin(0.01, 0.01, HashStrategy.FMIX64);
+      for (int i = 0; i < UPDATES_PER_SKETCH; i++) {
+        sketch.update(key(random, i));
+      }
+      sketches.add(sketch);
+      sequential.merge(sketch);
+    }
+    CountMin merged = new ParallelMerger<CountMin>(
+        ParallelMerger.countMin(0.01, 0.01, HashStrategy.FMIX64), pool, 8).merge(sketches);
+    Assert.assertEquals(merged.getMaxError(), sequential.getMaxError());
+    for (long key = 0; key < KEYS; key++) {
+      Assert.assertEquals(merged.getEstimate(key), sequential.getEstimate(key));
+    }
+  }
+
+  @Test
+  public void frequentItemsKeepBounds() {
+    List<FrequentItems> sketches = new ArrayList<FrequentItems>();
+    long[] realCounts = new long[KEYS];
+    Random random = new Random(2);
+    for (int s = 0; s < SKETCHES; s++) {
+      FrequentItems sketch = new FrequentItems(32);
+      for (int i = 0; i < UPDATES_PER_SKETCH; i++) {
+        int key = key(random, i);
+        sketch.update(key);
+        realCounts[key]++;
+      }
+      sketches.add(sketch);
+    }
+    FrequentItems merged = new ParallelMerger<FrequentItems>(
+        ParallelMerger.frequentItems(32), pool, 8).merge(sketches);
+    Assert.assertEquals(merged.getStreamLength(), SKETCHES * UPDATES_PER_SKETCH);
+    for (int key = 0; key < KEYS; key++) {
+      Assert.assertTrue(merged.getEstimateUpperBound(key) >= realCounts[key]);
+      Assert.assertTrue(merged.getEstimateLowerBound(key) <= realCounts[key]);
+    }
+    // the inputs are left as they were
+    Assert.assertEquals(sketches.get(0).getStreamLength(), UPDATES_PER_SKETCH);
+  }
+
+  @Test
+  public void spaceSavingKeepsBounds() {
+    List<SpaceSavingGood> sketches = new ArrayList<SpaceSavingGood>();
+    long[] realCounts = new long[KEYS];
+    Random random = new Random(3);
+    for (int s = 0; s < SKETCHES; s++) {
+      SpaceSavingGood sketch = new SpaceSavingGood(0.02);
+      for (int i = 0; i < UPDATES_PER_SKETCH; i++) {
+        int key = key(random, i);
+        sketch.update(key);
+        realCounts[key]++;
+      }
+      sketches.add(sketch);
+    }
+    SpaceSavingGood merged = new ParallelMerger<SpaceSavingGood>(
+        ParallelMerger.spaceSavingGood(0.02), pool).merge(sketches);
+    for (int key = 0; key < KEYS; key++) {
+      Assert.assertTrue(merged.getEstimateUpperBound(key) >= realCounts[key]);
+      Assert.assertTrue(merged.getEstimateLowerBound(key) <= realCounts[key]);
+    }
+  }
+
+  @Test
+  public void emptyListGivesEmptySketch() {
+    FrequentItems merged = new ParallelMerger<FrequentItems>(
+        ParallelMerger.frequentItems(32), pool).merge(new ArrayList<FrequentItems>());
+    Assert.assertTrue(merged.isEmpty());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void leafSizeMustBePositive() {
+    new ParallelMerger<FrequentItems>(ParallelMerger.frequentItems(32), pool, 0);
+  }
+
+}
@@ -7,22 +7,23 @@ package com.yahoo.sketches.frequencies;
 
 import java.util.Random;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Collections;
 import java.util.ArrayList;
 
-//import org.testng.annotations.Test;
+import org.testng.annotations.Test;
 import org.testng.Assert;
 
 public class PositiveCountersMapTest {
 
-  //@Test
+  @Test
   public void construct() {
     PositiveCountersMap cs = new PositiveCountersMap();
     Assert.assertNotNull(cs);
   }
 
 
-  //@Test(expectedExceptions = IllegalArgumentException.class)
+  @Test(expectedExceptions = IllegalArgumentException.class)
   public void putTest() {
     PositiveCountersMap cs = new PositiveCountersMap();
     long key = 4L;
@@ -38,7 +39,7 @@ public class PositiveCountersMapTest {
   }
 
 
-  //@Test
+  @Test
   public void incrementTest() {
     PositiveCountersMap cs = new PositiveCountersMap();
     long key = 4L;
@@ -46,7 +47,7 @@ public class PositiveCountersMapTest {
     Assert.assertTrue(cs.get(key) == 1);
   }
 
-  //@Test(expectedExceptions = IllegalArgumentException.class)
+  @Test(expectedExceptions = IllegalArgumentException.class)
   public void incrementWithValueTest() {
     PositiveCountersMap cs = new PositiveCountersMap();
     long key = 4L;
@@ -61,7 +62,7 @@ public class PositiveCountersMapTest {
     cs.increment(key, -234);
   }
 
-  //@Test
+  @Test
   public void decrementAllTest() {
     PositiveCountersMap cs = new PositiveCountersMap();
     long key = 4;
@@ -71,7 +72,7 @@ public class PositiveCountersMapTest {
     Assert.assertTrue(cs.get(key) == value - 1);
   }
 
-  //@Test(expectedExceptions = IllegalArgumentException.class)
+  @Test(expectedExceptions = IllegalArgumentException.class)
   public void decrementAllWithValueTest() {
     PositiveCountersMap cs = new PositiveCountersMap();
     long key = 4L;
@@ -88,7 +89,7 @@ public class PositiveCountersMapTest {
     cs.decerementAll(-234);
   }
 
-  //@Test
+  @Test
   public void decrementDeletesNegativeCounts() {
     PositiveCountersMap cs = new PositiveCountersMap();
     long key = 421L;
@@ -99,7 +100,7 @@ public class PositiveCountersMapTest {
     Assert.assertTrue(cs.nnz() == 0);
   }
 
-  //@Test
+  @Test
   public void decrementAllAndIncrementHasAnEffectIfDeltaLargerThanValue() {
     PositiveCountersMap cs = new PositiveCountersMap();
     long key = 421;
@@ -111,7 +112,7 @@ public class PositiveCountersMapTest {
     Assert.assertTrue(cs.get(key) == value);
   }
 
-  //@Test
+  @Test
   public void decrementAllAndIncrementHasNoEffectIfDeltaSmallerEqualToValue() {
     PositiveCountersMap cs = new PositiveCountersMap();
     long key = 421;
@@ -123,7 +124,7 @@ public class PositiveCountersMapTest {
     Assert.assertTrue(cs.get(key) == 2 * value - delta);
   }
 
-  //@Test
+  @Test
   public void negativeCountersReturnZero() {
     PositiveCountersMap cs = new PositiveCountersMap();
     long key = 4252L;
@@ -164,7 +165,7 @@ public class PositiveCountersMapTest {
     Assert.assertEquals(testValues, realValues);
   }
 
-  //@Test
+  @Test
   public void testAddOtherPositiveCounter() {
     int n = 100;
     HashMap<Long, Long> counters = new HashMap<Long, Long>();
@@ -196,7 +197,57 @@ public class PositiveCountersMapTest {
     }
   }
 
-  //@Test
+  @Test
+  public void matchesBoxedMapAcrossDecrements() {
+    PositiveCountersMap cs = new PositiveCountersMap();
+    PositiveCountersMap other = new PositiveCountersMap();
+    HashMap<Long, Long> counters = new HashMap<Long, Long>();
+    Random random = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      long key = random.nextInt(3000);
+      long delta = random.nextInt(5) + 1;
+      cs.increment(key, delta);
+      Long value = counters.get(key);
+      counters.put(key, (value == null ? 0 : value) + delta);
+      if (i % 1000 == 999) {
+        // enough to kill most counters, so that the table rebuilds around dead cells
+        cs.decerementAll(20);
+        ArrayList<Long> dead = new ArrayList<Long>();
+        for (Map.Entry<Long, Long> entry : counters.entrySet()) {
+          entry.setValue(entry.getValue() - 20);
+          if (entry.getValue() <= 0) {
+            dead.add(entry.getKey());
+          }
+        }
+        for (long deadKey : dead) {
+          counters.remove(deadKey);
+        }
+        Assert.assertEquals(cs.nnz(), counters.size());
+      }
+      if (i % 7 == 0) {
+        other.increment(key);
+      }
+    }
+    for (long key = 0; key < 3000; key++) {
+      Assert.assertEquals(cs.get(key), counters.containsKey(key) ? (long) counters.get(key) : 0L);
+    }
+    ArrayList<Long> keys = new ArrayList<Long>(cs.keys());
+    ArrayList<Long> values = new ArrayList<Long>(cs.values());
+    Assert.assertEquals(keys.size(), counters.size());
+    for (int i = 0; i < keys.size(); i++) {
+      Assert.assertEquals(values.get(i), counters.get(keys.get(i)));
+    }
+    long[] expected = new long[3000];
+    for (int key = 0; key < 3000; key++) {
+      expected[key] = cs.get(key) + other.get(key);
+    }
+    cs.increment(other);
+    for (int key = 0; key < 3000; key++) {
+      Assert.assertEquals(cs.get(key), expected[key]);
+    }
+  }
+
+  @Test
   public void printlnTest() {
     println("PRINTING: " + this.getClass().getName());
   }
@@ -6,10 +6,14 @@
 package com.yahoo.sketches.hashmaps;
 
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.yahoo.memory.NativeMemory;
+import com.yahoo.sketches.hash.MurmurHash3;
+
 import gnu.trove.function.TLongFunction;
 import gnu.trove.map.hash.TLongLongHashMap;
 import gnu.trove.procedure.TLongLongProcedure;
@@ -27,10 +31,350 @@ public class HashMapTest {
       case 6: return new HashMapRobinHood(capacity);   
       case 7: return new HashMapReverseEfficient(capacity);
       case 8: return new HashMapReverseEfficientOneArray(capacity);
+      case 9: return new HashMapBucketizedCuckoo(capacity);
+      case 10: return new HashMapCompact(capacity);
     } 
     return null;
   }
 
+  static private HashMap newHashMap(int capacity, int i, HashStrategy hashStrategy){
+    switch (i){
+      case 2: return new HashMapLinearProbingWithRebuilds(capacity, hashStrategy);
+      case 3: return new HashMapDoubleHashingWithRebuilds(capacity, hashStrategy);
+      case 4: return new HashMapWithImplicitDeletes(capacity, hashStrategy);
+      case 5: return new HashMapWithEfficientDeletes(capacity, hashStrategy);
+      case 6: return new HashMapRobinHood(capacity, hashStrategy);
+      case 7: return new HashMapReverseEfficient(capacity, hashStrategy);
+      case 8: return new HashMapReverseEfficientOneArray(capacity, hashStrategy);
+      case 9: return new HashMapBucketizedCuckoo(capacity, hashStrategy);
+      case 10: return new HashMapCompact(capacity, hashStrategy);
+    }
+    return null;
+  }
+
+  @Test
+  public void longMurmurHash3MatchesMurmurHash3(){
+    Random random = new Random(47);
+    long[] hash = new long[2];
+    long[] keys = {0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE};
+    for (int i=0; i<10000; i++) {
+      long key = (i < keys.length) ? keys[i] : random.nextLong();
+      long seed = (i % 2 == 0) ? 0 : random.nextLong();
+      long[] expected = MurmurHash3.hash(new long[] {key}, seed);
+      Assert.assertEquals(LongMurmurHash3.hash64(key, seed), expected[0]);
+      Assert.assertEquals(LongMurmurHash3.hash128(key, seed, hash), expected);
+    }
+    Assert.assertEquals(HashStrategy.MURMUR3.hash(12345L),
+        MurmurHash3.hash(new long[] {12345L}, 0)[0]);
+  }
+
+  @Test
+  public void testAllHashStrategiesCorrect(){
+    int capacity = 127;
+    HashStrategy[] strategies = {HashStrategy.FMIX64, HashStrategy.MURMUR3,
+        HashStrategy.MULTIPLY_SHIFT, HashStrategy.IDENTITY};
+    for (HashStrategy hashStrategy: strategies) {
+      for (int h=0; h<11 ;h++){
+        HashMap hashmap = newHashMap(capacity, h, hashStrategy);
+        if (hashmap == null) continue;
+        Assert.assertSame(hashmap.getHashStrategy(), hashStrategy);
+        TLongLongHashMap correct = new TLongLongHashMap(capacity);
+        // random longs stand in for keys that are already hashes
+        Random random = new Random(422);
+        for (int i=0; i<capacity; i++) {
+          long key = random.nextLong();
+          long value = random.nextInt(capacity) + 1;
+          hashmap.adjust(key, value);
+          correct.adjustOrPutValue(key, value, value);
+        }
+        hashmap.adjustAllValuesBy(-capacity/2);
+        hashmap.keepOnlyLargerThan(0);
+        correct.retainEntries(new GreaterThenThreshold(capacity/2));
+        correct.transformValues(new decreaseByThreshold(capacity/2));
+        Assert.assertEquals(hashmap.getSize(), correct.size());
+        for (long key: correct.keys()) {
+          Assert.assertEquals(hashmap.get(key), correct.get(key));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBucketizedCuckooFullLoad(){
+    for (int bucketSize: new int[]{4, 8}) {
+      HashMapBucketizedCuckoo hashmap =
+          new HashMapBucketizedCuckoo(13000, bucketSize, HashStrategy.FMIX64);
+      Assert.assertTrue(hashmap.getCapacity() >= 13000);
+      // the cuckoo table needs fewer cells than a linear probing table of the same capacity
+      Assert.assertTrue(hashmap.getLength() < new HashMapReverseEfficient(13000).getLength());
+      TLongLongHashMap correct = new TLongLongHashMap(13000);
+      Random random = new Random(bucketSize);
+      while (hashmap.getSize() < hashmap.getCapacity()) {
+        long key = random.nextLong();
+        long value = random.nextInt(1000) + 1;
+        hashmap.adjust(key, value);
+        correct.adjustOrPutValue(key, value, value);
+      }
+      for (long key: correct.keys()) {
+        Assert.assertEquals(hashmap.get(key), correct.get(key));
+      }
+      Assert.assertEquals(hashmap.get(random.nextLong()), 0);
+      hashmap.keepOnlyLargerThan(500);
+      correct.retainEntries(new GreaterThenThreshold(500));
+      Assert.assertEquals(hashmap.getSize(), correct.size());
+      for (long key: correct.keys()) {
+        Assert.assertEquals(hashmap.get(key), correct.get(key));
+      }
+    }
+  }
+
+  @Test
+  public void testCompactWideValues(){
+    HashMapCompact compact = new HashMapCompact(1000);
+    HashMapReverseEfficient reference = new HashMapReverseEfficient(1000);
+    Assert.assertEquals(compact.getMemoryBytes(), 13L * reference.getLength());
+    compact.adjust(1L, Integer.MAX_VALUE);
+    compact.adjust(2L, 5);
+    Assert.assertFalse(compact.hasWideValues());
+    compact.adjust(1L, 1);
+    Assert.assertTrue(compact.hasWideValues());
+    Assert.assertEquals(compact.get(1L), Integer.MAX_VALUE + 1L);
+    Assert.assertEquals(compact.get(2L), 5);
+  }
+
+  @Test
+  public void testCompactRawValuesAreNotCopied(){
+    HashMapCompact compact = new HashMapCompact(100);
+    compact.adjust(3L, 7);
+    long[] values = compact.ProtectedGetValues();
+    Assert.assertTrue(compact.hasWideValues());
+    Assert.assertSame(compact.ProtectedGetValues(), values);
+    compact.adjust(3L, 1);
+    Assert.assertEquals(values[(int) compact.hashStrategy.hash(3L) & compact.arrayMask], 8);
+    Assert.assertEquals(compact.toString(), "[(3,8)]");
+  }
+
+  @Test
+  public void testCompactLongProbeSequences(){
+    // with IDENTITY every key below is in the same home cell, so drifts run far past MAX_DRIFT
+    HashMapCompact compact = new HashMapCompact(1000, HashStrategy.IDENTITY);
+    HashMapReverseEfficient reference = new HashMapReverseEfficient(1000, HashStrategy.IDENTITY);
+    int keys = 2 * HashMapCompact.MAX_DRIFT;
+    for (int i = 0; i < keys; i++) {
+      compact.adjust((long) i * compact.getLength(), i + 1);
+      reference.adjust((long) i * compact.getLength(), i + 1);
+    }
+    Assert.assertEquals(compact.getStats(1).getMaxProbeLength(), keys);
+    compact.keepOnlyLargerThan(keys / 2);
+    reference.keepOnlyLargerThan(keys / 2);
+    Assert.assertEquals(compact.getSize(), reference.getSize());
+    for (int i = 0; i < keys; i++) {
+      long key = (long) i * compact.getLength();
+      Assert.assertEquals(compact.get(key), reference.get(key));
+    }
+  }
+
+  @Test
+  public void testReverseEfficientImage(){
+    HashMapReverseEfficient table = new HashMapReverseEfficient(1000, HashStrategy.MULTIPLY_SHIFT);
+    Random random = new Random(7);
+    for (int i=0; i<table.getCapacity(); i++) {
+      table.adjust(random.nextInt(5000), random.nextInt(100) + 1);
+    }
+    table.keepOnlyLargerThan(20);
+    byte[] bytes = table.toByteArray();
+    HashMapReverseEfficientImage image =
+        HashMapReverseEfficientImage.wrap(new NativeMemory(bytes).asReadOnlyMemory());
+    Assert.assertSame(image.getHashStrategy(), HashStrategy.MULTIPLY_SHIFT);
+    Assert.assertEquals(image.getSize(), table.getSize());
+    Assert.assertEquals(image.getLength(), table.getLength());
+    for (long key=0; key<5000; key++) {
+      Assert.assertEquals(image.get(key), table.get(key));
+    }
+    Assert.assertEquals(image.getKeys(), table.getKeys());
+    Assert.assertEquals(image.getValues(), table.getValues());
+
+    HashMapReverseEfficient copy = HashMapReverseEfficient.heapify(new NativeMemory(bytes));
+    Assert.assertEquals(copy.getKeys(), table.getKeys());
+    copy.adjust(1L, 5);
+    table.adjust(1L, 5);
+    Assert.assertEquals(copy.get(1L), table.get(1L));
+  }
+
+  @Test(expectedExceptions = UnsupportedOperationException.class)
+  public void testReverseEfficientImageIsReadOnly(){
+    HashMapReverseEfficient table = new HashMapReverseEfficient(100);
+    table.adjust(1L, 1);
+    HashMapReverseEfficientImage.wrap(new NativeMemory(table.toByteArray())).adjust(2L, 1);
+  }
+
+  @Test(timeOut = 10000)
+  public void testReverseEfficientImageWithoutEmptyCell(){
+    HashMapReverseEfficient table = new HashMapReverseEfficient(100);
+    table.adjust(1L, 3);
+    NativeMemory mem = new NativeMemory(table.toByteArray());
+    long statesOffset = HashMapReverseEfficient.IMAGE_PREAMBLE_BYTES + (table.getLength() << 4);
+    for (int i=0; i<table.getLength(); i++) {
+      mem.putShort(statesOffset + (i << 1), (short) 1);
+    }
+    HashMapReverseEfficientImage image = HashMapReverseEfficientImage.wrap(mem);
+    Assert.assertEquals(image.get(1L), 3);
+    Assert.assertEquals(image.get(2L), 0);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testReverseEfficientImageFullSize(){
+    HashMapReverseEfficient table = new HashMapReverseEfficient(100);
+    table.adjust(1L, 3);
+    NativeMemory mem = new NativeMemory(table.toByteArray());
+    // the size is the upper half of the first long, and may not exceed the capacity
+    mem.putLong(0, (mem.getLong(0) & 0xffffffffL) | ((long) table.getLength() << 32));
+    mem.putLong(8, table.getLength());
+    HashMapReverseEfficientImage.wrap(mem);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testReverseEfficientHeapifyCapacityMismatch(){
+    HashMapReverseEfficient table = new HashMapReverseEfficient(100);
+    table.adjust(1L, 3);
+    NativeMemory mem = new NativeMemory(table.toByteArray());
+    mem.putLong(8, 3);
+    HashMapReverseEfficient.heapify(mem);
+  }
+
+  @Test
+  public void testParallelPurgeMatchesSequential(){
+    int capacity = 3 * HashMapReverseEfficient.PARALLEL_PURGE_MIN_LENGTH / 4;
+    HashMapReverseEfficient sequential = new HashMapReverseEfficient(capacity);
+    HashMapReverseEfficient parallel = new HashMapReverseEfficient(capacity);
+    Assert.assertTrue(parallel.getLength() >= HashMapReverseEfficient.PARALLEL_PURGE_MIN_LENGTH);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    parallel.setPurgePool(pool);
+    Random random = new Random(11);
+    for (int round=0; round<3; round++) {
+      while (sequential.getSize() < capacity) {
+        long key = random.nextLong();
+        long value = random.nextInt(1000) + 1;
+        sequential.adjust(key, value);
+        parallel.adjust(key, value);
+      }
+      sequential.adjustAllValuesBy(-500);
+      sequential.keepOnlyLargerThan(0);
+      parallel.adjustAllValuesBy(-500);
+      parallel.keepOnlyLargerThan(0);
+      // every cluster is swept the same way, so the tables end up identical
+      Assert.assertEquals(parallel.getSize(), sequential.getSize());
+      Assert.assertEquals(parallel.getKeys(), sequential.getKeys());
+      Assert.assertEquals(parallel.getValues(), sequential.getValues());
+    }
+    pool.shutdown();
+  }
+
+  @Test
+  public void testLongPairKeys(){
+    int capacity = 1000;
+    HashMapLongPair hashmap = new HashMapLongPair(capacity);
+    TLongLongHashMap[] correct = {new TLongLongHashMap(), new TLongLongHashMap()};
+    Random random = new Random(19);
+    // pairs that share either word must still be told apart
+    for (int i=0; i<capacity; i++) {
+      long first = random.nextInt(2);
+      long second = random.nextInt(capacity);
+      long value = random.nextInt(100) + 1;
+      hashmap.adjust(first, second, value);
+      correct[(int) first].adjustOrPutValue(second, value, value);
+    }
+    Assert.assertEquals(hashmap.getSize(), correct[0].size() + correct[1].size());
+    for (long second=0; second<capacity; second++) {
+      Assert.assertEquals(hashmap.get(0, second), correct[0].get(second));
+      Assert.assertEquals(hashmap.get(1, second), correct[1].get(second));
+      Assert.assertEquals(hashmap.get(second, 0), (second < 2) ? correct[(int) second].get(0) : 0);
+    }
+    hashmap.adjustAllValuesBy(-50);
+    hashmap.keepOnlyLargerThan(0);
+    correct[0].retainEntries(new GreaterThenThreshold(50));
+    correct[1].retainEntries(new GreaterThenThreshold(50));
+    long[] keys = hashmap.getKeys();
+    long[] values = hashmap.getValues();
+    Assert.assertEquals(keys.length, 2 * values.length);
+    Assert.assertEquals(values.length, correct[0].size() + correct[1].size());
+    for (int i=0; i<values.length; i++) {
+      Assert.assertEquals(values[i], correct[(int) keys[2 * i]].get(keys[2 * i + 1]) - 50);
+    }
+  }
+
+  @Test
+  public void testStats(){
+    int capacity = 1000;
+    // without deletions every linear probing table puts the same keys in the same cells
+    HashMap[] linear = {new HashMapReverseEfficient(capacity),
+        new HashMapWithEfficientDeletes(capacity), new HashMapWithImplicitDeletes(capacity),
+        new HashMapLinearProbingWithRebuilds(capacity), new HashMapCompact(capacity),
+        new HashMapReverseEfficientOneArray(capacity)};
+    Random random = new Random(3);
+    for (int i=0; i<capacity; i++) {
+      long key = random.nextLong();
+      for (HashMap hashmap: linear) {
+        hashmap.adjust(key, i);
+      }
+    }
+    HashMapStats expected = linear[0].getStats(1);
+    Assert.assertEquals(expected.getSampledKeys(), capacity);
+    Assert.assertTrue(expected.getMaxProbeLength() > 1);
+    Assert.assertTrue(expected.getMeanProbeLength() >= 1);
+    for (HashMap hashmap: linear) {
+      HashMapStats stats = hashmap.getStats(1);
+      Assert.assertEquals(stats.getProbeLengthHistogram(), expected.getProbeLengthHistogram());
+      Assert.assertEquals(stats.getMaxProbeLength(), expected.getMaxProbeLength());
+      Assert.assertEquals(stats.getNumPurges(), 0);
+      hashmap.keepOnlyLargerThan(capacity / 2);
+      stats = hashmap.getStats();
+      Assert.assertEquals(stats.getNumPurges(), 1);
+      Assert.assertEquals(stats.getSize(), capacity - capacity / 2 - 1);
+    }
+    Assert.assertEquals(linear[3].getStats().getNumRebuilds(), 1);
+    Assert.assertEquals(linear[2].getStats(1).getTombstones(), capacity / 2 + 1);
+    Assert.assertEquals(linear[0].getStats(1).getTombstones(), 0);
+
+    for (int h=0; h<11 ;h++){
+      HashMap hashmap = newHashMap(capacity, h);
+      for (int i=0; i<capacity; i++) {
+        hashmap.adjust(random.nextLong(), 1);
+      }
+      HashMapStats stats = hashmap.getStats(1);
+      if (stats.getSampledKeys() > 0) {
+        Assert.assertEquals(stats.getSampledKeys(), capacity);
+        Assert.assertTrue(stats.getMaxProbeLength() >= 1);
+      }
+      Assert.assertTrue(hashmap.getStats().getSampledKeys() <= capacity);
+    }
+  }
+
+  @Test
+  public void testForEachVisitsAllEntries(){
+    int capacity = 127;
+    Random random = new Random(422);
+    for (int h=0; h<11 ;h++){
+      HashMap hashmap = newHashMap(capacity, h);
+      for (int i=0; i<capacity; i++) {
+        hashmap.adjust(random.nextInt(1000), random.nextInt(100) + 1);
+      }
+      hashmap.keepOnlyLargerThan(50);
+      final TLongLongHashMap visited = new TLongLongHashMap(capacity);
+      hashmap.forEach(new LongLongConsumer() {
+        @Override
+        public void accept(long key, long value) {
+          Assert.assertFalse(visited.containsKey(key));
+          visited.put(key, value);
+        }
+      });
+      Assert.assertEquals(visited.size(), hashmap.getSize());
+      for (long key: visited.keys()) {
+        Assert.assertEquals(visited.get(key), hashmap.get(key));
+      }
+    }
+  }
+
   @Test
   public void testAllHashMapsCorrect(){
     int capacity = 127;
@@ -40,7 +384,7 @@ public class HashMapTest {
     int keyRange = 11173;
      
     // Looping over all hashMap types
-    for (int h=0; h<10 ;h++){
+    for (int h=0; h<11 ;h++){
       HashMap hashmap = newHashMap(capacity, h);
       if (hashmap == null) continue;
       String s = String.format("Test: %s\n", hashmap.getClass().getSimpleName());